@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2017, atWare, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *  Neither the name of the atWare, Inc. nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL atWare, Inc. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package jp.co.atware.trial_app.balloon;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import jp.co.atware.trial_app.balloon.ImageLoader.Job;
+import jp.co.atware.trial_app.balloon.ImageLoader.Priority;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * ImageLoaderのタイムアウト試験
+ */
+@RunWith(AndroidJUnit4.class)
+public class ImageLoaderTimeoutTest {
+
+    private static final long WAIT_SECONDS = 60;
+
+    private ServerSocket server;
+    private final List<Socket> sockets = new ArrayList<>();
+    private final Semaphore accepted = new Semaphore(0);
+
+    /**
+     * 接続を受け付けて応答しないサーバーを起動
+     *
+     * @throws Exception テスト失敗
+     */
+    @Before
+    public void setUp() throws Exception {
+        server = new ServerSocket(0, 0, InetAddress.getByName("127.0.0.1"));
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        Socket socket = server.accept();
+                        synchronized (sockets) {
+                            sockets.add(socket);
+                        }
+                        accepted.release();
+                    }
+                } catch (IOException ignore) {
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * サーバーを停止
+     *
+     * @throws Exception テスト失敗
+     */
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+        synchronized (sockets) {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+        }
+    }
+
+    /**
+     * タイムアウトしたタスクは失敗を通知し、再要求は新しいタスクで取得し直すこと
+     *
+     * @throws Exception テスト失敗
+     */
+    @Test
+    public void timeout() throws Exception {
+        String url = "http://127.0.0.1:" + server.getLocalPort() + "/timeout-" + System.nanoTime() + ".jpg";
+        ImageLoader loader = ImageLoader.getInstance();
+        TargetSize size = loader.getBalloonSize();
+
+        final CountDownLatch failed = new CountDownLatch(1);
+        ImageAdapter adapter = new ImageAdapter(null, size) {
+            @Override
+            void onFailed(Job job) {
+                failed.countDown();
+            }
+        };
+        Job first = loader.load(adapter, url, size, Priority.VISIBLE);
+        assertTrue(accepted.tryAcquire(WAIT_SECONDS, TimeUnit.SECONDS));
+        assertTrue(failed.await(WAIT_SECONDS, TimeUnit.SECONDS));
+
+        // 失敗後の待機を解除して再要求
+        NegativeCache.getInstance().recordSuccess(url);
+        ImageAdapter retry = new ImageAdapter(null, size);
+        Job second = loader.load(retry, url, size, Priority.VISIBLE);
+        try {
+            assertNotSame(first, second);
+            assertTrue(accepted.tryAcquire(WAIT_SECONDS, TimeUnit.SECONDS));
+            assertEquals(0, accepted.availablePermits());
+        } finally {
+            loader.cancel(second, retry);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2017, atWare, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *  Neither the name of the atWare, Inc. nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL atWare, Inc. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package jp.co.atware.trial_app.chat;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import android.view.View.MeasureSpec;
+import android.widget.ListView;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import jp.co.atware.trial_app.balloon.Balloon;
+import jp.co.atware.trial_app.balloon.Balloon.BalloonType;
+import jp.co.atware.trial_app.balloon.BalloonAdapter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 最下部までのスクロール性能測定
+ */
+@RunWith(AndroidJUnit4.class)
+public class ScrollDownBenchmark {
+
+    private static final int ROWS = 5000;
+    private static final int REPEAT = 200;
+    private static final int WIDTH = 720;
+    private static final int HEIGHT = 1280;
+
+    private ListView listView;
+    private BalloonAdapter adapter;
+    private List<Balloon> balloonList;
+
+    /**
+     * 吹き出しを表示したListViewを準備
+     */
+    private void prepare() {
+        Context context = InstrumentationRegistry.getTargetContext();
+        balloonList = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++) {
+            add(i);
+        }
+        adapter = new BalloonAdapter(balloonList);
+        listView = new ListView(context);
+        listView.setAdapter(adapter);
+        layout();
+    }
+
+    /**
+     * 吹き出しを追加
+     *
+     * @param i 吹き出しの連番
+     */
+    private void add(int i) {
+        StringBuilder sb = new StringBuilder();
+        for (int j = 0; j <= i % 8; j++) {
+            sb.append("吹き出し").append(i % 16).append(' ');
+        }
+        Balloon balloon = new Balloon(i % 2 == 0 ? BalloonType.AI_VOICE : BalloonType.USER_VOICE,
+                sb.toString());
+        balloon.position = balloonList.size();
+        balloonList.add(balloon);
+    }
+
+    /**
+     * ListViewのレイアウトを実行
+     */
+    private void layout() {
+        listView.measure(MeasureSpec.makeMeasureSpec(WIDTH, MeasureSpec.EXACTLY),
+                MeasureSpec.makeMeasureSpec(HEIGHT, MeasureSpec.EXACTLY));
+        listView.layout(0, 0, WIDTH, HEIGHT);
+    }
+
+    /**
+     * 先頭から最下部までのスクロールを繰り返し実行
+     *
+     * @param cached 計測済みの高さを使用する場合にtrue
+     * @return 1回あたりの所要時間(ナノ秒)
+     */
+    private long scrollDown(boolean cached) {
+        long elapsed = 0;
+        for (int i = 0; i < REPEAT; i++) {
+            listView.setSelection(0);
+            layout();
+            if (!cached) {
+                adapter.clearRowHeights();
+            }
+            long start = System.nanoTime();
+            ChatApplication.scrollDown(listView, adapter);
+            layout();
+            elapsed += System.nanoTime() - start;
+            assertEquals(balloonList.size() - 1, listView.getLastVisiblePosition());
+        }
+        return elapsed / REPEAT;
+    }
+
+    /**
+     * 計測済みの高さの有無による最下部までのスクロール所要時間を比較
+     *
+     * @throws Exception テスト失敗
+     */
+    @Test
+    public void scrollDownWithThousandsOfRows() throws Exception {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                prepare();
+                // 最下部の行の高さを計測させる
+                ChatApplication.scrollDown(listView, adapter);
+                layout();
+                assertTrue(0 < adapter.getRowHeight(ROWS - 1, listView));
+
+                long uncached = scrollDown(false);
+                ChatApplication.scrollDown(listView, adapter);
+                layout();
+                long cached = scrollDown(true);
+                Log.i("ScrollDownBenchmark", String.format("rows=%d uncached=%dus cached=%dus",
+                        ROWS, uncached / 1000, cached / 1000));
+                assertTrue(cached <= uncached);
+            }
+        });
+    }
+
+    /**
+     * 追加直後のレイアウト前の行は同じ表示内容の行の高さで最下部までスクロールすること
+     *
+     * @throws Exception テスト失敗
+     */
+    @Test
+    public void scrollDownToAppendedRow() throws Exception {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                prepare();
+                ChatApplication.scrollDown(listView, adapter);
+                layout();
+                int measured = adapter.getRowHeight(ROWS - 1, listView);
+                assertTrue(0 < measured);
+
+                // 最下部の行と同じ表示内容の吹き出しを追加
+                add(ROWS + 15);
+                adapter.notifyDataSetChanged();
+                assertEquals(measured, adapter.getRowHeight(ROWS, listView));
+                ChatApplication.scrollDown(listView, adapter);
+                layout();
+                assertEquals(ROWS, listView.getLastVisiblePosition());
+                assertEquals(listView.getHeight() - listView.getPaddingBottom(),
+                        listView.getChildAt(listView.getChildCount() - 1).getBottom());
+            }
+        });
+    }
+}
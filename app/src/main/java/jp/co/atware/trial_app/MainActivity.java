@@ -48,6 +48,7 @@ import jp.co.atware.trial_app.chat.ChatController;
 import jp.co.atware.trial_app.fragment.EditConfig;
 import jp.co.atware.trial_app.fragment.Exit;
 import jp.co.atware.trial_app.fragment.ResetAccessToken;
+import jp.co.atware.trial_app.fragment.SearchBalloon;
 import jp.co.atware.trial_app.util.Config;
 import jp.co.atware.trial_app.util.URLConstants;
 
@@ -163,6 +164,9 @@ public class MainActivity extends AppCompatActivity implements OnMenuItemClickLi
                     chat.startText();
                 }
                 break;
+            case R.id.search:
+                new SearchBalloon().show(getSupportFragmentManager(), null);
+                break;
             case R.id.link_uds:
                 startBrowser(URLConstants.USER_DASHBOARD);
                 break;
@@ -30,22 +30,25 @@ package jp.co.atware.trial_app.balloon;
 import android.media.AudioManager;
 import android.media.MediaPlayer;
 import android.media.MediaPlayer.OnCompletionListener;
+import android.media.MediaPlayer.OnErrorListener;
 import android.media.MediaPlayer.OnPreparedListener;
 import android.os.Handler;
 import android.os.Looper;
 import android.util.Log;
 
+import java.io.IOException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import jp.co.atware.trial_app.R;
 import jp.co.atware.trial_app.balloon.Balloon.Action;
+import jp.co.atware.trial_app.balloon.NegativeCache.Failure;
 import jp.co.atware.trial_app.chat.ChatApplication;
 import jp.co.atware.trial_app.chat.ChatController;
 
 /**
  * AudioViewにMediaPlayerを適用
  */
-public class AudioAdapter implements OnCompletionListener, OnPreparedListener {
+public class AudioAdapter implements OnCompletionListener, OnPreparedListener, OnErrorListener {
 
     private static final int UPDATE_INTERVAL = 500;
 
@@ -90,6 +93,7 @@ public class AudioAdapter implements OnCompletionListener, OnPreparedListener {
     private AudioView playView;
     private AudioView afterUtt;
     private Object tag;
+    private String url;
 
     /**
      * コンストラクタ
@@ -97,6 +101,7 @@ public class AudioAdapter implements OnCompletionListener, OnPreparedListener {
     private AudioAdapter() {
         player.setOnCompletionListener(this);
         player.setOnPreparedListener(this);
+        player.setOnErrorListener(this);
     }
 
     /**
@@ -133,6 +138,8 @@ public class AudioAdapter implements OnCompletionListener, OnPreparedListener {
                     view.onPause();
                 }
             }
+        } else if (NegativeCache.getInstance().isBackingOff(view.getUrl())) {
+            view.onFailed();
         } else {
             view.onComplete();
             view.disableSeekBar();
@@ -152,6 +159,11 @@ public class AudioAdapter implements OnCompletionListener, OnPreparedListener {
         complete.set(false);
 
         if (!view.getTag().equals(tag)) {
+            if (NegativeCache.getInstance().isBackingOff(view.getUrl())) {
+                // 取得に失敗して待機中のメディアは再生しない
+                view.onFailed();
+                return;
+            }
             if (playView != null) {
                 playView.onComplete();
                 playView.disableSeekBar();
@@ -174,7 +186,8 @@ public class AudioAdapter implements OnCompletionListener, OnPreparedListener {
      * @param balloon 吹き出し
      */
     public synchronized void playWithoutView(Balloon balloon) {
-        if (prepare.get()) {
+        String url = balloon.payloads.get(0).url;
+        if (prepare.get() || NegativeCache.getInstance().isBackingOff(url)) {
             return;
         }
         stopProgress();
@@ -185,7 +198,7 @@ public class AudioAdapter implements OnCompletionListener, OnPreparedListener {
             playView.disableSeekBar();
         }
         tag = balloon.position;
-        prepare(balloon.payloads.get(0).url);
+        prepare(url);
     }
 
     /**
@@ -202,12 +215,28 @@ public class AudioAdapter implements OnCompletionListener, OnPreparedListener {
         }
     }
 
+    /**
+     * 再生準備時の例外を取得失敗の種類に変換
+     *
+     * @param e 例外
+     * @return 取得失敗の種類、URLに起因しないMediaPlayerの状態エラーの場合はnull
+     */
+    private static Failure failureOf(Exception e) {
+        if (e instanceof IOException) {
+            return Failure.NETWORK;
+        } else if (e instanceof IllegalArgumentException || e instanceof SecurityException) {
+            return Failure.CLIENT;
+        }
+        return null;
+    }
+
     /**
      * メディア再生の準備
      *
      * @param url メディアURL
      */
     private void prepare(String url) {
+        this.url = url;
         try {
             prepare.set(true);
             if (player.isPlaying()) {
@@ -224,11 +253,20 @@ public class AudioAdapter implements OnCompletionListener, OnPreparedListener {
         } catch (Exception e) {
             prepare.set(false);
             Log.d("AudioAdapter", "unexpected error occurred.", e);
+            Failure failure = failureOf(e);
+            if (failure != null) {
+                NegativeCache.getInstance().recordFailure(url, failure);
+            }
+            if (playView != null) {
+                playView.onFailed();
+            }
+            tag = null;
         }
     }
 
     @Override
     public void onPrepared(MediaPlayer mp) {
+        NegativeCache.getInstance().recordSuccess(url);
         if (playView != null) {
             playView.setDuration(player.getDuration());
         }
@@ -265,6 +303,25 @@ public class AudioAdapter implements OnCompletionListener, OnPreparedListener {
         }
     }
 
+    @Override
+    public boolean onError(MediaPlayer mp, int what, int extra) {
+        Log.d("AudioAdapter", "unable to play media. what=" + what + ", extra=" + extra);
+        Failure failure = (extra == MediaPlayer.MEDIA_ERROR_MALFORMED || extra == MediaPlayer.MEDIA_ERROR_UNSUPPORTED)
+                ? Failure.DECODE : Failure.NETWORK;
+        NegativeCache.getInstance().recordFailure(url, failure);
+        prepare.set(false);
+        stopProgress();
+        player.reset();
+        resumeVoiceChat();
+        complete.set(true);
+        if (playView != null && playView.getTag().equals(tag)) {
+            playView.onFailed();
+        }
+        // 次に再生ボタンをタップした時に準備し直す
+        tag = null;
+        return true;
+    }
+
     /**
      * プログレスバーの更新を開始
      */
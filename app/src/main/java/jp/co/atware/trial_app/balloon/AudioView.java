@@ -189,6 +189,15 @@ public class AudioView extends LinearLayout implements OnSeekBarChangeListener {
         play.setImageResource(R.drawable.ic_play_arrow_black_48px);
     }
 
+    /**
+     * 取得失敗時の処理
+     */
+    void onFailed() {
+        seekBar.setProgress(0);
+        disableSeekBar();
+        play.setImageResource(R.drawable.ic_broken_image_black_48px);
+    }
+
     @Override
     public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
         if (fromUser) {
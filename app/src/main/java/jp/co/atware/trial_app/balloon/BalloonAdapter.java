@@ -28,18 +28,19 @@
 package jp.co.atware.trial_app.balloon;
 
 import android.graphics.Color;
-import android.os.AsyncTask;
+import android.graphics.drawable.Drawable;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.v4.content.ContextCompat;
-import android.support.v4.view.PagerAdapter;
 import android.support.v4.view.ViewPager;
+import android.util.LruCache;
 import android.util.TypedValue;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.AbsListView;
 import android.widget.AbsListView.OnScrollListener;
+import android.widget.AbsListView.RecyclerListener;
 import android.widget.BaseAdapter;
 import android.widget.Button;
 import android.widget.ImageView;
@@ -47,6 +48,8 @@ import android.widget.LinearLayout;
 import android.widget.ProgressBar;
 import android.widget.TextView;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.List;
 
 import jp.co.atware.trial_app.MainActivity;
@@ -55,6 +58,7 @@ import jp.co.atware.trial_app.balloon.Balloon.Action;
 import jp.co.atware.trial_app.balloon.Balloon.BalloonType;
 import jp.co.atware.trial_app.balloon.BalloonButton.ButtonType;
 import jp.co.atware.trial_app.chat.ChatApplication;
+import jp.co.atware.trial_app.history.BalloonHistory.OnEvictListener;
 
 import static android.view.ViewGroup.LayoutParams.MATCH_PARENT;
 
@@ -62,7 +66,7 @@ import static android.view.ViewGroup.LayoutParams.MATCH_PARENT;
 /**
  * 吹き出しを表示
  */
-public class BalloonAdapter extends BaseAdapter implements OnScrollListener {
+public class BalloonAdapter extends BaseAdapter implements OnScrollListener, RecyclerListener, OnEvictListener {
 
     /**
      * 表示するViewを保持するクラス
@@ -75,6 +79,8 @@ public class BalloonAdapter extends BaseAdapter implements OnScrollListener {
         public HtmlView htmlView;
         public ViewGroup buttonGroup;
         public ViewPager compoundPager;
+        public int position;
+        public int content;
 
         /**
          * コンストラクタ
@@ -86,9 +92,46 @@ public class BalloonAdapter extends BaseAdapter implements OnScrollListener {
         }
     }
 
+    private static final int MAX_COMPOUND_SIZE = 8;
+
     private final List<Balloon> balloonList;
+    private final RowHeightCache heightCache = new RowHeightCache();
     private boolean scrollNow;
 
+    /**
+     * 行のレイアウト時に高さを記録
+     * <p>
+     * 画像やWebのロード中はプレースホルダーの高さのため記録せず、ロード完了後のレイアウトで記録する
+     */
+    private final View.OnLayoutChangeListener heightRecorder = new View.OnLayoutChangeListener() {
+        @Override
+        public void onLayoutChange(View v, int left, int top, int right, int bottom,
+                                   int oldLeft, int oldTop, int oldRight, int oldBottom) {
+            ViewHolder holder = (ViewHolder) v.getTag();
+            int height = bottom - top;
+            if (holder != null && 0 < height && isHeightFinal(holder)) {
+                heightCache.put(holder.position, holder.content, right - left, height);
+            }
+        }
+    };
+
+    /**
+     * 複合テンプレートの再利用可能なページViewのプール
+     */
+    private final Deque<View> pagePool = new ArrayDeque<>();
+
+    /**
+     * 吹き出し位置毎の複合テンプレート表示状態
+     */
+    private final LruCache<Integer, CompoundAdapter> compoundCache =
+            new LruCache<Integer, CompoundAdapter>(MAX_COMPOUND_SIZE) {
+                @Override
+                protected void entryRemoved(boolean evicted, Integer key,
+                                            CompoundAdapter oldValue, CompoundAdapter newValue) {
+                    oldValue.release();
+                }
+            };
+
     /**
      * コンストラクタ
      *
@@ -127,9 +170,14 @@ public class BalloonAdapter extends BaseAdapter implements OnScrollListener {
             row = LayoutInflater.from(parent.getContext()).inflate(balloon.type.layout, null);
             holder = createHolder(balloon.type, row);
             row.setTag(holder);
+            row.addOnLayoutChangeListener(heightRecorder);
         } else {
             holder = (ViewHolder) row.getTag();
         }
+        holder.position = position;
+        holder.content = RowHeightCache.contentKey(balloon);
+        // 計測済みの高さを確保し、画像やWebのロード中も行の高さを維持する
+        row.setMinimumHeight(heightCache.get(position, holder.content, getRowWidth(parent)));
         Payload payload = balloon.payloads.get(0);
         switch (holder.type) {
             case USER_VOICE:
@@ -148,9 +196,9 @@ public class BalloonAdapter extends BaseAdapter implements OnScrollListener {
             case IMAGE:
                 if (balloon.action == Action.SCROLL) {
                     balloon.action = Action.DO_NOTHING;
-                    setImage(holder.imageView, payload.url, true);
+                    setImage(holder.imageView, payload.url, ImageLoader.getInstance().getBalloonSize(), true);
                 } else {
-                    setImage(holder.imageView, payload.url, false);
+                    setImage(holder.imageView, payload.url, ImageLoader.getInstance().getBalloonSize(), false);
                 }
                 break;
             case HTML:
@@ -166,13 +214,94 @@ public class BalloonAdapter extends BaseAdapter implements OnScrollListener {
                 addButton(holder.buttonGroup, payload.buttons);
                 break;
             case COMPOUND:
-                PagerAdapter adapter = new CompoundAdapter(holder.compoundPager, balloon.payloads);
-                holder.compoundPager.setAdapter(adapter);
+                getCompoundAdapter(balloon).attach(holder.compoundPager);
                 break;
         }
         return row;
     }
 
+    /**
+     * 行の高さが確定しているか判定
+     *
+     * @param holder 表示するViewを保持するオブジェクト
+     * @return 表示内容のロードが完了している場合にtrue
+     */
+    private static boolean isHeightFinal(ViewHolder holder) {
+        switch (holder.type) {
+            case IMAGE:
+                Drawable drawable = holder.imageView.getDrawable();
+                return drawable instanceof RecycleBitmapDrawable && !(drawable instanceof PreviewDrawable);
+            case HTML:
+                return holder.htmlView.isLoaded();
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * 計測済みの行の高さを取得
+     * <p>
+     * 追加直後でレイアウト前の行は、同じ表示内容で計測済みの行の高さを使用する
+     *
+     * @param position 吹き出し位置
+     * @param parent   吹き出しを表示するView
+     * @return 計測済みの高さ、ロード完了前で未計測の場合は0
+     */
+    public int getRowHeight(int position, ViewGroup parent) {
+        if (position < 0 || balloonList.size() <= position) {
+            return 0;
+        }
+        int content = RowHeightCache.contentKey(balloonList.get(position));
+        int width = getRowWidth(parent);
+        int height = heightCache.get(position, content, width);
+        return (0 < height) ? height : heightCache.estimate(content, width);
+    }
+
+    /**
+     * 行の横幅を取得
+     *
+     * @param parent 吹き出しを表示するView
+     * @return 行の横幅
+     */
+    private static int getRowWidth(ViewGroup parent) {
+        return parent.getWidth() - parent.getPaddingLeft() - parent.getPaddingRight();
+    }
+
+    /**
+     * 画面破棄時に保持しているViewを解放
+     * <p>
+     * 複合テンプレートのページViewは画面のContextを参照するため、画面の破棄後に残さない
+     */
+    public void releaseViews() {
+        compoundCache.evictAll();
+        pagePool.clear();
+    }
+
+    /**
+     * 計測済みの行の高さを破棄
+     */
+    public void clearRowHeights() {
+        heightCache.clear();
+    }
+
+    /**
+     * 吹き出しの複合テンプレート表示状態を取得
+     *
+     * @param balloon 吹き出し
+     * @return 複合テンプレート表示状態
+     */
+    private CompoundAdapter getCompoundAdapter(Balloon balloon) {
+        if (balloon.position == null) {
+            return new CompoundAdapter(balloon.payloads, pagePool);
+        }
+        CompoundAdapter adapter = compoundCache.get(balloon.position);
+        if (adapter == null) {
+            adapter = new CompoundAdapter(balloon.payloads, pagePool);
+            compoundCache.put(balloon.position, adapter);
+        }
+        return adapter;
+    }
+
     /**
      * 表示するViewを保持するオブジェクトを生成
      *
@@ -213,21 +342,23 @@ public class BalloonAdapter extends BaseAdapter implements OnScrollListener {
      *
      * @param imageView ImageView
      * @param url       画像URL
+     * @param size      表示サイズ
      * @param scroll    画像設定後にスクロールする場合にtrue
      */
-    static void setImage(final ImageView imageView, String url, boolean scroll) {
-        AsyncTask tag = (AsyncTask) imageView.getTag();
-        if (tag != null) {
-            tag.cancel(true);
-        }
+    static void setImage(final ImageView imageView, String url, TargetSize size, boolean scroll) {
+        ImageAdapter.cancel(imageView);
         if (url == null) {
             return;
         }
-        RecycleBitmapDrawable drawable = ImageCache.getInstance().get(url);
+        RecycleBitmapDrawable drawable = ImageCache.getInstance().get(url, size);
         if (drawable != null) {
             imageView.setImageDrawable(drawable);
         } else {
-            ImageAdapter adapter = new ImageAdapter(imageView);
+            if (NegativeCache.getInstance().isBackingOff(url)) {
+                // 取得に失敗して待機中の画像はプレースホルダーを表示し、ディスクキャッシュのみ参照する
+                ImageAdapter.setPlaceholder(imageView);
+            }
+            ImageAdapter adapter = new ImageAdapter(imageView, size);
             adapter.setScroll(scroll);
             adapter.execute(url);
         }
@@ -284,6 +415,26 @@ public class BalloonAdapter extends BaseAdapter implements OnScrollListener {
         }
     }
 
+    @Override
+    public void onEvict(Balloon balloon) {
+        // 画面外の吹き出しが保持する複合テンプレートのページと画像を解放(表示中のものは残す)
+        if (balloon.position != null) {
+            CompoundAdapter adapter = compoundCache.get(balloon.position);
+            if (adapter != null && !adapter.isShown()) {
+                compoundCache.remove(balloon.position);
+            }
+        }
+        if (balloon.payloads != null
+                && (balloon.type == BalloonType.IMAGE || balloon.type == BalloonType.COMPOUND)) {
+            ImageCache cache = ImageCache.getInstance();
+            for (Payload payload : balloon.payloads) {
+                if (payload.url != null) {
+                    cache.trim(payload.url);
+                }
+            }
+        }
+    }
+
     @Override
     public void onScrollStateChanged(AbsListView view, int scrollState) {
         switch (scrollState) {
@@ -310,4 +461,24 @@ public class BalloonAdapter extends BaseAdapter implements OnScrollListener {
         // do nothing
     }
 
+    @Override
+    public void onMovedToScrapHeap(View view) {
+        // 画面外に出た行の画像読み込みをキャンセル
+        ViewHolder holder = (ViewHolder) view.getTag();
+        if (holder == null) {
+            return;
+        }
+        switch (holder.type) {
+            case IMAGE:
+                ImageAdapter.cancel(holder.imageView);
+                break;
+            case COMPOUND:
+                CompoundAdapter adapter = (CompoundAdapter) holder.compoundPager.getAdapter();
+                if (adapter != null) {
+                    adapter.cancel();
+                }
+                break;
+        }
+    }
+
 }
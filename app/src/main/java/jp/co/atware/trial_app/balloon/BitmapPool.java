@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2017, atWare, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *  Neither the name of the atWare, Inc. nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL atWare, Inc. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package jp.co.atware.trial_app.balloon;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import jp.co.atware.trial_app.chat.ChatApplication;
+
+/**
+ * デコードに再利用するBitmapのプール
+ * <p>
+ * 解放されたBitmapを確保済みのバイト数毎に保持し、
+ * デコード時に必要なサイズ以上の最小のBitmapをBitmapFactory.Options#inBitmapに指定する
+ */
+public class BitmapPool {
+
+    private static final int MAX_SIZE_MULTIPLE = 4;
+
+    private static volatile BitmapPool INSTANCE = null;
+
+    /**
+     * Singletonインスタンスを取得
+     *
+     * @return インスタンス
+     */
+    public static BitmapPool getInstance() {
+        if (INSTANCE == null) {
+            synchronized (BitmapPool.class) {
+                if (INSTANCE == null) {
+                    Context context = ChatApplication.getInstance().getApplicationContext();
+                    int memClass = ((ActivityManager) context.
+                            getSystemService(Context.ACTIVITY_SERVICE)).getMemoryClass();
+                    INSTANCE = new BitmapPool(memClass * 1024 * 1024 / 16);
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    private final TreeMap<Integer, ArrayDeque<Bitmap>> buckets = new TreeMap<>();
+    private final LinkedHashSet<Bitmap> lastUse = new LinkedHashSet<>();
+    private final int maxSize;
+    private int currentSize = 0;
+    private long hitCount = 0;
+    private long missCount = 0;
+    private long putCount = 0;
+    private long evictCount = 0;
+
+    /**
+     * コンストラクタ
+     *
+     * @param maxSize 保持するBitmapの合計バイト数の上限
+     */
+    private BitmapPool(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * デコードに再利用するBitmapをセット
+     * <p>
+     * inSampleSizeとinPreferredConfigを設定済みのOptionsに、デコード後のサイズを格納できるBitmapを指定する
+     *
+     * @param opts         BitmapFactory.Options
+     * @param sourceWidth  画像の横幅のPixel数
+     * @param sourceHeight 画像の縦幅のPixel数
+     */
+    public void setInBitmap(BitmapFactory.Options opts, int sourceWidth, int sourceHeight) {
+        opts.inMutable = true;
+        if (sourceWidth <= 0 || sourceHeight <= 0) {
+            return;
+        }
+        int sampleSize = Math.max(1, opts.inSampleSize);
+        int width = (sourceWidth + sampleSize - 1) / sampleSize;
+        int height = (sourceHeight + sampleSize - 1) / sampleSize;
+        opts.inBitmap = get(width * height * getBytesPerPixel(opts.inPreferredConfig));
+    }
+
+    /**
+     * 指定バイト数以上の最小のBitmapを取得
+     *
+     * @param byteCount 必要なバイト数
+     * @return Bitmap、再利用できるBitmapが無い場合はnull
+     */
+    private synchronized Bitmap get(int byteCount) {
+        Map.Entry<Integer, ArrayDeque<Bitmap>> entry = buckets.ceilingEntry(byteCount);
+        // 必要なサイズより大きすぎるBitmapはメモリを浪費するため使用しない
+        if (entry == null || byteCount * MAX_SIZE_MULTIPLE < entry.getKey()) {
+            missCount++;
+            return null;
+        }
+        Bitmap bitmap = entry.getValue().poll();
+        if (entry.getValue().isEmpty()) {
+            buckets.remove(entry.getKey());
+        }
+        lastUse.remove(bitmap);
+        currentSize -= entry.getKey();
+        hitCount++;
+        return bitmap;
+    }
+
+    /**
+     * 解放されたBitmapをプールに返却
+     * <p>
+     * 再利用できないBitmapはrecycleする
+     *
+     * @param bitmap Bitmap
+     */
+    public void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return;
+        }
+        int byteCount = bitmap.getAllocationByteCount();
+        if (!bitmap.isMutable() || maxSize < byteCount) {
+            bitmap.recycle();
+            return;
+        }
+        synchronized (this) {
+            if (!lastUse.add(bitmap)) {
+                return;
+            }
+            ArrayDeque<Bitmap> bucket = buckets.get(byteCount);
+            if (bucket == null) {
+                bucket = new ArrayDeque<>();
+                buckets.put(byteCount, bucket);
+            }
+            bucket.push(bitmap);
+            currentSize += byteCount;
+            putCount++;
+            trimToSize(maxSize);
+        }
+    }
+
+    /**
+     * 合計バイト数が上限以下になるまで最も長く使われていないBitmapを破棄
+     *
+     * @param size 合計バイト数の上限
+     */
+    public synchronized void trimToSize(int size) {
+        Iterator<Bitmap> it = lastUse.iterator();
+        while (size < currentSize && it.hasNext()) {
+            Bitmap bitmap = it.next();
+            it.remove();
+            int byteCount = bitmap.getAllocationByteCount();
+            ArrayDeque<Bitmap> bucket = buckets.get(byteCount);
+            bucket.remove(bitmap);
+            if (bucket.isEmpty()) {
+                buckets.remove(byteCount);
+            }
+            currentSize -= byteCount;
+            evictCount++;
+            bitmap.recycle();
+        }
+    }
+
+    /**
+     * メモリ不足の度合いに応じてプールを縮小
+     *
+     * @param level ComponentCallbacks2#onTrimMemoryのレベル
+     */
+    public void trimMemory(int level) {
+        if (ComponentCallbacks2.TRIM_MEMORY_BACKGROUND <= level) {
+            trimToSize(0);
+        } else if (ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW <= level) {
+            trimToSize(maxSize / 2);
+        }
+    }
+
+    /**
+     * 1Pixelあたりのバイト数を取得
+     *
+     * @param config Bitmapの形式
+     * @return バイト数
+     */
+    private static int getBytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.RGB_565) {
+            return 2;
+        }
+        return 4;
+    }
+
+    @Override
+    public synchronized String toString() {
+        long total = hitCount + missCount;
+        return "BitmapPool{" +
+                "hitRatio=" + String.format(Locale.US, "%.3f", (0 < total) ? (double) hitCount / total : 0) +
+                ", hits=" + hitCount +
+                ", misses=" + missCount +
+                ", puts=" + putCount +
+                ", evictions=" + evictCount +
+                ", size=" + currentSize +
+                ", maxSize=" + maxSize +
+                '}';
+    }
+}
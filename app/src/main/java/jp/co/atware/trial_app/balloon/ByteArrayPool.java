@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2017, atWare, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *  Neither the name of the atWare, Inc. nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL atWare, Inc. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package jp.co.atware.trial_app.balloon;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 再利用可能なbyte配列のプール
+ * <p>
+ * 配列は2のべき乗のサイズで確保し、サイズ毎のバケットに分けて保持する。
+ * 要求サイズを切り上げたバケットから直近に返却された配列を貸し出すため、取得と返却は探索せずに行える。
+ * 合計サイズが上限を超えた場合は最も大きいバケットの古い配列から破棄する
+ */
+public class ByteArrayPool {
+
+    /**
+     * 最小のバケット(256バイト)
+     */
+    private static final int MIN_BUCKET = 8;
+    /**
+     * 最大のバケット(1GB)
+     */
+    private static final int MAX_BUCKET = 30;
+
+    private final List<ArrayDeque<byte[]>> buckets = new ArrayList<>(MAX_BUCKET + 1);
+    private final int sizeLimit;
+    private int currentSize = 0;
+    private long hitCount = 0;
+    private long missCount = 0;
+
+    /**
+     * コンストラクタ
+     *
+     * @param sizeLimit プールに保持する配列の合計サイズの上限
+     */
+    public ByteArrayPool(int sizeLimit) {
+        this.sizeLimit = sizeLimit;
+        for (int i = 0; i <= MAX_BUCKET; i++) {
+            buckets.add(new ArrayDeque<byte[]>());
+        }
+    }
+
+    /**
+     * 配列を取得
+     *
+     * @param length 必要なサイズ
+     * @return 指定サイズ以上の配列
+     */
+    public synchronized byte[] getBuf(int length) {
+        int bucket = (length <= 1 << MIN_BUCKET) ? MIN_BUCKET : Integer.SIZE - Integer.numberOfLeadingZeros(length - 1);
+        if (MAX_BUCKET < bucket) {
+            missCount++;
+            return new byte[length];
+        }
+        byte[] buf = buckets.get(bucket).pollLast();
+        if (buf != null) {
+            currentSize -= buf.length;
+            hitCount++;
+            return buf;
+        }
+        missCount++;
+        return new byte[1 << bucket];
+    }
+
+    /**
+     * 配列をプールに返却
+     * <p>
+     * 配列はサイズを切り捨てたバケットに格納する
+     *
+     * @param buf 返却する配列
+     */
+    public synchronized void returnBuf(byte[] buf) {
+        if (buf == null || buf.length < 1 << MIN_BUCKET || sizeLimit < buf.length) {
+            return;
+        }
+        int bucket = Math.min(Integer.SIZE - 1 - Integer.numberOfLeadingZeros(buf.length), MAX_BUCKET);
+        buckets.get(bucket).addLast(buf);
+        currentSize += buf.length;
+        for (int i = MAX_BUCKET; sizeLimit < currentSize; i--) {
+            ArrayDeque<byte[]> deque = buckets.get(i);
+            while (sizeLimit < currentSize && !deque.isEmpty()) {
+                currentSize -= deque.pollFirst().length;
+            }
+        }
+    }
+
+    /**
+     * プールに保持している配列の合計サイズを取得
+     *
+     * @return バイト数
+     */
+    public synchronized int getCurrentSize() {
+        return currentSize;
+    }
+
+    /**
+     * プールから再利用できた回数を取得
+     *
+     * @return 再利用回数
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * 新しく配列を確保した回数を取得
+     *
+     * @return 確保回数
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2017, atWare, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *  Neither the name of the atWare, Inc. nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL atWare, Inc. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package jp.co.atware.trial_app.balloon;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * キャッシュキーの生成
+ * <p>
+ * SHA-256のダイジェストを16進数の小文字64桁で表す。DiskLruCacheのキーにもそのまま使用できる
+ */
+public class CacheKey {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final int MAX_URL_COUNT = 256;
+
+    private static final ThreadLocal<MessageDigest> DIGEST = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    /**
+     * 最近生成したURLのキー
+     * <p>
+     * 行を表示する度にメインスレッドでキーを参照するため、最近のURLはハッシュ値の計算を省く
+     */
+    private static final Map<String, String> URL_KEYS = new LinkedHashMap<String, String>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return MAX_URL_COUNT < size();
+        }
+    };
+
+    /**
+     * コンストラクタ
+     */
+    private CacheKey() {
+    }
+
+    /**
+     * URLのキーを生成
+     *
+     * @param url URL
+     * @return キー
+     */
+    public static String of(String url) {
+        String key;
+        synchronized (URL_KEYS) {
+            key = URL_KEYS.get(url);
+        }
+        if (key == null) {
+            byte[] bytes = url.getBytes(UTF_8);
+            key = ofContent(bytes, bytes.length);
+            synchronized (URL_KEYS) {
+                URL_KEYS.put(url, key);
+            }
+        }
+        return key;
+    }
+
+    /**
+     * データ内容のキーを生成
+     *
+     * @param data   データ
+     * @param length データのサイズ
+     * @return キー
+     */
+    public static String ofContent(byte[] data, int length) {
+        MessageDigest digest = DIGEST.get();
+        digest.reset();
+        digest.update(data, 0, length);
+        byte[] hash = digest.digest();
+        char[] chars = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            chars[i * 2] = HEX[(hash[i] >> 4) & 0x0f];
+            chars[i * 2 + 1] = HEX[hash[i] & 0x0f];
+        }
+        return new String(chars);
+    }
+}
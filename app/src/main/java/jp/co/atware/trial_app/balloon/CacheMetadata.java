@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2017, atWare, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *  Neither the name of the atWare, Inc. nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL atWare, Inc. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package jp.co.atware.trial_app.balloon;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * HTTPキャッシュの検証情報
+ * <p>
+ * レスポンスのETag、Last-Modified、Cache-Control、Expiresから有効期限と条件付きリクエストの値を保持する
+ */
+public class CacheMetadata {
+
+    private static final Pattern MAX_AGE = Pattern.compile("(?:^|[,\\s])max-age\\s*=\\s*\"?(\\d+)");
+    private static final long HEURISTIC_MAX = TimeUnit.DAYS.toMillis(1);
+    private static final String SEPARATOR = "\t";
+
+    public final String etag;
+    public final String lastModified;
+    public final long expires;
+    public final boolean storable;
+
+    /**
+     * コンストラクタ
+     *
+     * @param etag         ETag
+     * @param lastModified Last-Modified
+     * @param expires      有効期限(エポックミリ秒)
+     * @param storable     キャッシュに保存できる場合にtrue
+     */
+    public CacheMetadata(String etag, String lastModified, long expires, boolean storable) {
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.expires = expires;
+        this.storable = storable;
+    }
+
+    /**
+     * レスポンスヘッダーから検証情報を生成
+     * <p>
+     * 有効期限はCache-Controlのmax-age、Expiresの順に採用し、
+     * どちらも無い場合はLast-Modifiedからの経過時間の1/10(最大1日)とする
+     *
+     * @param cacheControl Cache-Control
+     * @param expires      Expires
+     * @param etag         ETag
+     * @param lastModified Last-Modified
+     * @param now          現在時刻(エポックミリ秒)
+     * @return 検証情報
+     */
+    public static CacheMetadata parse(String cacheControl, String expires, String etag,
+                                      String lastModified, long now) {
+        boolean storable = true;
+        long lifetime = -1;
+        if (cacheControl != null) {
+            String directives = cacheControl.toLowerCase(Locale.US);
+            if (directives.contains("no-store")) {
+                storable = false;
+            }
+            if (directives.contains("no-cache")) {
+                lifetime = 0;
+            } else {
+                Matcher matcher = MAX_AGE.matcher(directives);
+                if (matcher.find()) {
+                    lifetime = TimeUnit.SECONDS.toMillis(Long.parseLong(matcher.group(1)));
+                }
+            }
+        }
+        if (lifetime < 0 && expires != null) {
+            long date = parseDate(expires);
+            lifetime = (0 < date) ? Math.max(0, date - now) : 0;
+        }
+        if (lifetime < 0) {
+            long modified = (lastModified != null) ? parseDate(lastModified) : -1;
+            lifetime = (0 < modified && modified < now) ? Math.min((now - modified) / 10, HEURISTIC_MAX)
+                    : HEURISTIC_MAX;
+        }
+        return new CacheMetadata(etag, lastModified, now + lifetime, storable);
+    }
+
+    /**
+     * HTTP日付を解析
+     *
+     * @param value HTTP日付
+     * @return エポックミリ秒、解析できない場合は-1
+     */
+    static long parseDate(String value) {
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            Date date = format.parse(value.trim());
+            return date.getTime();
+        } catch (ParseException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 有効期限内か判定
+     *
+     * @param now 現在時刻(エポックミリ秒)
+     * @return 有効期限内の場合にtrue
+     */
+    public boolean isFresh(long now) {
+        return now < expires;
+    }
+
+    /**
+     * 条件付きリクエストに使用する値があるか判定
+     *
+     * @return ETagかLast-Modifiedがある場合にtrue
+     */
+    public boolean hasValidator() {
+        return etag != null || lastModified != null;
+    }
+
+    /**
+     * 304レスポンスのヘッダーで更新
+     * <p>
+     * レスポンスに含まれない検証情報は保存済みの値を維持し、有効期限の推定にも使用する
+     *
+     * @param cacheControl Cache-Control
+     * @param expires      Expires
+     * @param etag         ETag
+     * @param lastModified Last-Modified
+     * @param now          現在時刻(エポックミリ秒)
+     * @return 更新後の検証情報
+     */
+    public CacheMetadata revalidate(String cacheControl, String expires, String etag, String lastModified,
+                                    long now) {
+        return parse(cacheControl, expires, (etag != null) ? etag : this.etag,
+                (lastModified != null) ? lastModified : this.lastModified, now);
+    }
+
+    /**
+     * ディスクキャッシュに保存する文字列に変換
+     *
+     * @return 文字列
+     */
+    public String encode() {
+        return ((etag != null) ? etag : "") + SEPARATOR
+                + ((lastModified != null) ? lastModified : "") + SEPARATOR + expires;
+    }
+
+    /**
+     * ディスクキャッシュに保存した文字列から復元
+     *
+     * @param value 文字列
+     * @return 検証情報、文字列が空か不正な場合はnull
+     */
+    public static CacheMetadata decode(String value) {
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        String[] fields = value.split(SEPARATOR, -1);
+        if (fields.length != 3) {
+            return null;
+        }
+        try {
+            return new CacheMetadata(fields[0].isEmpty() ? null : fields[0],
+                    fields[1].isEmpty() ? null : fields[1], Long.parseLong(fields[2]), true);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -29,6 +29,8 @@ package jp.co.atware.trial_app.balloon;
 
 import android.support.v4.view.PagerAdapter;
 import android.support.v4.view.ViewPager;
+import android.support.v4.view.ViewPager.SimpleOnPageChangeListener;
+import android.util.SparseArray;
 import android.view.LayoutInflater;
 import android.view.MotionEvent;
 import android.view.View;
@@ -39,6 +41,7 @@ import android.widget.ImageView;
 import android.widget.ScrollView;
 import android.widget.TextView;
 
+import java.util.Deque;
 import java.util.List;
 
 import jp.co.atware.trial_app.R;
@@ -51,8 +54,13 @@ import static jp.co.atware.trial_app.balloon.BalloonAdapter.setImage;
  */
 public class CompoundAdapter extends PagerAdapter {
 
-    private final ViewPager pager;
+    private static final int MAX_POOL_SIZE = 6;
+
     private final List<Payload> pages;
+    private final Deque<View> pagePool;
+    private final SparseArray<View> pageViews = new SparseArray<>();
+    private ViewPager pager;
+    private int currentItem;
 
     private final OnClickListener prev = new OnClickListener() {
         @Override
@@ -70,40 +78,142 @@ public class CompoundAdapter extends PagerAdapter {
         }
     };
 
+    private final SimpleOnPageChangeListener pageChange = new SimpleOnPageChangeListener() {
+        @Override
+        public void onPageSelected(int position) {
+            currentItem = position;
+            prefetch(position);
+        }
+    };
+
     /**
      * コンストラクタ
      *
+     * @param pages    ページ毎の表示情報
+     * @param pagePool 再利用可能なページViewのプール
+     */
+    public CompoundAdapter(List<Payload> pages, Deque<View> pagePool) {
+        this.pages = pages;
+        this.pagePool = pagePool;
+    }
+
+    /**
+     * ViewPagerに適用
+     * <p>
+     * 既に適用済みの場合は何もせず、表示中のページと生成済みのページを維持する。
+     * 別のViewPagerに適用する場合は、以前のViewPagerから外してページを取り外す
+     *
      * @param pager ViewPager
-     * @param pages ページ毎の表示情報
      */
-    public CompoundAdapter(ViewPager pager, List<Payload> pages) {
+    void attach(ViewPager pager) {
+        if (this.pager == pager && pager.getAdapter() == this) {
+            // 画面外で読み込みがキャンセルされた画像を再設定
+            for (int i = 0; i < pageViews.size(); i++) {
+                restoreImage(pageViews.valueAt(i), pageViews.keyAt(i));
+            }
+            return;
+        }
+        if (this.pager != null && this.pager.getAdapter() == this) {
+            this.pager.clearOnPageChangeListeners();
+            this.pager.setAdapter(null);
+        }
         this.pager = pager;
-        this.pages = pages;
+        pager.clearOnPageChangeListeners();
+        pager.setAdapter(this);
+        pager.setCurrentItem(currentItem, false);
+        pager.addOnPageChangeListener(pageChange);
+        prefetch(currentItem);
+    }
+
+    /**
+     * ViewPagerで表示中か判定
+     *
+     * @return 画面上のViewPagerに適用されている場合にtrue
+     */
+    boolean isShown() {
+        return pager != null && pager.getAdapter() == this && pager.isShown();
+    }
+
+    /**
+     * 生成済みのページをプールに返却
+     */
+    void release() {
+        for (int i = 0; i < pageViews.size(); i++) {
+            View view = pageViews.valueAt(i);
+            if (view.getParent() == null && pagePool.size() < MAX_POOL_SIZE) {
+                pagePool.push(view);
+            }
+        }
+        pageViews.clear();
+        pager = null;
+    }
+
+    /**
+     * 前後のページの画像を先読み
+     *
+     * @param position 表示中のページ位置
+     */
+    private void prefetch(int position) {
+        // ViewPagerが保持するページの外側まで先読みする
+        int distance = pager.getOffscreenPageLimit() + 1;
+        for (int i = position - distance; i <= position + distance; i++) {
+            if (i != position && 0 <= i && i < pages.size()) {
+                ImageAdapter.prefetch(pages.get(i).url, ImageLoader.getInstance().getCompoundSize());
+            }
+        }
     }
 
     @Override
     public Object instantiateItem(ViewGroup container, int position) {
-        View view = LayoutInflater.from(container.getContext()).inflate(R.layout.compound, null);
-        // PayloadのデータをViewにセット
-        Payload payload = pages.get(position);
-        setImage((ImageView) view.findViewById(R.id.compound_image), payload.url, false);
-        ((TextView) view.findViewById(R.id.compound_title)).setText(payload.title);
-        ((TextView) view.findViewById(R.id.compound_text)).setText(payload.text);
-        addButton((ViewGroup) view.findViewById(R.id.compound_button), payload.buttons);
-        // ナビゲートボタンをセット
-        if (position == 0) {
-            view.findViewById(R.id.chat_icon).setVisibility(View.VISIBLE);
+        View view = pageViews.get(position);
+        if (view == null) {
+            view = obtainPage(container);
+            bindPage(view, position);
+            pageViews.put(position, view);
+        } else {
+            if (view.getParent() != null) {
+                ((ViewGroup) view.getParent()).removeView(view);
+            }
+            restoreImage(view, position);
         }
-        if (0 < position) {
-            ImageButton button = (ImageButton) view.findViewById(R.id.compound_prev);
-            button.setOnClickListener(prev);
-            button.setVisibility(View.VISIBLE);
+        container.addView(view);
+        return view;
+    }
+
+    /**
+     * 画像が解放されたページや低解像度の画像のまま読み込みがキャンセルされたページに画像を再設定
+     *
+     * @param view     ページView
+     * @param position ページ位置
+     */
+    private void restoreImage(View view, int position) {
+        ImageView imageView = (ImageView) view.findViewById(R.id.compound_image);
+        if (ImageAdapter.needsReload(imageView)) {
+            setImage(imageView, pages.get(position).url, ImageLoader.getInstance().getCompoundSize(), false);
         }
-        if (position < pages.size() - 1) {
-            ImageButton button = (ImageButton) view.findViewById(R.id.compound_next);
-            button.setOnClickListener(next);
-            button.setVisibility(View.VISIBLE);
+    }
+
+    /**
+     * 生成済みのページの画像読み込みをキャンセル
+     */
+    void cancel() {
+        for (int i = 0; i < pageViews.size(); i++) {
+            ImageAdapter.cancel((ImageView) pageViews.valueAt(i).findViewById(R.id.compound_image));
         }
+    }
+
+    /**
+     * ページViewをプールから取得、プールが空の場合は生成
+     *
+     * @param container ページの親View
+     * @return ページView
+     */
+    private View obtainPage(ViewGroup container) {
+        View view = pagePool.poll();
+        if (view != null) {
+            return view;
+        }
+        view = LayoutInflater.from(container.getContext()).inflate(R.layout.compound, null);
         // ListView内のScrollViewを操作可能にする
         view.findViewById(R.id.inner_scroll).setOnTouchListener(new View.OnTouchListener() {
             @Override
@@ -118,10 +228,44 @@ public class CompoundAdapter extends PagerAdapter {
                 return v.onTouchEvent(event);
             }
         });
-        container.addView(view);
         return view;
     }
 
+    /**
+     * PayloadのデータをページViewにセット
+     *
+     * @param view     ページView
+     * @param position ページ位置
+     */
+    private void bindPage(View view, int position) {
+        Payload payload = pages.get(position);
+        ImageView imageView = (ImageView) view.findViewById(R.id.compound_image);
+        imageView.setImageDrawable(null);
+        setImage(imageView, payload.url, ImageLoader.getInstance().getCompoundSize(), false);
+        ((TextView) view.findViewById(R.id.compound_title)).setText(payload.title);
+        ((TextView) view.findViewById(R.id.compound_text)).setText(payload.text);
+        ViewGroup buttonGroup = (ViewGroup) view.findViewById(R.id.compound_button);
+        buttonGroup.removeAllViews();
+        addButton(buttonGroup, payload.buttons);
+        view.findViewById(R.id.inner_scroll).scrollTo(0, 0);
+        // ナビゲートボタンをセット
+        view.findViewById(R.id.chat_icon).setVisibility(position == 0 ? View.VISIBLE : View.INVISIBLE);
+        ImageButton prevButton = (ImageButton) view.findViewById(R.id.compound_prev);
+        if (0 < position) {
+            prevButton.setOnClickListener(prev);
+            prevButton.setVisibility(View.VISIBLE);
+        } else {
+            prevButton.setVisibility(View.INVISIBLE);
+        }
+        ImageButton nextButton = (ImageButton) view.findViewById(R.id.compound_next);
+        if (position < pages.size() - 1) {
+            nextButton.setOnClickListener(next);
+            nextButton.setVisibility(View.VISIBLE);
+        } else {
+            nextButton.setVisibility(View.INVISIBLE);
+        }
+    }
+
     @Override
     public int getCount() {
         return pages.size();
@@ -129,6 +273,7 @@ public class CompoundAdapter extends PagerAdapter {
 
     @Override
     public void destroyItem(ViewGroup container, int position, Object object) {
+        // 生成済みのページは再表示に備えて保持する
         container.removeView((View) object);
     }
 
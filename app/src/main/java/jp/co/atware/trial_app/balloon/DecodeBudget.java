@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2017, atWare, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *  Neither the name of the atWare, Inc. nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL atWare, Inc. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package jp.co.atware.trial_app.balloon;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 画像デコードの受付制御
+ * <p>
+ * 画像サイズの取得結果からデコードするBitmapのバイト数を見積もり、
+ * 同時にデコード中のバイト数が上限に収まる場合のみ受け付ける。
+ * 収まらないデコードは到着順に待機させ、大きな画像が後続の小さな画像に追い越され続けないようにする。
+ * 単独で上限を超えるデコードは他のデコードが無くなってから受け付ける
+ */
+public class DecodeBudget {
+
+    private static final int BYTES_PER_PIXEL = 2;
+    private static final int DEFAULT_BUDGET_RATIO = 8;
+
+    private static volatile DecodeBudget INSTANCE = null;
+
+    /**
+     * インスタンスを取得
+     *
+     * @return インスタンス
+     */
+    public static DecodeBudget getInstance() {
+        if (INSTANCE == null) {
+            synchronized (DecodeBudget.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new DecodeBudget(Runtime.getRuntime().maxMemory() / DEFAULT_BUDGET_RATIO);
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * RGB_565でデコードするBitmapのバイト数を見積もる
+     *
+     * @param width      画像の横幅のPixel数
+     * @param height     画像の縦幅のPixel数
+     * @param sampleSize 縮小率
+     * @return バイト数、画像サイズが不明な場合は0
+     */
+    static long estimate(int width, int height, int sampleSize) {
+        if (width <= 0 || height <= 0) {
+            return 0;
+        }
+        int sample = Math.max(1, sampleSize);
+        return (long) (width / sample) * (height / sample) * BYTES_PER_PIXEL;
+    }
+
+    private final ArrayDeque<Object> waiters = new ArrayDeque<>();
+    private long budget;
+    private long inflight;
+    private long peak;
+    private long admitCount;
+    private long waitCount;
+    private long rejectCount;
+    private long waitNanos;
+    private long maxWaitNanos;
+
+    /**
+     * コンストラクタ
+     *
+     * @param budget 同時にデコードするバイト数の上限
+     */
+    DecodeBudget(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * 同時にデコードするバイト数の上限を取得
+     *
+     * @return バイト数
+     */
+    public synchronized long getBudget() {
+        return budget;
+    }
+
+    /**
+     * 同時にデコードするバイト数の上限を設定
+     *
+     * @param budget バイト数
+     */
+    public synchronized void setBudget(long budget) {
+        this.budget = budget;
+        notifyAll();
+    }
+
+    /**
+     * デコードの受付を要求
+     * <p>
+     * 上限に収まるまで待機し、受け付けた場合はデコード後に{@link #release(long)}を呼び出す
+     *
+     * @param bytes         デコードするBitmapのバイト数
+     * @param timeoutMillis 最大待ち時間、0の場合は受け付けるまで待機する
+     * @return 受け付けた場合にtrue、待ち時間を超えたか割り込まれた場合はfalse
+     */
+    public boolean acquire(long bytes, long timeoutMillis) {
+        long start = System.nanoTime();
+        synchronized (this) {
+            if (waiters.isEmpty() && fits(bytes)) {
+                admit(bytes);
+                return true;
+            }
+            Object ticket = new Object();
+            waiters.addLast(ticket);
+            waitCount++;
+            long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            try {
+                while (waiters.peekFirst() != ticket || !fits(bytes)) {
+                    if (timeoutMillis <= 0) {
+                        wait();
+                        continue;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        rejectCount++;
+                        return false;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                }
+                admit(bytes);
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                rejectCount++;
+                return false;
+            } finally {
+                waiters.remove(ticket);
+                long waited = System.nanoTime() - start;
+                waitNanos += waited;
+                maxWaitNanos = Math.max(maxWaitNanos, waited);
+                // 先頭が入れ替わったため後続の待機を再評価させる
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * デコードの完了を通知
+     *
+     * @param bytes 受付時に指定したバイト数
+     */
+    public synchronized void release(long bytes) {
+        inflight -= bytes;
+        notifyAll();
+    }
+
+    /**
+     * 上限に収まるか判定
+     *
+     * @param bytes デコードするBitmapのバイト数
+     * @return 上限に収まるか、デコード中の画像が無い場合にtrue
+     */
+    private boolean fits(long bytes) {
+        return inflight <= 0 || inflight + bytes <= budget;
+    }
+
+    /**
+     * デコードを受け付け
+     *
+     * @param bytes デコードするBitmapのバイト数
+     */
+    private void admit(long bytes) {
+        inflight += bytes;
+        peak = Math.max(peak, inflight);
+        admitCount++;
+    }
+
+    /**
+     * デコード中のバイト数を取得
+     *
+     * @return バイト数
+     */
+    public synchronized long getInflight() {
+        return inflight;
+    }
+
+    /**
+     * 待ち時間を超えて受け付けなかった数を取得
+     *
+     * @return 受け付けなかった数
+     */
+    public synchronized long getRejectCount() {
+        return rejectCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "DecodeBudget{" +
+                "budget=" + budget +
+                ", inflight=" + inflight +
+                ", peak=" + peak +
+                ", admitted=" + admitCount +
+                ", waited=" + waitCount +
+                ", rejected=" + rejectCount +
+                ", averageWaitMillis=" + ((0 < waitCount) ? waitNanos / waitCount / 1000000 : 0) +
+                ", maxWaitMillis=" + maxWaitNanos / 1000000 +
+                ", queued=" + waiters.size() +
+                '}';
+    }
+}
@@ -32,14 +32,18 @@ import android.support.annotation.Nullable;
 import android.util.AttributeSet;
 import android.view.MotionEvent;
 import android.view.View;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
 import android.webkit.WebSettings;
 import android.webkit.WebView;
 import android.webkit.WebViewClient;
 import android.widget.ProgressBar;
 
 import jp.co.atware.trial_app.MainActivity;
+import jp.co.atware.trial_app.R;
+import jp.co.atware.trial_app.balloon.NegativeCache.Failure;
 
-import static android.webkit.WebSettings.LOAD_CACHE_ELSE_NETWORK;
+import static android.webkit.WebSettings.LOAD_DEFAULT;
 
 /**
  * Web表示View
@@ -49,6 +53,7 @@ public class HtmlView extends WebView {
     private static final String BLANK = "about:blank";
 
     private ProgressBar progress;
+    private String failedUrl;
 
     /**
      * コンストラクタ
@@ -91,8 +96,8 @@ public class HtmlView extends WebView {
     public HtmlView(final Context context, AttributeSet attrs, int defStyleAttr, int defStyleRes) {
         super(context, attrs, defStyleAttr, defStyleRes);
         WebSettings settings = getSettings();
-        // キャッシュ設定
-        settings.setCacheMode(LOAD_CACHE_ELSE_NETWORK);
+        // キャッシュ設定(Cache-Controlの有効期限に従い、期限切れは条件付きリクエストで検証)
+        settings.setCacheMode(LOAD_DEFAULT);
         // 表示設定
         setInitialScale(1);
         settings.setUseWideViewPort(true);
@@ -101,8 +106,9 @@ public class HtmlView extends WebView {
         setOnTouchListener(new View.OnTouchListener() {
             @Override
             public boolean onTouch(View v, MotionEvent event) {
-                if (event.getAction() == MotionEvent.ACTION_UP && getUrl() != null) {
-                    ((MainActivity) context).startBrowser(getUrl());
+                String url = (failedUrl != null) ? failedUrl : getUrl();
+                if (event.getAction() == MotionEvent.ACTION_UP && url != null) {
+                    ((MainActivity) context).startBrowser(url);
                 }
                 return true;
             }
@@ -113,9 +119,32 @@ public class HtmlView extends WebView {
             public void onPageFinished(WebView view, String url) {
                 super.onPageFinished(view, url);
                 if (!BLANK.equals(url)) {
+                    if (failedUrl == null) {
+                        NegativeCache.getInstance().recordSuccess(url);
+                    }
                     show();
                 }
             }
+
+            @Override
+            public void onReceivedError(WebView view, int errorCode, String description, String failingUrl) {
+                super.onReceivedError(view, errorCode, description, failingUrl);
+                Failure failure = (errorCode == ERROR_FILE_NOT_FOUND || errorCode == ERROR_BAD_URL
+                        || errorCode == ERROR_UNSUPPORTED_SCHEME) ? Failure.CLIENT : Failure.NETWORK;
+                NegativeCache.getInstance().recordFailure(failingUrl, failure);
+                showPlaceholder(failingUrl);
+            }
+
+            @Override
+            public void onReceivedHttpError(WebView view, WebResourceRequest request,
+                                            WebResourceResponse errorResponse) {
+                super.onReceivedHttpError(view, request, errorResponse);
+                if (request.isForMainFrame()) {
+                    String url = request.getUrl().toString();
+                    NegativeCache.getInstance().recordFailure(url, Failure.ofStatus(errorResponse.getStatusCode()));
+                    showPlaceholder(url);
+                }
+            }
         });
     }
 
@@ -144,8 +173,33 @@ public class HtmlView extends WebView {
         setVisibility(VISIBLE);
     }
 
+    /**
+     * ロードが完了しているか判定
+     *
+     * @return ページかプレースホルダーを表示している場合にtrue
+     */
+    boolean isLoaded() {
+        return getVisibility() == VISIBLE;
+    }
+
+    /**
+     * 取得に失敗したページの代わりにプレースホルダーを表示
+     *
+     * @param url 取得に失敗したURL
+     */
+    private void showPlaceholder(String url) {
+        failedUrl = url;
+        stopLoading();
+        loadDataWithBaseURL(null, "<html><body style=\"text-align:center;color:#757575\">"
+                        + getContext().getString(R.string.load_failed) + "</body></html>",
+                "text/html", "UTF-8", null);
+        show();
+    }
+
     /**
      * URLをロード
+     * <p>
+     * 取得に失敗して待機中のURLはロードせずにプレースホルダーを表示する
      *
      * @param payload 吹き出し表示情報
      */
@@ -153,7 +207,10 @@ public class HtmlView extends WebView {
         if (payload.url.equals(getUrl())) {
             // 既にロード済み
             show();
+        } else if (NegativeCache.getInstance().isBackingOff(payload.url)) {
+            showPlaceholder(payload.url);
         } else {
+            failedUrl = null;
             showProgress();
             if (getUrl() != null) {
                 // ロード済みのWebViewに違うURLをロードする場合
@@ -27,39 +27,87 @@
 
 package jp.co.atware.trial_app.balloon;
 
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.os.AsyncTask;
-import android.util.Log;
+import android.graphics.drawable.Drawable;
 import android.widget.ImageView;
 
-import java.io.ByteArrayOutputStream;
-import java.io.InputStream;
-import java.io.InterruptedIOException;
-import java.net.HttpURLConnection;
-import java.net.URL;
-
 import jp.co.atware.trial_app.R;
+import jp.co.atware.trial_app.balloon.ImageLoader.Job;
+import jp.co.atware.trial_app.balloon.ImageLoader.Priority;
 import jp.co.atware.trial_app.chat.ChatApplication;
 
 /**
  * ImageViewにネット画像を設定
  */
-public class ImageAdapter extends AsyncTask<String, Void, RecycleBitmapDrawable> {
-
-    private static volatile Integer BALLOON_WIDTH;
+public class ImageAdapter {
 
     private final ImageView imageView;
+    private final TargetSize size;
     private boolean scroll;
+    private Job job;
 
     /**
-     * コンストラクタ
+     * 画像をキャッシュに先読み
+     *
+     * @param url  画像URL
+     * @param size 表示サイズ
+     */
+    static void prefetch(String url, TargetSize size) {
+        if (url != null && ImageCache.getInstance().get(url, size) == null
+                && !NegativeCache.getInstance().isBackingOff(url)) {
+            new ImageAdapter(null, size).execute(url);
+        }
+    }
+
+    /**
+     * ImageViewの読み込みをキャンセル
      *
      * @param imageView ImageView
      */
-    public ImageAdapter(ImageView imageView) {
+    static void cancel(ImageView imageView) {
+        Object tag = imageView.getTag();
+        if (tag instanceof ImageAdapter) {
+            ((ImageAdapter) tag).cancel();
+            imageView.setTag(null);
+        }
+    }
+
+    /**
+     * ImageViewの画像を設定し直す必要があるか判定
+     * <p>
+     * 読み込みがキャンセルされ、画像が無いか低解像度の画像のままの場合に設定し直す
+     *
+     * @param imageView ImageView
+     * @return 設定し直す必要がある場合にtrue
+     */
+    static boolean needsReload(ImageView imageView) {
+        if (imageView.getTag() != null) {
+            return false;
+        }
+        Drawable drawable = imageView.getDrawable();
+        return drawable == null || drawable instanceof PreviewDrawable;
+    }
+
+    /**
+     * 取得に失敗した画像のプレースホルダーを設定
+     *
+     * @param imageView ImageView
+     */
+    static void setPlaceholder(ImageView imageView) {
+        imageView.setImageDrawable(imageView.getContext().getDrawable(R.drawable.ic_broken_image_black_48px));
+    }
+
+    /**
+     * コンストラクタ
+     *
+     * @param imageView ImageView、先読みの場合はnull
+     * @param size      表示サイズ
+     */
+    public ImageAdapter(ImageView imageView, TargetSize size) {
         this.imageView = imageView;
-        imageView.setTag(this);
+        this.size = size;
+        if (imageView != null) {
+            imageView.setTag(this);
+        }
     }
 
     /**
@@ -71,96 +119,75 @@ public class ImageAdapter extends AsyncTask<String, Void, RecycleBitmapDrawable>
         this.scroll = scroll;
     }
 
-    @Override
-    protected RecycleBitmapDrawable doInBackground(String... params) {
-        String imageUrl = params[0];
-        ImageCache cache = ImageCache.getInstance();
-        // 画像をディスクキャッシュから取得
-        RecycleBitmapDrawable drawable = cache.load(imageUrl);
-        if (drawable != null) {
-            // ディスクキャッシュから取得した画像をメモリキャッシュに格納
-            cache.put(imageUrl, drawable);
-        } else {
-            try {
-                byte[] data = getData(imageUrl);
-                BitmapFactory.Options opts = new BitmapFactory.Options();
-                opts.inJustDecodeBounds = true;
-                BitmapFactory.decodeByteArray(data, 0, data.length, opts);
-                // 画像のリサイズ
-                int scale = (int) Math.floor((float) opts.outWidth / getBalloonWidth());
-                if (2 < scale) {
-                    for (int i = 2; i <= scale; i *= 2) {
-                        opts.inSampleSize = i;
-                    }
-                }
-                opts.inJustDecodeBounds = false;
-                opts.inPreferredConfig = Bitmap.Config.RGB_565;
-                Bitmap bitmap = BitmapFactory.decodeByteArray(data, 0, data.length, opts);
-                drawable = new RecycleBitmapDrawable(ChatApplication.getInstance().getResources(), bitmap);
-                // リサイズした画像をキャッシュに格納
-                cache.put(imageUrl, drawable);
-                cache.save(imageUrl, drawable);
-            } catch (InterruptedIOException ignore) {
-            } catch (Exception e) {
-                Log.w("ImageAdapter", "unexpected error occurred.", e);
-            }
+    /**
+     * 画像の読み込みを開始
+     * <p>
+     * ImageViewに表示する画像は先読みより優先して読み込む
+     *
+     * @param url 画像URL
+     */
+    public void execute(String url) {
+        Priority priority = (imageView != null) ? Priority.VISIBLE : Priority.PREFETCH;
+        job = ImageLoader.getInstance().load(this, url, size, priority);
+    }
+
+    /**
+     * 画像の読み込みをキャンセル
+     */
+    public void cancel() {
+        if (job != null) {
+            ImageLoader.getInstance().cancel(job, this);
+            job = null;
         }
-        return drawable;
     }
 
     /**
-     * 吹き出しの横幅を取得
+     * 画像の読み込み完了
      *
-     * @return 横幅のPixel数
+     * @param job      読み込みタスク
+     * @param drawable 画像データ
      */
-    private int getBalloonWidth() {
-        if (BALLOON_WIDTH == null) {
-            synchronized (ImageAdapter.class) {
-                if (BALLOON_WIDTH == null) {
-                    BALLOON_WIDTH = imageView.getContext().getResources().getDimensionPixelSize(R.dimen.balloon_width);
-                }
+    void onLoaded(Job job, RecycleBitmapDrawable drawable) {
+        if (this.job != job) {
+            return;
+        }
+        this.job = null;
+        if (imageView != null && imageView.getTag() == this) {
+            imageView.setTag(null);
+            imageView.setImageDrawable(drawable);
+            if (scroll) {
+                ChatApplication.getInstance().scrollDown();
             }
         }
-        return BALLOON_WIDTH;
     }
 
     /**
-     * HTTPで画像データを取得
+     * 低解像度の画像の読み込み完了
+     * <p>
+     * 本来の画像の読み込み完了まで表示する
      *
-     * @param imageUrl 画像URL
-     * @return 画像データ
-     * @throws Exception 画像データ取得失敗
+     * @param job      読み込みタスク
+     * @param drawable 低解像度の画像
      */
-    private byte[] getData(String imageUrl) throws Exception {
-        HttpURLConnection http = null;
-        try {
-            URL url = new URL(imageUrl);
-            http = (HttpURLConnection) url.openConnection();
-            http.setRequestMethod("GET");
-            http.connect();
-
-            try (InputStream input = http.getInputStream();
-                 ByteArrayOutputStream output = new ByteArrayOutputStream()) {
-                int b = 0;
-                while ((b = input.read()) != -1) {
-                    output.write(b);
-                }
-                return output.toByteArray();
-            }
-        } finally {
-            if (http != null) {
-                http.disconnect();
-            }
+    void onPreview(Job job, PreviewDrawable drawable) {
+        if (this.job == job && imageView != null && imageView.getTag() == this) {
+            imageView.setImageDrawable(drawable);
         }
     }
 
-    @Override
-    protected void onPostExecute(RecycleBitmapDrawable drawable) {
-        if (drawable != null) {
-            imageView.setImageDrawable(drawable);
-            if (scroll) {
-                ChatApplication.getInstance().scrollDown();
-            }
+    /**
+     * 画像の読み込み失敗
+     *
+     * @param job 読み込みタスク
+     */
+    void onFailed(Job job) {
+        if (this.job != job) {
+            return;
+        }
+        this.job = null;
+        if (imageView != null && imageView.getTag() == this) {
+            imageView.setTag(null);
+            setPlaceholder(imageView);
         }
     }
 
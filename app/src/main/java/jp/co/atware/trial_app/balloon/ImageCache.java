@@ -28,24 +28,34 @@
 package jp.co.atware.trial_app.balloon;
 
 import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
+import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 import android.util.LruCache;
 
-import com.jakewharton.disklrucache.DiskLruCache;
-import com.jakewharton.disklrucache.DiskLruCache.Editor;
 import com.jakewharton.disklrucache.DiskLruCache.Snapshot;
 
 import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicLong;
 
 import jp.co.atware.trial_app.chat.ChatApplication;
+import jp.co.atware.trial_app.util.CacheQuota;
 
 /**
  * 画像キャッシュ
@@ -53,11 +63,30 @@ import jp.co.atware.trial_app.chat.ChatApplication;
 public class ImageCache {
 
     private static final String CACHE_DIR = "images";
-    private static final int APP_VERSION = 1;
-    private static final int VALUE_COUNT = 1;
-    private static final long MAX_SIZE = 24 * 1024 * 1024;
+    private static final int APP_VERSION = 5;
+    private static final int MAX_ALIAS_COUNT = 512;
+    private static final long GROW_DELAY = 30 * 1000;
+    private static final int MAX_DISPLAYED_COUNT = 256;
+    private static final int SKETCH_SIZE = 4096;
+    private static final String QUOTA_NAME = "image";
+    private static final int SHARD_COUNT = 4;
     private static final int BUFFER_SIZE = 8 * 1024;
-    private static final int QUALITY = 100;
+    private static final int QUALITY = 85;
+    private static final int MARK_LIMIT = 64 * 1024;
+
+    /**
+     * ディスクキャッシュの保存形式
+     */
+    public enum Mode {
+        /**
+         * ダウンロードした画像データをそのまま保存
+         */
+        ORIGINAL,
+        /**
+         * デコードした画像をJPEGで再圧縮して保存
+         */
+        LOSSY
+    }
 
     private static volatile ImageCache INSTANCE = null;
 
@@ -77,8 +106,25 @@ public class ImageCache {
         return INSTANCE;
     }
 
-    private final LruCache<Integer, RecycleBitmapDrawable> memCache;
-    private final DiskLruCache diskCache;
+    private final LruCache<String, RecycleBitmapDrawable> memCache;
+    private final Map<String, WeakReference<RecycleBitmapDrawable>> displayedTier = new HashMap<>();
+    private final Set<TargetSize> sizes = new CopyOnWriteArraySet<>();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final FrequencySketch sketch = new FrequencySketch(SKETCH_SIZE);
+    private int baseMemSize;
+    private final LruCache<String, String> aliases = new LruCache<>(MAX_ALIAS_COUNT);
+    private final ShardedDiskCache diskCache;
+    private final ImageDiskStore diskStore;
+    private volatile Mode mode = Mode.ORIGINAL;
+    private volatile boolean dedup = true;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong sharedCount = new AtomicLong();
+    private final AtomicLong sharedBytes = new AtomicLong();
+    private final AtomicLong recoverCount = new AtomicLong();
+    private final AtomicLong memRejectCount = new AtomicLong();
+    private final AtomicLong derivedCount = new AtomicLong();
+    private final AtomicLong variantSavedBytes = new AtomicLong();
 
     /**
      * コンストラクタ
@@ -87,6 +133,7 @@ public class ImageCache {
         Context context = ChatApplication.getInstance().getApplicationContext();
         memCache = createMemCache(context);
         diskCache = createDiskCache(context);
+        diskStore = (diskCache != null) ? new ImageDiskStore(diskCache) : null;
     }
 
     /**
@@ -95,20 +142,24 @@ public class ImageCache {
      * @param context Context
      * @return メモリキャッシュ
      */
-    private LruCache<Integer, RecycleBitmapDrawable> createMemCache(Context context) {
+    private LruCache<String, RecycleBitmapDrawable> createMemCache(Context context) {
         int memClass = ((ActivityManager) context.
                 getSystemService(Context.ACTIVITY_SERVICE)).getMemoryClass();
-        int maxSize = memClass * 1024 * 1024 / 8;
-        return new LruCache<Integer, RecycleBitmapDrawable>(maxSize) {
+        baseMemSize = memClass * 1024 * 1024 / 8;
+        return new LruCache<String, RecycleBitmapDrawable>(baseMemSize) {
             @Override
-            protected int sizeOf(Integer key, RecycleBitmapDrawable value) {
-                return value.getBitmap().getByteCount();
+            protected int sizeOf(String key, RecycleBitmapDrawable value) {
+                return value.getByteCount();
             }
 
             @Override
-            protected void entryRemoved(boolean evicted, Integer key,
+            protected void entryRemoved(boolean evicted, String key,
                                         RecycleBitmapDrawable oldValue, RecycleBitmapDrawable newValue) {
                 super.entryRemoved(evicted, key, oldValue, newValue);
+                if (evicted && oldValue.isDisplayed()) {
+                    // 表示中の画像は解放されるまで再利用できるよう保持
+                    keepDisplayed(key, oldValue);
+                }
                 oldValue.setCached(false);
             }
         };
@@ -120,65 +171,506 @@ public class ImageCache {
      * @param context Context
      * @return ディスクキャッシュ
      */
-    private DiskLruCache createDiskCache(Context context) {
+    private ShardedDiskCache createDiskCache(Context context) {
         try {
             File dir = new File(context.getCacheDir(), CACHE_DIR);
-            return DiskLruCache.open(dir, APP_VERSION, VALUE_COUNT, MAX_SIZE);
+            // 容量はキャッシュ全体の割り当てに従い、空き容量に応じて計算し直される
+            long quota = CacheQuota.getInstance().register(QUOTA_NAME, context.getCacheDir(), new CacheQuota.Client() {
+                @Override
+                public long getUsage() {
+                    return (diskCache != null) ? diskCache.size() : 0;
+                }
+
+                @Override
+                public void setQuota(long quota) {
+                    if (diskCache != null && !diskCache.isClosed()) {
+                        diskCache.setMaxSize(quota);
+                    }
+                }
+            });
+            return ShardedDiskCache.open(dir, APP_VERSION, ImageDiskStore.VALUE_COUNT, quota, SHARD_COUNT);
         } catch (IOException e) {
             Log.w("ImageCache", "unable to open disk cache.", e);
         }
         return null;
     }
 
+    /**
+     * メモリキャッシュから追い出された表示中の画像を保持
+     *
+     * @param key      キー
+     * @param drawable 画像データ
+     */
+    private void keepDisplayed(String key, RecycleBitmapDrawable drawable) {
+        synchronized (displayedTier) {
+            if (MAX_DISPLAYED_COUNT <= displayedTier.size()) {
+                // 解放済みの画像を除去
+                Iterator<WeakReference<RecycleBitmapDrawable>> it = displayedTier.values().iterator();
+                while (it.hasNext()) {
+                    RecycleBitmapDrawable kept = it.next().get();
+                    if (kept == null || !kept.isDisplayed()) {
+                        it.remove();
+                    }
+                }
+                if (MAX_DISPLAYED_COUNT <= displayedTier.size()) {
+                    return;
+                }
+            }
+            displayedTier.put(key, new WeakReference<>(drawable));
+        }
+    }
+
+    /**
+     * 追い出された表示中の画像をメモリキャッシュに戻す
+     *
+     * @param key キー
+     * @return 画像データ、解放済みの場合はnull
+     */
+    private RecycleBitmapDrawable recover(String key) {
+        WeakReference<RecycleBitmapDrawable> ref;
+        synchronized (displayedTier) {
+            ref = displayedTier.remove(key);
+        }
+        RecycleBitmapDrawable drawable = (ref != null) ? ref.get() : null;
+        if (drawable == null || !drawable.retainCache()) {
+            return null;
+        }
+        memCache.put(key, drawable);
+        recoverCount.incrementAndGet();
+        return drawable;
+    }
+
+    /**
+     * メモリ不足の度合いに応じてメモリキャッシュを縮小
+     * <p>
+     * レベルが高いほど小さくし、低いレベルより多く解放する。
+     * 一定時間後に空きメモリに応じて元のサイズまで段階的に拡大する
+     *
+     * @param level ComponentCallbacks2#onTrimMemoryのレベル
+     */
+    public void trimMemory(int level) {
+        int maxSize;
+        if (ComponentCallbacks2.TRIM_MEMORY_BACKGROUND <= level) {
+            memCache.evictAll();
+            maxSize = baseMemSize / 8;
+        } else if (ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL <= level) {
+            // 画面が非表示になった場合も、実行中の最も深刻な状態と同じだけ解放する
+            maxSize = baseMemSize / 4;
+        } else if (ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW <= level) {
+            maxSize = baseMemSize / 2;
+        } else {
+            maxSize = baseMemSize * 3 / 4;
+        }
+        if (maxSize < memCache.maxSize()) {
+            memCache.resize(maxSize);
+        }
+        handler.removeCallbacks(grow);
+        handler.postDelayed(grow, GROW_DELAY);
+    }
+
+    /**
+     * 空きメモリに応じてメモリキャッシュを拡大
+     */
+    private final Runnable grow = new Runnable() {
+        @Override
+        public void run() {
+            int current = memCache.maxSize();
+            int target = getMemTarget();
+            if (current < target) {
+                memCache.resize(Math.min(target, current * 2));
+                if (current * 2 < target) {
+                    handler.postDelayed(this, GROW_DELAY);
+                }
+            }
+        }
+    };
+
+    /**
+     * 現在の空きメモリから適切なメモリキャッシュのサイズを計算
+     *
+     * @return メモリキャッシュのサイズ
+     */
+    private int getMemTarget() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = runtime.totalMemory() - runtime.freeMemory();
+        // キャッシュ自身が使用しているメモリも空きとして扱い、空きの1/4までを上限とする
+        long available = runtime.maxMemory() - used + memCache.size();
+        return (int) Math.max(baseMemSize / 8, Math.min(baseMemSize, available / 4));
+    }
+
+    /**
+     * URLのキーから画像データのキーを取得
+     *
+     * @param urlKey URLのキー
+     * @return 同じ内容の画像と共有するキー、共有していない場合はURLのキー
+     */
+    private String resolve(String urlKey) {
+        String contentKey = aliases.get(urlKey);
+        return (contentKey != null) ? contentKey : urlKey;
+    }
+
+    /**
+     * 表示サイズ毎のメモリキャッシュのキーを取得
+     *
+     * @param key  画像データのキー
+     * @param size 表示サイズ
+     * @return メモリキャッシュのキー
+     */
+    private static String variantKey(String key, TargetSize size) {
+        return key + "@" + size.getKey();
+    }
+
+    /**
+     * メモリキャッシュのキーから画像データのキーを取得
+     *
+     * @param variantKey メモリキャッシュのキー
+     * @return 画像データのキー
+     */
+    private static String baseOf(String variantKey) {
+        int index = variantKey.indexOf('@');
+        return (0 <= index) ? variantKey.substring(0, index) : variantKey;
+    }
+
     /**
      * 画像データをメモリキャッシュから取得
      *
      * @param imageUrl 画像URL
+     * @param size     表示サイズ
      * @return 画像データ
      */
-    public RecycleBitmapDrawable get(String imageUrl) {
-        return memCache.get(imageUrl.hashCode());
+    public RecycleBitmapDrawable get(String imageUrl, TargetSize size) {
+        String base = resolve(CacheKey.of(imageUrl));
+        sketch.increment(base);
+        String key = variantKey(base, size);
+        RecycleBitmapDrawable drawable = memCache.get(key);
+        return (drawable != null) ? drawable : recover(key);
     }
 
-
     /**
      * 画像データをメモリキャッシュに格納
      *
-     * @param imageUrl 画像URL
+     * @param imageUrl   画像URL
+     * @param contentKey 画像データの内容のキー、重複排除しない場合はnull
+     * @param size       表示サイズ
+     * @param drawable   画像データ
+     */
+    public void put(String imageUrl, String contentKey, TargetSize size, RecycleBitmapDrawable drawable) {
+        String key = CacheKey.of(imageUrl);
+        if (contentKey != null) {
+            aliases.put(key, contentKey);
+            key = contentKey;
+        }
+        putVariant(key, size, drawable);
+    }
+
+    /**
+     * 表示サイズ毎の画像データをメモリキャッシュに格納
+     *
+     * @param base     画像データのキー
+     * @param size     表示サイズ
      * @param drawable 画像データ
      */
-    public void put(String imageUrl, RecycleBitmapDrawable drawable) {
-        if (get(imageUrl) == null) {
+    private void putVariant(String base, TargetSize size, RecycleBitmapDrawable drawable) {
+        sizes.add(size);
+        String key = variantKey(base, size);
+        if (memCache.get(key) == null) {
+            if (!admitToMemory(key, drawable)) {
+                // 格納しない画像も表示中は再利用できるよう保持
+                memRejectCount.incrementAndGet();
+                keepDisplayed(key, drawable);
+                return;
+            }
             drawable.setCached(true);
-            memCache.put(imageUrl.hashCode(), drawable);
+            memCache.put(key, drawable);
+        }
+    }
+
+    /**
+     * メモリキャッシュへの格納を許可するか判定
+     * <p>
+     * 空きが無い場合、最も長く参照されていない画像より参照頻度が高い場合のみ格納する
+     *
+     * @param key      キー
+     * @param drawable 画像データ
+     * @return 格納する場合にtrue
+     */
+    private boolean admitToMemory(String key, RecycleBitmapDrawable drawable) {
+        if (memCache.size() + drawable.getByteCount() <= memCache.maxSize()) {
+            return true;
+        }
+        Iterator<String> it = memCache.snapshot().keySet().iterator();
+        return !it.hasNext() || sketch.admit(baseOf(key), baseOf(it.next()));
+    }
+
+    /**
+     * 同じ内容の画像データをメモリキャッシュから取得し、URLと共有
+     *
+     * @param imageUrl   画像URL
+     * @param contentKey 画像データの内容のキー
+     * @param size       表示サイズ
+     * @return 画像データ、同じ内容の画像がメモリキャッシュに無い場合はnull
+     */
+    public RecycleBitmapDrawable share(String imageUrl, String contentKey, TargetSize size) {
+        String key = variantKey(contentKey, size);
+        RecycleBitmapDrawable drawable = memCache.get(key);
+        if (drawable == null) {
+            drawable = recover(key);
+        }
+        if (drawable != null) {
+            aliases.put(CacheKey.of(imageUrl), contentKey);
+            sharedCount.incrementAndGet();
+            sharedBytes.addAndGet(drawable.getByteCount());
+        }
+        return drawable;
+    }
+
+    /**
+     * 表示中でない画像をメモリキャッシュから削除
+     * <p>
+     * 同じ画像を表示中の吹き出しがある場合は削除せず、URLと画像データの対応も残す
+     *
+     * @param imageUrl 画像URL
+     */
+    public void trim(String imageUrl) {
+        String key = resolve(CacheKey.of(imageUrl));
+        for (TargetSize size : sizes) {
+            String variant = variantKey(key, size);
+            RecycleBitmapDrawable drawable = memCache.get(variant);
+            if (drawable != null && !drawable.isDisplayed()) {
+                memCache.remove(variant);
+            }
+        }
+    }
+
+    /**
+     * 大きい表示サイズの画像をメモリキャッシュから取得し、縮小して表示サイズの画像を生成
+     * <p>
+     * 通信やデコードをせずに表示サイズの異なる画像を用意する。
+     * 縮小が不要な場合は大きい表示サイズの画像をそのまま返し、メモリキャッシュには追加しない
+     *
+     * @param imageUrl 画像URL
+     * @param size     表示サイズ
+     * @return 画像データ、大きい表示サイズの画像がメモリキャッシュに無い場合はnull
+     */
+    public RecycleBitmapDrawable derive(String imageUrl, TargetSize size) {
+        String base = resolve(CacheKey.of(imageUrl));
+        RecycleBitmapDrawable source = null;
+        for (TargetSize larger : sizes) {
+            if (larger.equals(size) || !larger.contains(size)) {
+                continue;
+            }
+            RecycleBitmapDrawable candidate = memCache.get(variantKey(base, larger));
+            // 領域毎に表示する画像はプレビューしか保持しないため使用しない
+            if (candidate != null && !(candidate instanceof TiledBitmapDrawable)
+                    && (source == null || candidate.getByteCount() < source.getByteCount())) {
+                source = candidate;
+            }
+        }
+        // 縮小中に解放されないようキャッシュフラグをセット
+        if (source == null || !source.retainCache()) {
+            return null;
+        }
+        try {
+            Bitmap bitmap = source.getBitmap();
+            int[] fitted = size.fit(bitmap.getWidth(), bitmap.getHeight());
+            derivedCount.incrementAndGet();
+            if (bitmap.getWidth() <= fitted[0]) {
+                // 縮小が不要な場合は同じ画像を別のキーで二重に数えないよう、格納済みのエントリをそのまま使用
+                return source;
+            }
+            long bytes = DecodeBudget.estimate(fitted[0], fitted[1], 1);
+            DecodeBudget budget = DecodeBudget.getInstance();
+            if (!budget.acquire(bytes, 0)) {
+                return null;
+            }
+            Bitmap scaled;
+            try {
+                scaled = Bitmap.createScaledBitmap(bitmap, fitted[0], fitted[1], true);
+            } finally {
+                budget.release(bytes);
+            }
+            RecycleBitmapDrawable drawable =
+                    new RecycleBitmapDrawable(ChatApplication.getInstance().getResources(), scaled);
+            variantSavedBytes.addAndGet(source.getByteCount() - drawable.getByteCount());
+            putVariant(base, size, drawable);
+            return drawable;
+        } finally {
+            source.setCached(false);
+        }
+    }
+
+    /**
+     * 縦幅の上限がある表示サイズでデコードして削減したサイズを記録
+     *
+     * @param size         表示サイズ
+     * @param sourceWidth  画像の横幅のPixel数
+     * @param sourceHeight 画像の縦幅のPixel数
+     * @param drawable     デコードした画像データ
+     */
+    void recordVariant(TargetSize size, int sourceWidth, int sourceHeight, RecycleBitmapDrawable drawable) {
+        if (size.height == 0 || drawable instanceof TiledBitmapDrawable) {
+            return;
         }
+        int sampleSize = TargetSize.of(size.width, 0).calculateSampleSize(sourceWidth, sourceHeight);
+        long full = (long) (sourceWidth / sampleSize) * (sourceHeight / sampleSize) * 2;
+        variantSavedBytes.addAndGet(Math.max(0, full - drawable.getByteCount()));
     }
 
+    /**
+     * 重複排除の有無を取得
+     *
+     * @return 同じ内容の画像データを共有する場合にtrue
+     */
+    public boolean isDedup() {
+        return dedup;
+    }
+
+    /**
+     * 重複排除の有無をセット
+     * <p>
+     * 有効な場合、ダウンロードした画像データの内容が同じであればディスクのエントリとメモリ上の画像を共有する
+     *
+     * @param dedup 同じ内容の画像データを共有する場合にtrue
+     */
+    public void setDedup(boolean dedup) {
+        this.dedup = dedup;
+    }
+
+    /**
+     * 画像データの内容のキーを取得
+     *
+     * @param data   画像データ
+     * @param length 画像データのサイズ
+     * @return キー、重複排除しない場合はnull
+     */
+    public String getContentKey(byte[] data, int length) {
+        return dedup ? CacheKey.ofContent(data, length) : null;
+    }
+
+    /**
+     * ディスクキャッシュの保存形式を取得
+     *
+     * @return 保存形式
+     */
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * ディスクキャッシュの保存形式をセット
+     * <p>
+     * どちらの形式で保存した画像も読み込み時にデコードできるため、切り替え前のキャッシュも利用できる
+     *
+     * @param mode 保存形式
+     */
+    public void setMode(Mode mode) {
+        this.mode = mode;
+    }
 
     /**
      * 画像データをディスクキャッシュから取得
+     * <p>
+     * 取得した画像はメモリキャッシュに格納する
      *
      * @param imageUrl 画像URL
+     * @param size     表示サイズ
      * @return 画像データ
      */
-    public RecycleBitmapDrawable load(String imageUrl) {
-        if (diskCache == null) {
+    public RecycleBitmapDrawable load(String imageUrl, TargetSize size) {
+        if (diskStore == null) {
             return null;
         }
+        String key = CacheKey.of(imageUrl);
+        String contentKey = null;
         Snapshot snapshot = null;
         try {
-            snapshot = diskCache.get(String.valueOf(imageUrl.hashCode()));
+            snapshot = diskStore.get(key);
+            if (snapshot != null) {
+                // 同じ内容の画像を参照するエントリの場合は参照先を取得
+                contentKey = snapshot.getString(ImageDiskStore.INDEX_CONTENT_KEY);
+                if (contentKey.isEmpty()) {
+                    contentKey = null;
+                } else {
+                    snapshot.close();
+                    RecycleBitmapDrawable shared = share(imageUrl, contentKey, size);
+                    if (shared != null) {
+                        recordDiskHit();
+                        return shared;
+                    }
+                    key = contentKey;
+                    snapshot = diskStore.get(key);
+                }
+            }
             if (snapshot == null) {
+                missCount.incrementAndGet();
                 return null;
             }
-            final InputStream in = snapshot.getInputStream(0);
-            if (in != null) {
-                final BufferedInputStream buffIn =
-                        new BufferedInputStream(in, BUFFER_SIZE);
-                Bitmap bitmap = BitmapFactory.decodeStream(buffIn);
-                return new RecycleBitmapDrawable(ChatApplication.getInstance().getResources(), bitmap);
-
+            InputStream in = new BufferedInputStream(snapshot.getInputStream(ImageDiskStore.INDEX_DATA), BUFFER_SIZE);
+            // 先頭部分で画像サイズを取得し、表示サイズに合わせて縮小してデコード
+            BitmapFactory.Options opts = new BitmapFactory.Options();
+            opts.inJustDecodeBounds = true;
+            in.mark(MARK_LIMIT);
+            BitmapFactory.decodeStream(in, null, opts);
+            try {
+                in.reset();
+            } catch (IOException e) {
+                // 画像サイズの取得で先頭部分を超えて読み込んだ場合は開き直す
+                snapshot.close();
+                snapshot = diskStore.get(key);
+                if (snapshot == null) {
+                    missCount.incrementAndGet();
+                    return null;
+                }
+                in = new BufferedInputStream(snapshot.getInputStream(ImageDiskStore.INDEX_DATA), BUFFER_SIZE);
+            }
+            opts.inJustDecodeBounds = false;
+            opts.inSampleSize = size.calculateSampleSize(opts.outWidth, opts.outHeight);
+            opts.inPreferredConfig = Bitmap.Config.RGB_565;
+            Resources res = ChatApplication.getInstance().getResources();
+            RecycleBitmapDrawable drawable = null;
+            boolean tiled = TiledBitmapDrawable.shouldTile(opts.outWidth, opts.outHeight, opts.inSampleSize);
+            // 同時にデコードするBitmapのサイズが上限を超えないよう受付を待つ
+            long bytes = tiled ? TiledBitmapDrawable.estimatePreview(opts.outWidth, opts.outHeight, opts.inSampleSize)
+                    : DecodeBudget.estimate(opts.outWidth, opts.outHeight, opts.inSampleSize);
+            DecodeBudget budget = DecodeBudget.getInstance();
+            if (!budget.acquire(bytes, 0)) {
+                missCount.incrementAndGet();
+                return null;
+            }
+            try {
+                if (tiled) {
+                    // 巨大な画像は表示中の領域だけをデコード
+                    drawable = TiledBitmapDrawable.create(res, in, (int) snapshot.getLength(ImageDiskStore.INDEX_DATA),
+                            opts.outWidth, opts.outHeight, opts.inSampleSize);
+                } else {
+                    BitmapPool.getInstance().setInBitmap(opts, opts.outWidth, opts.outHeight);
+                    Bitmap bitmap;
+                    try {
+                        bitmap = BitmapFactory.decodeStream(in, null, opts);
+                    } catch (IllegalArgumentException e) {
+                        // 再利用するBitmapに格納できない場合は新しく確保し、先頭から読み込み直してデコード
+                        BitmapPool.getInstance().put(opts.inBitmap);
+                        opts.inBitmap = null;
+                        snapshot.close();
+                        snapshot = diskStore.get(key);
+                        bitmap = (snapshot != null) ? BitmapFactory.decodeStream(new BufferedInputStream(
+                                snapshot.getInputStream(ImageDiskStore.INDEX_DATA), BUFFER_SIZE), null, opts) : null;
+                    }
+                    if (bitmap != null) {
+                        drawable = new RecycleBitmapDrawable(res, bitmap);
+                    }
+                }
+            } finally {
+                budget.release(bytes);
             }
+            if (drawable == null) {
+                missCount.incrementAndGet();
+                return null;
+            }
+            recordDiskHit();
+            recordVariant(size, opts.outWidth, opts.outHeight, drawable);
+            put(imageUrl, contentKey, size, drawable);
+            return drawable;
         } catch (IOException e) {
             Log.w("ImageCache", "unable to load cache.", e);
         } finally {
@@ -186,42 +678,135 @@ public class ImageCache {
                 snapshot.close();
             }
         }
+        missCount.incrementAndGet();
         return null;
     }
 
     /**
-     * 画像データをディスクキャッシュに保存
+     * ディスクキャッシュのヒットを記録
+     */
+    private void recordDiskHit() {
+        hitCount.incrementAndGet();
+    }
+
+    /**
+     * ダウンロードした画像データをディスクキャッシュに保存
+     * <p>
+     * 内容のキーを指定した場合、画像データは内容のキーで1つだけ保存し、URLのキーには参照先を保存する
+     *
+     * @param imageUrl   画像URL
+     * @param data       画像データ
+     * @param length     画像データのサイズ
+     * @param contentKey 画像データの内容のキー、重複排除しない場合はnull
+     * @param metadata   HTTPキャッシュの検証情報
+     * @param thumbnail  符号化した縮小画像
+     */
+    public void save(String imageUrl, byte[] data, int length, String contentKey, CacheMetadata metadata,
+                     String thumbnail) {
+        if (diskStore != null) {
+            diskStore.save(CacheKey.of(imageUrl), data, length, contentKey,
+                    (metadata != null) ? metadata.encode() : "", thumbnail);
+        }
+    }
+
+    /**
+     * 画像URLのディスクキャッシュに保存したHTTPキャッシュの検証情報を取得
      *
      * @param imageUrl 画像URL
-     * @param drawable 画像データ
+     * @return 検証情報、キャッシュが無い場合はnull
      */
-    public void save(String imageUrl, RecycleBitmapDrawable drawable) {
-        if (diskCache == null) {
-            return;
+    public CacheMetadata getMetadata(String imageUrl) {
+        if (diskStore == null) {
+            return null;
         }
-        Editor editor = null;
         try {
-            editor = diskCache.edit(String.valueOf(imageUrl.hashCode()));
-            if (editor == null) {
-                return;
-            }
-            try (OutputStream out = new BufferedOutputStream(editor.newOutputStream(0), BUFFER_SIZE)) {
-                if (drawable.getBitmap().compress(Bitmap.CompressFormat.PNG, QUALITY, out)) {
-                    diskCache.flush();
-                    editor.commit();
-                } else {
-                    editor.abort();
-                }
+            String metadata = diskStore.getString(CacheKey.of(imageUrl), ImageDiskStore.INDEX_METADATA);
+            return (metadata != null) ? CacheMetadata.decode(metadata) : null;
+        } catch (IOException e) {
+            Log.w("ImageCache", "unable to load metadata.", e);
+            return null;
+        }
+    }
+
+    /**
+     * 画像URLのディスクキャッシュに保存した縮小画像を取得
+     * <p>
+     * 本来の画像より先に表示するため、メモリキャッシュには格納しない
+     *
+     * @param imageUrl 画像URL
+     * @param size     表示サイズ
+     * @return 縮小画像、キャッシュが無い場合はnull
+     */
+    public PreviewDrawable loadThumbnail(String imageUrl, TargetSize size) {
+        if (diskStore == null) {
+            return null;
+        }
+        try {
+            String thumbnail = diskStore.getString(CacheKey.of(imageUrl), ImageDiskStore.INDEX_THUMBNAIL);
+            if (thumbnail == null) {
+                return null;
             }
+            Resources res = ChatApplication.getInstance().getResources();
+            return PreviewDrawable.decodeThumbnail(res, thumbnail, size);
         } catch (IOException e) {
-            Log.w("ImageCache", "unable to save cache.", e);
-            try {
-                if (editor != null) {
-                    editor.abort();
-                }
-            } catch (IOException ignored) {
+            Log.w("ImageCache", "unable to load thumbnail.", e);
+            return null;
+        }
+    }
+
+    /**
+     * HTTPキャッシュの検証情報だけを更新
+     * <p>
+     * 304レスポンスで使用し、画像データは書き換えない
+     *
+     * @param imageUrl 画像URL
+     * @param metadata 検証情報
+     */
+    public void updateMetadata(String imageUrl, CacheMetadata metadata) {
+        if (diskStore != null) {
+            diskStore.updateMetadata(CacheKey.of(imageUrl), metadata.encode());
+        }
+    }
+
+    /**
+     * デコードした画像を再圧縮してディスクキャッシュに保存
+     *
+     * @param imageUrl  画像URL
+     * @param drawable  画像データ
+     * @param metadata  HTTPキャッシュの検証情報
+     * @param thumbnail 符号化した縮小画像
+     */
+    public void save(String imageUrl, final RecycleBitmapDrawable drawable, CacheMetadata metadata,
+                     String thumbnail) {
+        if (diskStore == null) {
+            return;
+        }
+        diskStore.save(CacheKey.of(imageUrl), new ImageDiskStore.Encoder() {
+            @Override
+            public boolean encode(OutputStream out) {
+                return drawable.getBitmap().compress(Bitmap.CompressFormat.JPEG, QUALITY, out);
             }
+        }, (metadata != null) ? metadata.encode() : "", thumbnail);
+    }
+
+    /**
+     * キャッシュの統計情報を取得
+     *
+     * @return 統計情報
+     */
+    public Stats getStats() {
+        if (diskStore == null) {
+            long[] empty = new long[Mode.values().length];
+            return new Stats(mode, hitCount.get(), missCount.get(), 0, empty, empty, 0, 0,
+                    sharedCount.get(), sharedBytes.get(), memCache.size(), memCache.maxSize(),
+                    recoverCount.get(), memRejectCount.get(), 0, derivedCount.get(), variantSavedBytes.get());
         }
+        return new Stats(mode, hitCount.get(), missCount.get(), diskCache.size(),
+                diskStore.getSavedCount(), diskStore.getSavedBytes(),
+                diskStore.getDedupCount(), diskStore.getDedupBytes(), sharedCount.get(), sharedBytes.get(),
+                memCache.size(), memCache.maxSize(), recoverCount.get(),
+                memRejectCount.get(), diskStore.getRevalidateCount(),
+                derivedCount.get(), variantSavedBytes.get());
     }
 
     /**
@@ -237,4 +822,119 @@ public class ImageCache {
             }
         }
     }
+
+    /**
+     * ディスクキャッシュの統計情報
+     */
+    public static class Stats {
+
+        public final Mode mode;
+        public final long hits;
+        public final long misses;
+        public final long diskBytes;
+        private final long[] savedCount;
+        private final long[] savedBytes;
+        public final long dedupCount;
+        public final long dedupBytes;
+        public final long sharedCount;
+        public final long sharedBytes;
+        public final int memSize;
+        public final int memMaxSize;
+        public final long recovered;
+        public final long memRejected;
+        public final long revalidated;
+        public final long derived;
+        public final long variantSavedBytes;
+
+        /**
+         * コンストラクタ
+         *
+         * @param mode              現在の保存形式
+         * @param hits              ディスクキャッシュのヒット数
+         * @param misses            ディスクキャッシュのミス数
+         * @param diskBytes         ディスクキャッシュの使用サイズ
+         * @param savedCount        保存形式毎の保存件数
+         * @param savedBytes        保存形式毎の保存サイズ
+         * @param dedupCount        ディスクのエントリを共有した件数
+         * @param dedupBytes        ディスクのエントリの共有で削減したサイズ
+         * @param sharedCount       メモリ上の画像を共有した件数
+         * @param sharedBytes       メモリ上の画像の共有で削減したサイズ
+         * @param memSize           メモリキャッシュの使用サイズ
+         * @param memMaxSize        メモリキャッシュの現在の上限
+         * @param recovered         追い出された表示中の画像を再利用した件数
+         * @param memRejected       メモリキャッシュへの格納を見送った件数
+         * @param revalidated       304レスポンスで検証情報だけを更新した件数
+         * @param derived           大きい表示サイズの画像から生成した件数
+         * @param variantSavedBytes 表示サイズ毎の画像で削減したメモリのサイズ
+         */
+        Stats(Mode mode, long hits, long misses, long diskBytes, long[] savedCount, long[] savedBytes,
+              long dedupCount, long dedupBytes, long sharedCount, long sharedBytes,
+              int memSize, int memMaxSize, long recovered,
+              long memRejected, long revalidated, long derived, long variantSavedBytes) {
+            this.mode = mode;
+            this.hits = hits;
+            this.misses = misses;
+            this.diskBytes = diskBytes;
+            this.savedCount = savedCount;
+            this.savedBytes = savedBytes;
+            this.dedupCount = dedupCount;
+            this.dedupBytes = dedupBytes;
+            this.sharedCount = sharedCount;
+            this.sharedBytes = sharedBytes;
+            this.memSize = memSize;
+            this.memMaxSize = memMaxSize;
+            this.recovered = recovered;
+            this.memRejected = memRejected;
+            this.revalidated = revalidated;
+            this.derived = derived;
+            this.variantSavedBytes = variantSavedBytes;
+        }
+
+        /**
+         * ヒット率を取得
+         *
+         * @return ヒット率
+         */
+        public double getHitRatio() {
+            long total = hits + misses;
+            return (0 < total) ? (double) hits / total : 0;
+        }
+
+        /**
+         * 保存形式毎の1件あたりの平均サイズを取得
+         *
+         * @param mode 保存形式
+         * @return 平均サイズ
+         */
+        public long getAverageBytes(Mode mode) {
+            long count = savedCount[mode.ordinal()];
+            return (0 < count) ? savedBytes[mode.ordinal()] / count : 0;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("Stats{mode=").append(mode)
+                    .append(", hitRatio=").append(String.format(Locale.US, "%.3f", getHitRatio()))
+                    .append(", hits=").append(hits)
+                    .append(", misses=").append(misses)
+                    .append(", diskBytes=").append(diskBytes);
+            for (Mode m : Mode.values()) {
+                sb.append(", ").append(m).append("={count=").append(savedCount[m.ordinal()])
+                        .append(", bytes=").append(savedBytes[m.ordinal()])
+                        .append(", average=").append(getAverageBytes(m)).append('}');
+            }
+            sb.append(", dedupCount=").append(dedupCount)
+                    .append(", dedupBytes=").append(dedupBytes)
+                    .append(", sharedCount=").append(sharedCount)
+                    .append(", sharedBytes=").append(sharedBytes)
+                    .append(", memSize=").append(memSize)
+                    .append(", memMaxSize=").append(memMaxSize)
+                    .append(", recovered=").append(recovered)
+                    .append(", memRejected=").append(memRejected)
+                    .append(", revalidated=").append(revalidated)
+                    .append(", derived=").append(derived)
+                    .append(", variantSavedBytes=").append(variantSavedBytes);
+            return sb.append('}').toString();
+        }
+    }
 }
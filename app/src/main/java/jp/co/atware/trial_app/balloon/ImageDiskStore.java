@@ -0,0 +1,362 @@
+/*
+ * Copyright (c) 2017, atWare, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *  Neither the name of the atWare, Inc. nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL atWare, Inc. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package jp.co.atware.trial_app.balloon;
+
+import android.util.Log;
+
+import com.jakewharton.disklrucache.DiskLruCache.Editor;
+import com.jakewharton.disklrucache.DiskLruCache.Snapshot;
+
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 画像のディスクキャッシュのエントリ
+ * <p>
+ * エントリ毎に画像データ、参照先の内容のキー、HTTPキャッシュの検証情報、縮小画像を保存する。
+ * 古いエントリの削除はディスクキャッシュに任せ、書き込みは容量に関わらず常に受け付ける
+ */
+class ImageDiskStore {
+
+    static final int VALUE_COUNT = 4;
+    static final int INDEX_DATA = 0;
+    static final int INDEX_CONTENT_KEY = 1;
+    static final int INDEX_METADATA = 2;
+    static final int INDEX_THUMBNAIL = 3;
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * 画像データを書き込むオブジェクト
+     */
+    interface Encoder {
+
+        /**
+         * 画像データを書き込み
+         *
+         * @param out 書き込み先
+         * @return 書き込みに成功した場合にtrue
+         * @throws IOException 書き込み失敗
+         */
+        boolean encode(OutputStream out) throws IOException;
+    }
+
+    private final ShardedDiskCache cache;
+    private final AtomicLongArray savedCount = new AtomicLongArray(ImageCache.Mode.values().length);
+    private final AtomicLongArray savedBytes = new AtomicLongArray(ImageCache.Mode.values().length);
+    private final AtomicLong dedupCount = new AtomicLong();
+    private final AtomicLong dedupBytes = new AtomicLong();
+    private final AtomicLong revalidateCount = new AtomicLong();
+
+    /**
+     * コンストラクタ
+     *
+     * @param cache ディスクキャッシュ
+     */
+    ImageDiskStore(ShardedDiskCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * エントリを取得
+     *
+     * @param key キー
+     * @return Snapshot、エントリが無い場合はnull
+     * @throws IOException 読み込み失敗
+     */
+    Snapshot get(String key) throws IOException {
+        return cache.get(key);
+    }
+
+    /**
+     * エントリの値を取得
+     *
+     * @param key   キー
+     * @param index 値のインデックス
+     * @return 値、エントリが無い場合はnull
+     * @throws IOException 読み込み失敗
+     */
+    String getString(String key, int index) throws IOException {
+        try (Snapshot snapshot = cache.get(key)) {
+            return (snapshot != null) ? snapshot.getString(index) : null;
+        }
+    }
+
+    /**
+     * エントリが存在するか確認
+     *
+     * @param key キー
+     * @return 存在する場合にtrue
+     */
+    boolean contains(String key) {
+        try (Snapshot snapshot = cache.get(key)) {
+            return snapshot != null;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * ダウンロードした画像データを保存
+     * <p>
+     * 内容のキーを指定した場合、画像データは内容のキーで1つだけ保存し、URLのキーには参照先を保存する
+     *
+     * @param key        URLのキー
+     * @param data       画像データ
+     * @param length     画像データのサイズ
+     * @param contentKey 画像データの内容のキー、重複排除しない場合はnull
+     * @param metadata   符号化したHTTPキャッシュの検証情報
+     * @param thumbnail  符号化した縮小画像
+     * @return 保存した場合にtrue
+     */
+    boolean save(String key, final byte[] data, final int length, String contentKey, String metadata,
+                 String thumbnail) {
+        Encoder encoder = new Encoder() {
+            @Override
+            public boolean encode(OutputStream out) throws IOException {
+                out.write(data, 0, length);
+                return true;
+            }
+        };
+        if (contentKey == null) {
+            return write(key, ImageCache.Mode.ORIGINAL, encoder, "", metadata, thumbnail);
+        }
+        if (contains(contentKey)) {
+            dedupCount.incrementAndGet();
+            dedupBytes.addAndGet(length);
+        } else if (!write(contentKey, ImageCache.Mode.ORIGINAL, encoder, "", "", "")) {
+            return false;
+        }
+        return write(key, null, new Encoder() {
+            @Override
+            public boolean encode(OutputStream out) {
+                return true;
+            }
+        }, contentKey, metadata, thumbnail);
+    }
+
+    /**
+     * デコードした画像を再圧縮して保存
+     *
+     * @param key       URLのキー
+     * @param encoder   再圧縮した画像データを書き込むオブジェクト
+     * @param metadata  符号化したHTTPキャッシュの検証情報
+     * @param thumbnail 符号化した縮小画像
+     * @return 保存した場合にtrue
+     */
+    boolean save(String key, Encoder encoder, String metadata, String thumbnail) {
+        return write(key, ImageCache.Mode.LOSSY, encoder, "", metadata, thumbnail);
+    }
+
+    /**
+     * HTTPキャッシュの検証情報だけを更新
+     *
+     * @param key      URLのキー
+     * @param metadata 符号化したHTTPキャッシュの検証情報
+     * @return 更新した場合にtrue
+     */
+    boolean updateMetadata(String key, String metadata) {
+        if (!contains(key)) {
+            return false;
+        }
+        Editor editor = null;
+        try {
+            editor = cache.edit(key);
+            if (editor == null) {
+                return false;
+            }
+            editor.set(INDEX_METADATA, metadata);
+            editor.commit();
+            revalidateCount.incrementAndGet();
+            return true;
+        } catch (IOException | IllegalStateException e) {
+            // 確認後に削除されたエントリは画像データが無いため確定できない
+            Log.w("ImageDiskStore", "unable to update metadata.", e);
+            abort(editor);
+        }
+        return false;
+    }
+
+    /**
+     * エントリを書き込み
+     *
+     * @param key        キー
+     * @param mode       保存形式、参照先だけを保存する場合はnull
+     * @param encoder    画像データを書き込むオブジェクト
+     * @param contentKey 参照先の内容のキー、画像データを保存する場合は空文字
+     * @param metadata   符号化したHTTPキャッシュの検証情報
+     * @param thumbnail  符号化した縮小画像
+     * @return 書き込みに成功した場合にtrue
+     */
+    private boolean write(String key, ImageCache.Mode mode, Encoder encoder, String contentKey, String metadata,
+                          String thumbnail) {
+        Editor editor = null;
+        try {
+            editor = cache.edit(key);
+            if (editor == null) {
+                return false;
+            }
+            CountingOutputStream counter = new CountingOutputStream(editor.newOutputStream(INDEX_DATA));
+            boolean encoded;
+            try (OutputStream out = new BufferedOutputStream(counter, BUFFER_SIZE)) {
+                encoded = encoder.encode(out);
+            }
+            if (!encoded) {
+                editor.abort();
+                return false;
+            }
+            editor.set(INDEX_CONTENT_KEY, contentKey);
+            editor.set(INDEX_METADATA, metadata);
+            editor.set(INDEX_THUMBNAIL, thumbnail);
+            editor.commit();
+            if (mode != null) {
+                savedCount.incrementAndGet(mode.ordinal());
+                savedBytes.addAndGet(mode.ordinal(), counter.getCount());
+            }
+            return true;
+        } catch (IOException e) {
+            Log.w("ImageDiskStore", "unable to save cache.", e);
+            abort(editor);
+        }
+        return false;
+    }
+
+    /**
+     * 書き込みを中止
+     *
+     * @param editor Editor
+     */
+    private void abort(Editor editor) {
+        try {
+            if (editor != null) {
+                editor.abort();
+            }
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * 保存形式毎の保存件数を取得
+     *
+     * @return 保存件数
+     */
+    long[] getSavedCount() {
+        return toArray(savedCount);
+    }
+
+    /**
+     * 保存形式毎の保存サイズを取得
+     *
+     * @return 保存サイズ
+     */
+    long[] getSavedBytes() {
+        return toArray(savedBytes);
+    }
+
+    /**
+     * 配列の値を複製
+     *
+     * @param values 値
+     * @return 複製した配列
+     */
+    private static long[] toArray(AtomicLongArray values) {
+        long[] array = new long[values.length()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+        return array;
+    }
+
+    /**
+     * エントリを共有した件数を取得
+     *
+     * @return 件数
+     */
+    long getDedupCount() {
+        return dedupCount.get();
+    }
+
+    /**
+     * エントリの共有で削減したサイズを取得
+     *
+     * @return バイト数
+     */
+    long getDedupBytes() {
+        return dedupBytes.get();
+    }
+
+    /**
+     * 検証情報だけを更新した件数を取得
+     *
+     * @return 件数
+     */
+    long getRevalidateCount() {
+        return revalidateCount.get();
+    }
+
+    /**
+     * 書き込んだサイズを数えるOutputStream
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+
+        private long count = 0;
+
+        /**
+         * コンストラクタ
+         *
+         * @param out 書き込み先
+         */
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        /**
+         * 書き込んだサイズを取得
+         *
+         * @return 書き込んだサイズ
+         */
+        long getCount() {
+            return count;
+        }
+    }
+}
@@ -0,0 +1,973 @@
+/*
+ * Copyright (c) 2017, atWare, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *  Neither the name of the atWare, Inc. nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL atWare, Inc. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package jp.co.atware.trial_app.balloon;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import jp.co.atware.trial_app.R;
+import jp.co.atware.trial_app.balloon.NegativeCache.Failure;
+import jp.co.atware.trial_app.chat.ChatApplication;
+import jp.co.atware.trial_app.util.HttpClient;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * 画像読み込みエンジン
+ * <p>
+ * 通信とデコードを専用のスレッドプールで実行し、表示中の画像を先読みより優先する。
+ * 同じ優先度では後から要求された画像を先に処理する
+ */
+public class ImageLoader {
+
+    private static final String TAG = "ImageLoader";
+    private static final int CPU_COUNT = Runtime.getRuntime().availableProcessors();
+    private static final int NETWORK_THREADS = Math.max(2, Math.min(CPU_COUNT * 2, 6));
+    private static final int DECODE_THREADS = Math.max(1, CPU_COUNT - 1);
+    private static final long KEEP_ALIVE = 30;
+    private static final int POOL_SIZE = 4 * 1024 * 1024;
+    private static final int CHUNK_SIZE = 16 * 1024;
+    private static final int PEEK_SIZE = 32 * 1024;
+    private static final int PROGRESSIVE_BYTES = 128 * 1024;
+    private static final int PROGRESSIVE_RATIO = 4;
+    private static final long PROGRESSIVE_PIXELS = 2 * 1024 * 1024;
+    private static final long DECODE_WAIT = 5000;
+
+    private static volatile ImageLoader INSTANCE = null;
+
+    /**
+     * Singletonインスタンスを取得
+     *
+     * @return インスタンス
+     */
+    public static ImageLoader getInstance() {
+        if (INSTANCE == null) {
+            synchronized (ImageLoader.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new ImageLoader();
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * 読み込みの優先度
+     */
+    public enum Priority {
+        VISIBLE, PREFETCH
+    }
+
+    /**
+     * 読み込みの段階
+     */
+    private enum Stage {
+        DISK, NETWORK, DECODE
+    }
+
+    /**
+     * 画像読み込みタスク
+     */
+    class Job implements Runnable, Comparable<Job> {
+
+        final List<ImageAdapter> adapters = new ArrayList<>();
+        final String key;
+        final String url;
+        final TargetSize size;
+        Priority priority;
+        long sequence = SEQUENCE.incrementAndGet();
+        final long requested = System.nanoTime();
+        volatile Stage stage = Stage.DISK;
+        volatile boolean cancelled;
+        volatile Call call;
+        long enqueued;
+        PooledOutputStream data;
+        int sourceWidth;
+        int sourceHeight;
+        CacheMetadata validation;
+        CacheMetadata metadata;
+        boolean revalidated;
+        boolean previewed;
+        boolean resized;
+        boolean fallback;
+
+        /**
+         * コンストラクタ
+         *
+         * @param key      読み込みの識別キー
+         * @param url      画像URL
+         * @param size     表示サイズ
+         * @param priority 優先度
+         */
+        Job(String key, String url, TargetSize size, Priority priority) {
+            this.key = key;
+            this.url = url;
+            this.size = size;
+            this.priority = priority;
+        }
+
+        @Override
+        public int compareTo(Job other) {
+            if (priority != other.priority) {
+                return priority.compareTo(other.priority);
+            }
+            return Long.compare(other.sequence, sequence);
+        }
+
+        @Override
+        public void run() {
+            waitNanos.addAndGet(System.nanoTime() - enqueued);
+            if (cancelled) {
+                releaseData(this);
+                return;
+            }
+            switch (stage) {
+                case DISK:
+                    loadFromDisk(this);
+                    break;
+                case NETWORK:
+                    download(this);
+                    break;
+                case DECODE:
+                    decode(this);
+                    break;
+            }
+        }
+    }
+
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+
+    private final ThreadPoolExecutor networkExecutor =
+            createExecutor(NETWORK_THREADS, "image-network");
+    private final ThreadPoolExecutor decodeExecutor =
+            createExecutor(DECODE_THREADS, "image-decode");
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Map<String, Job> inflight = new HashMap<>();
+    private final ByteArrayPool bufferPool = new ByteArrayPool(POOL_SIZE);
+
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong completeCount = new AtomicLong();
+    private final AtomicLong cancelCount = new AtomicLong();
+    private final AtomicLong failCount = new AtomicLong();
+    private final AtomicLong coalesceCount = new AtomicLong();
+    private final AtomicLong notModifiedCount = new AtomicLong();
+    private final AtomicLong previewCount = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+    private final AtomicLong stageCount = new AtomicLong();
+    private final AtomicLong latencyNanos = new AtomicLong();
+
+    private volatile TargetSize balloonSize;
+    private volatile TargetSize compoundSize;
+    private volatile boolean progressive = true;
+
+    /**
+     * コンストラクタ
+     */
+    private ImageLoader() {
+    }
+
+    /**
+     * 優先度付きのスレッドプールを生成
+     *
+     * @param threads スレッド数
+     * @param name    スレッド名
+     * @return スレッドプール
+     */
+    private static ThreadPoolExecutor createExecutor(int threads, final String name) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * 低解像度の画像を先に表示するか取得
+     *
+     * @return 先に表示する場合にtrue
+     */
+    public boolean isProgressive() {
+        return progressive;
+    }
+
+    /**
+     * 低解像度の画像を先に表示するか設定
+     *
+     * @param progressive 先に表示する場合にtrue
+     */
+    public void setProgressive(boolean progressive) {
+        this.progressive = progressive;
+    }
+
+    /**
+     * 画像の読み込みを開始
+     * <p>
+     * 同じURLとサイズの読み込みが実行中の場合は、そのタスクの結果を共有する
+     *
+     * @param adapter  読み込み結果を受け取るImageAdapter
+     * @param url      画像URL
+     * @param size     表示サイズ
+     * @param priority 優先度
+     * @return 読み込みタスク
+     */
+    Job load(ImageAdapter adapter, String url, TargetSize size, Priority priority) {
+        requestCount.incrementAndGet();
+        String key = size.getKey() + ":" + url;
+        synchronized (inflight) {
+            Job job = inflight.get(key);
+            if (job != null) {
+                coalesceCount.incrementAndGet();
+                job.adapters.add(adapter);
+                if (priority.compareTo(job.priority) < 0) {
+                    raise(job, priority);
+                }
+                return job;
+            }
+            job = new Job(key, url, size, priority);
+            job.adapters.add(adapter);
+            inflight.put(key, job);
+            enqueue(job, Stage.DISK);
+            return job;
+        }
+    }
+
+    /**
+     * 待機中のタスクの優先度を引き上げ
+     *
+     * @param job      読み込みタスク
+     * @param priority 優先度
+     */
+    private void raise(Job job, Priority priority) {
+        // キュー内の順序を保つため、一度取り除いてから再投入する
+        ThreadPoolExecutor executor = (job.stage == Stage.NETWORK) ? networkExecutor : decodeExecutor;
+        boolean queued = executor.remove(job);
+        job.priority = priority;
+        job.sequence = SEQUENCE.incrementAndGet();
+        if (queued) {
+            executor.execute(job);
+        }
+    }
+
+    /**
+     * 読み込みをキャンセル
+     * <p>
+     * 結果を待つImageAdapterが無くなった場合のみタスクを中止する
+     *
+     * @param job     読み込みタスク
+     * @param adapter 読み込みを取り消すImageAdapter
+     */
+    void cancel(Job job, ImageAdapter adapter) {
+        synchronized (inflight) {
+            job.adapters.remove(adapter);
+            if (job.cancelled || !job.adapters.isEmpty()) {
+                return;
+            }
+            job.cancelled = true;
+            if (inflight.get(job.key) == job) {
+                inflight.remove(job.key);
+            }
+            // 待機中のタスクはキューから除去
+            if (!networkExecutor.remove(job)) {
+                decodeExecutor.remove(job);
+            }
+        }
+        cancelCount.incrementAndGet();
+        // 通信中のタスクはリクエストを中止
+        Call call = job.call;
+        if (call != null) {
+            call.cancel();
+        }
+    }
+
+    /**
+     * タスクを次の段階のスレッドプールに投入
+     *
+     * @param job   読み込みタスク
+     * @param stage 次の段階
+     */
+    private void enqueue(Job job, Stage stage) {
+        synchronized (inflight) {
+            if (job.cancelled) {
+                return;
+            }
+            job.stage = stage;
+            job.enqueued = System.nanoTime();
+            stageCount.incrementAndGet();
+            if (stage == Stage.NETWORK) {
+                networkExecutor.execute(job);
+            } else {
+                decodeExecutor.execute(job);
+            }
+        }
+    }
+
+    /**
+     * ディスクキャッシュから読み込み
+     *
+     * @param job 読み込みタスク
+     */
+    private void loadFromDisk(Job job) {
+        ImageCache cache = ImageCache.getInstance();
+        // 大きい表示サイズの画像がメモリキャッシュにあれば縮小して使用
+        RecycleBitmapDrawable derived = cache.derive(job.url, job.size);
+        if (derived != null) {
+            deliver(job, derived);
+            return;
+        }
+        // 取得に失敗して待機中のURLはディスクキャッシュのみ参照する
+        boolean backoff = NegativeCache.getInstance().isBackingOff(job.url);
+        if (!job.revalidated && !backoff) {
+            // 有効期限切れのキャッシュは検証情報があれば条件付きリクエストで確認し、無ければ取得し直す
+            CacheMetadata metadata = cache.getMetadata(job.url);
+            if (metadata != null && !metadata.isFresh(System.currentTimeMillis())) {
+                job.validation = metadata.hasValidator() ? metadata : null;
+                // 取得し直す間は保存済みの縮小画像を表示
+                previewThumbnail(job, 0);
+                enqueue(job, Stage.NETWORK);
+                return;
+            }
+        }
+        // 大きな画像はデコードする間に保存済みの縮小画像を表示
+        previewThumbnail(job, PROGRESSIVE_PIXELS);
+        RecycleBitmapDrawable drawable = cache.load(job.url, job.size);
+        if (drawable != null) {
+            deliver(job, drawable);
+        } else if (backoff) {
+            fail(job);
+        } else {
+            // 検証後に削除されたキャッシュは条件付きリクエストにせず取得し直す
+            job.validation = null;
+            job.revalidated = false;
+            enqueue(job, Stage.NETWORK);
+        }
+    }
+
+    /**
+     * HTTPで画像データを取得
+     *
+     * @param job 読み込みタスク
+     */
+    private void download(Job job) {
+        Response response = null;
+        try {
+            // 表示幅で配信できる画像サーバーには縮小した画像を要求
+            String requestUrl = job.fallback ? job.url
+                    : ImageUrlRewriter.getInstance().rewrite(job.url, job.size.width);
+            job.resized = !requestUrl.equals(job.url);
+            Request.Builder request = new Request.Builder().url(requestUrl);
+            CacheMetadata validation = job.validation;
+            if (validation != null) {
+                if (validation.etag != null) {
+                    request.header("If-None-Match", validation.etag);
+                }
+                if (validation.lastModified != null) {
+                    request.header("If-Modified-Since", validation.lastModified);
+                }
+            }
+            Call call = HttpClient.getInstance().getClient().newCall(request.build());
+            job.call = call;
+            if (job.cancelled) {
+                call.cancel();
+            }
+            response = call.execute();
+
+            int code = response.code();
+            if (code == HttpURLConnection.HTTP_NOT_MODIFIED && validation != null) {
+                // 変更が無い場合は検証情報だけを更新してディスクキャッシュから読み込む
+                NegativeCache.getInstance().recordSuccess(job.url);
+                ImageCache.getInstance().updateMetadata(job.url, validation.revalidate(
+                        response.header("Cache-Control"), response.header("Expires"), response.header("ETag"),
+                        response.header("Last-Modified"), System.currentTimeMillis()));
+                notModifiedCount.incrementAndGet();
+                job.revalidated = true;
+                enqueue(job, Stage.DISK);
+                return;
+            }
+            if (!response.isSuccessful()) {
+                Log.w(TAG, "unable to download image. code=" + code);
+                if (job.resized) {
+                    fallback(job, true);
+                } else {
+                    failDownload(job, Failure.ofStatus(code));
+                }
+                return;
+            }
+            NegativeCache.getInstance().recordSuccess(job.url);
+            job.metadata = CacheMetadata.parse(response.header("Cache-Control"), response.header("Expires"),
+                    response.header("ETag"), response.header("Last-Modified"), System.currentTimeMillis());
+
+            ResponseBody body = response.body();
+            long length = body.contentLength();
+            job.data = new PooledOutputStream(bufferPool,
+                    (0 < length && length <= Integer.MAX_VALUE) ? (int) length : CHUNK_SIZE);
+            byte[] chunk = bufferPool.getBuf(CHUNK_SIZE);
+            try (InputStream input = body.byteStream()) {
+                // 先頭部分で画像サイズを取得し、残りはまとめて読み込む
+                int read = 0;
+                while (job.data.size() < PEEK_SIZE && (read = input.read(chunk)) != -1) {
+                    job.data.write(chunk, 0, read);
+                }
+                decodeBounds(job);
+                if (read != -1 && isPreviewable(job) && PROGRESSIVE_BYTES <= length
+                        && PreviewDrawable.isProgressive(job.data.getBuffer(), job.data.size())) {
+                    // プログレッシブJPEGは最初のスキャンを読み込んだ時点で低解像度で表示
+                    while (job.data.size() < length / PROGRESSIVE_RATIO && (read = input.read(chunk)) != -1) {
+                        job.data.write(chunk, 0, read);
+                    }
+                    previewPartial(job);
+                }
+                if (read != -1) {
+                    job.data.readFrom(input);
+                }
+            } finally {
+                bufferPool.returnBuf(chunk);
+            }
+            if (job.resized && ImageUrlRewriter.getInstance().recordSuccess(job.url, job.data.size())) {
+                measureOriginal(job.url, job.data.size());
+            }
+            enqueue(job, Stage.DECODE);
+        } catch (Exception e) {
+            // キャンセルによる中断以外はタイムアウトも含めて失敗として扱い、実行中のタスクから除去する
+            releaseData(job);
+            if (!job.cancelled) {
+                Log.w(TAG, "unable to download image.", e);
+                if (job.resized) {
+                    fallback(job, false);
+                } else {
+                    failDownload(job, Failure.NETWORK);
+                }
+            }
+        } finally {
+            job.call = null;
+            if (response != null) {
+                response.close();
+            }
+        }
+    }
+
+    /**
+     * 低解像度の画像を先に表示するか判定
+     *
+     * @param job 読み込みタスク
+     * @return ImageViewに表示するタスクで、まだ表示していない場合にtrue
+     */
+    private boolean isPreviewable(Job job) {
+        return progressive && !job.previewed && job.priority == Priority.VISIBLE;
+    }
+
+    /**
+     * ディスクキャッシュに保存した縮小画像を表示
+     *
+     * @param job       読み込みタスク
+     * @param minPixels 表示する元の画像の最小Pixel数
+     */
+    private void previewThumbnail(Job job, long minPixels) {
+        if (!isPreviewable(job)) {
+            return;
+        }
+        PreviewDrawable thumbnail = ImageCache.getInstance().loadThumbnail(job.url, job.size);
+        if (thumbnail != null && minPixels <= thumbnail.getSourcePixels()) {
+            preview(job, thumbnail);
+        }
+    }
+
+    /**
+     * ダウンロード途中の画像データを低解像度でデコードして表示
+     *
+     * @param job 読み込みタスク
+     */
+    private void previewPartial(Job job) {
+        if (job.sourceWidth <= 0) {
+            return;
+        }
+        Resources res = ChatApplication.getInstance().getResources();
+        PreviewDrawable partial = PreviewDrawable.decodePartial(res, job.data.getBuffer(), job.data.size(),
+                job.sourceWidth, job.sourceHeight, job.size.calculateSampleSize(job.sourceWidth, job.sourceHeight));
+        if (partial != null) {
+            preview(job, partial);
+        }
+    }
+
+    /**
+     * 縮小した画像の取得の失敗を記録し、元のURLで取得し直す
+     *
+     * @param job    読み込みタスク
+     * @param broken 画像サーバーが応答しなかった場合や画像が不正な場合にtrue、通信エラーの場合はfalse
+     */
+    private void fallback(Job job, boolean broken) {
+        releaseData(job);
+        ImageUrlRewriter.getInstance().recordFailure(job.url, broken);
+        job.fallback = true;
+        enqueue(job, Stage.NETWORK);
+    }
+
+    /**
+     * 元の画像のサイズを確認して縮小による削減量を記録
+     * <p>
+     * 画像データは取得せず、表示を待たせないよう非同期で確認する
+     *
+     * @param url           元の画像URL
+     * @param resizedLength 縮小した画像のサイズ
+     */
+    private void measureOriginal(String url, final long resizedLength) {
+        Request request = new Request.Builder().url(url).head().build();
+        HttpClient.getInstance().getClient().newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                try {
+                    String length = response.header("Content-Length");
+                    if (length != null) {
+                        ImageUrlRewriter.getInstance().recordSample(Long.parseLong(length), resizedLength);
+                    }
+                } catch (NumberFormatException ignore) {
+                } finally {
+                    response.close();
+                }
+            }
+        });
+    }
+
+    /**
+     * 取得の失敗を記録
+     * <p>
+     * 期限切れのキャッシュがあり、一時的な失敗の場合はキャッシュを表示する
+     *
+     * @param job     読み込みタスク
+     * @param failure 失敗の種類
+     */
+    private void failDownload(Job job, Failure failure) {
+        NegativeCache.getInstance().recordFailure(job.url, failure);
+        if (job.validation != null && failure != Failure.CLIENT) {
+            job.revalidated = true;
+            enqueue(job, Stage.DISK);
+        } else {
+            fail(job);
+        }
+    }
+
+    /**
+     * 画像データをデコードしてキャッシュに格納
+     *
+     * @param job 読み込みタスク
+     */
+    private void decode(Job job) {
+        try {
+            byte[] data = job.data.getBuffer();
+            int length = job.data.size();
+            ImageCache cache = ImageCache.getInstance();
+            String contentKey = cache.getContentKey(data, length);
+            if (contentKey != null) {
+                // 同じ内容の画像がデコード済みの場合は共有
+                RecycleBitmapDrawable shared = cache.share(job.url, contentKey, job.size);
+                if (shared != null) {
+                    store(job, contentKey, shared);
+                    deliver(job, shared);
+                    return;
+                }
+            }
+            if (job.sourceWidth <= 0) {
+                // 先頭部分で画像サイズを取得できなかった場合は全体から取得
+                decodeBounds(job);
+            }
+            // 画像のリサイズ
+            int sampleSize = job.size.calculateSampleSize(job.sourceWidth, job.sourceHeight);
+            boolean tiled = TiledBitmapDrawable.shouldTile(job.sourceWidth, job.sourceHeight, sampleSize);
+            // 同時にデコードするBitmapのサイズが上限を超えないよう受付を待つ
+            long bytes = tiled ? TiledBitmapDrawable.estimatePreview(job.sourceWidth, job.sourceHeight, sampleSize)
+                    : DecodeBudget.estimate(job.sourceWidth, job.sourceHeight, sampleSize);
+            DecodeBudget budget = DecodeBudget.getInstance();
+            if (!budget.acquire(bytes, DECODE_WAIT)) {
+                // 待ち時間を超えた場合は他のタスクを先に処理するため再投入
+                enqueue(job, Stage.DECODE);
+                return;
+            }
+            Resources res = ChatApplication.getInstance().getResources();
+            RecycleBitmapDrawable drawable = null;
+            try {
+                if (tiled) {
+                    // 巨大な画像は表示中の領域だけをデコード
+                    drawable = TiledBitmapDrawable.create(res, new ByteArrayInputStream(data, 0, length), length,
+                            job.sourceWidth, job.sourceHeight, sampleSize);
+                } else {
+                    Bitmap bitmap = decodeBitmap(job, sampleSize);
+                    if (bitmap != null) {
+                        drawable = new RecycleBitmapDrawable(res, bitmap);
+                    }
+                }
+            } finally {
+                budget.release(bytes);
+            }
+            if (drawable == null) {
+                releaseData(job);
+                if (job.resized) {
+                    // 縮小した画像が不正な場合は元の画像で表示
+                    fallback(job, true);
+                    return;
+                }
+                NegativeCache.getInstance().recordFailure(job.url, Failure.DECODE);
+                fail(job);
+                return;
+            }
+            cache.recordVariant(job.size, job.sourceWidth, job.sourceHeight, drawable);
+            cache.put(job.url, contentKey, job.size, drawable);
+            store(job, contentKey, drawable);
+            deliver(job, drawable);
+        } catch (Exception e) {
+            releaseData(job);
+            Log.w(TAG, "unexpected error occurred.", e);
+            fail(job);
+        }
+    }
+
+    /**
+     * ダウンロードした画像データ全体をデコード
+     *
+     * @param job        読み込みタスク
+     * @param sampleSize 縮小率
+     * @return Bitmap、デコードできない場合はnull
+     */
+    private Bitmap decodeBitmap(Job job, int sampleSize) {
+        byte[] data = job.data.getBuffer();
+        int length = job.data.size();
+        BitmapFactory.Options opts = new BitmapFactory.Options();
+        opts.inSampleSize = sampleSize;
+        opts.inPreferredConfig = Bitmap.Config.RGB_565;
+        opts.inTempStorage = bufferPool.getBuf(CHUNK_SIZE);
+        try {
+            BitmapPool.getInstance().setInBitmap(opts, job.sourceWidth, job.sourceHeight);
+            try {
+                return BitmapFactory.decodeByteArray(data, 0, length, opts);
+            } catch (IllegalArgumentException e) {
+                // 再利用するBitmapに格納できない場合は新しく確保してデコード
+                BitmapPool.getInstance().put(opts.inBitmap);
+                opts.inBitmap = null;
+                return BitmapFactory.decodeByteArray(data, 0, length, opts);
+            }
+        } finally {
+            bufferPool.returnBuf(opts.inTempStorage);
+        }
+    }
+
+    /**
+     * 元の画像データか再圧縮した画像をディスクキャッシュに格納
+     *
+     * @param job        読み込みタスク
+     * @param contentKey 画像データの内容のキー、重複排除しない場合はnull
+     * @param drawable   画像データ
+     */
+    private void store(Job job, String contentKey, RecycleBitmapDrawable drawable) {
+        ImageCache cache = ImageCache.getInstance();
+        // no-storeの画像はディスクキャッシュに保存しない
+        if (job.metadata == null || job.metadata.storable) {
+            // 縮小画像はデコードに時間がかかる大きな画像のみ保存
+            String thumbnail = (PROGRESSIVE_PIXELS <= (long) job.sourceWidth * job.sourceHeight)
+                    ? PreviewDrawable.encodeThumbnail(drawable.getBitmap(), job.sourceWidth, job.sourceHeight)
+                    : "";
+            // 領域毎に表示する画像はプレビューしか保持しないため元の画像データを保存
+            if (cache.getMode() == ImageCache.Mode.ORIGINAL || drawable instanceof TiledBitmapDrawable) {
+                cache.save(job.url, job.data.getBuffer(), job.data.size(), contentKey, job.metadata, thumbnail);
+            } else {
+                cache.save(job.url, drawable, job.metadata, thumbnail);
+            }
+        }
+        releaseData(job);
+    }
+
+    /**
+     * ダウンロード済みの画像データから画像サイズを取得
+     * <p>
+     * 取得できない場合は-1をセットする
+     *
+     * @param job 読み込みタスク
+     */
+    private static void decodeBounds(Job job) {
+        BitmapFactory.Options opts = new BitmapFactory.Options();
+        opts.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(job.data.getBuffer(), 0, job.data.size(), opts);
+        job.sourceWidth = opts.outWidth;
+        job.sourceHeight = opts.outHeight;
+    }
+
+    /**
+     * ダウンロードした画像データの配列をプールに返却
+     *
+     * @param job 読み込みタスク
+     */
+    private static void releaseData(Job job) {
+        PooledOutputStream data = job.data;
+        job.data = null;
+        if (data != null) {
+            data.close();
+        }
+    }
+
+    /**
+     * 読み込み結果をメインスレッドで通知
+     *
+     * @param job      読み込みタスク
+     * @param drawable 画像データ
+     */
+    private void deliver(final Job job, final RecycleBitmapDrawable drawable) {
+        complete(job);
+        completeCount.incrementAndGet();
+        latencyNanos.addAndGet(System.nanoTime() - job.requested);
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                List<ImageAdapter> adapters;
+                synchronized (inflight) {
+                    if (job.cancelled) {
+                        return;
+                    }
+                    adapters = new ArrayList<>(job.adapters);
+                    job.adapters.clear();
+                }
+                // 結果を待つ全てのImageViewに画像を設定
+                for (ImageAdapter adapter : adapters) {
+                    adapter.onLoaded(job, drawable);
+                }
+            }
+        });
+    }
+
+    /**
+     * 低解像度の画像をメインスレッドで通知
+     * <p>
+     * 本来の画像の読み込みは継続する
+     *
+     * @param job      読み込みタスク
+     * @param drawable 低解像度の画像
+     */
+    private void preview(final Job job, final PreviewDrawable drawable) {
+        job.previewed = true;
+        previewCount.incrementAndGet();
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                List<ImageAdapter> adapters;
+                synchronized (inflight) {
+                    if (job.cancelled) {
+                        return;
+                    }
+                    adapters = new ArrayList<>(job.adapters);
+                }
+                for (ImageAdapter adapter : adapters) {
+                    adapter.onPreview(job, drawable);
+                }
+            }
+        });
+    }
+
+    /**
+     * 実行中のタスクから除去し、以降の要求は新しいタスクで読み込む
+     *
+     * @param job 読み込みタスク
+     */
+    private void complete(Job job) {
+        synchronized (inflight) {
+            if (inflight.get(job.key) == job) {
+                inflight.remove(job.key);
+            }
+        }
+    }
+
+    /**
+     * 読み込み失敗
+     *
+     * @param job 読み込みタスク
+     */
+    private void fail(final Job job) {
+        complete(job);
+        failCount.incrementAndGet();
+        latencyNanos.addAndGet(System.nanoTime() - job.requested);
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                List<ImageAdapter> adapters;
+                synchronized (inflight) {
+                    if (job.cancelled) {
+                        return;
+                    }
+                    adapters = new ArrayList<>(job.adapters);
+                    job.adapters.clear();
+                }
+                // 結果を待つ全てのImageViewにプレースホルダーを設定
+                for (ImageAdapter adapter : adapters) {
+                    adapter.onFailed(job);
+                }
+            }
+        });
+    }
+
+    /**
+     * 吹き出しの画像の表示サイズを取得
+     *
+     * @return 表示サイズ
+     */
+    TargetSize getBalloonSize() {
+        if (balloonSize == null) {
+            Resources res = ChatApplication.getInstance().getResources();
+            balloonSize = TargetSize.of(res.getDimensionPixelSize(R.dimen.balloon_width), 0);
+        }
+        return balloonSize;
+    }
+
+    /**
+     * 複合吹き出しの画像の表示サイズを取得
+     *
+     * @return 表示サイズ
+     */
+    TargetSize getCompoundSize() {
+        if (compoundSize == null) {
+            Resources res = ChatApplication.getInstance().getResources();
+            compoundSize = TargetSize.of(res.getDimensionPixelSize(R.dimen.balloon_width),
+                    res.getDimensionPixelSize(R.dimen.compound_image_height));
+        }
+        return compoundSize;
+    }
+
+    /**
+     * 読み込みの統計情報を取得
+     *
+     * @return 統計情報
+     */
+    public Metrics getMetrics() {
+        long stages = stageCount.get();
+        long finished = completeCount.get() + failCount.get();
+        return new Metrics(networkExecutor.getQueue().size(), decodeExecutor.getQueue().size(),
+                networkExecutor.getActiveCount() + decodeExecutor.getActiveCount(),
+                requestCount.get(), coalesceCount.get(), notModifiedCount.get(), previewCount.get(),
+                completeCount.get(), cancelCount.get(), failCount.get(),
+                (0 < stages) ? waitNanos.get() / stages / 1000000 : 0,
+                (0 < finished) ? latencyNanos.get() / finished / 1000000 : 0);
+    }
+
+    /**
+     * 画像読み込みの統計情報
+     */
+    public static class Metrics {
+
+        public final int networkQueued;
+        public final int decodeQueued;
+        public final int running;
+        public final long requested;
+        public final long coalesced;
+        public final long notModified;
+        public final long previewed;
+        public final long completed;
+        public final long cancelled;
+        public final long failed;
+        public final long averageWaitMillis;
+        public final long averageLatencyMillis;
+
+        /**
+         * コンストラクタ
+         *
+         * @param networkQueued        通信待ちのタスク数
+         * @param decodeQueued         デコード待ちのタスク数
+         * @param running              実行中のタスク数
+         * @param requested            要求数
+         * @param coalesced            実行中のタスクと共有した要求数
+         * @param notModified          条件付きリクエストで304を受け取った数
+         * @param previewed            低解像度の画像を先に表示した数
+         * @param completed            完了数
+         * @param cancelled            キャンセル数
+         * @param failed               失敗数
+         * @param averageWaitMillis    キューでの平均待ち時間
+         * @param averageLatencyMillis 要求から完了までの平均時間
+         */
+        Metrics(int networkQueued, int decodeQueued, int running, long requested, long coalesced,
+                long notModified, long previewed, long completed, long cancelled, long failed,
+                long averageWaitMillis, long averageLatencyMillis) {
+            this.networkQueued = networkQueued;
+            this.decodeQueued = decodeQueued;
+            this.running = running;
+            this.requested = requested;
+            this.coalesced = coalesced;
+            this.notModified = notModified;
+            this.previewed = previewed;
+            this.completed = completed;
+            this.cancelled = cancelled;
+            this.failed = failed;
+            this.averageWaitMillis = averageWaitMillis;
+            this.averageLatencyMillis = averageLatencyMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "Metrics{" +
+                    "networkQueued=" + networkQueued +
+                    ", decodeQueued=" + decodeQueued +
+                    ", running=" + running +
+                    ", requested=" + requested +
+                    ", coalesced=" + coalesced +
+                    ", notModified=" + notModified +
+                    ", previewed=" + previewed +
+                    ", completed=" + completed +
+                    ", cancelled=" + cancelled +
+                    ", failed=" + failed +
+                    ", averageWaitMillis=" + averageWaitMillis +
+                    ", averageLatencyMillis=" + averageLatencyMillis +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright (c) 2017, atWare, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *  Neither the name of the atWare, Inc. nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL atWare, Inc. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package jp.co.atware.trial_app.balloon;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URLEncoder;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 画像URLを表示幅に縮小して配信するURLに書き換え
+ * <p>
+ * 横幅を指定できる画像サーバーのホスト毎にURLのテンプレートを設定し、表示幅の画像を要求する。
+ * テンプレートは1行に「ホスト名=テンプレート」の形式で記述し、ホスト名の先頭の「*.」はサブドメインに一致する。
+ * テンプレートには{url}、{encodedUrl}、{path}、{query}、{width}を埋め込める。
+ * <p>
+ * 書き換えたURLで取得に失敗した場合は元のURLで取得し直し、連続して失敗したホストは書き換えを止める。
+ * 縮小による削減量は一定間隔で元の画像のサイズを確認して推定する
+ */
+public class ImageUrlRewriter {
+
+    private static final int MAX_FAILURES = 3;
+    private static final int SAMPLE_INTERVAL = 8;
+    private static final String WILDCARD = "*.";
+
+    private static volatile ImageUrlRewriter INSTANCE = null;
+
+    /**
+     * インスタンスを取得
+     *
+     * @return インスタンス
+     */
+    public static ImageUrlRewriter getInstance() {
+        if (INSTANCE == null) {
+            synchronized (ImageUrlRewriter.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new ImageUrlRewriter();
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    private volatile Map<String, String> templates = new LinkedHashMap<>();
+    private final Map<String, Integer> failures = new HashMap<>();
+    private final AtomicLong rewriteCount = new AtomicLong();
+    private final AtomicLong successCount = new AtomicLong();
+    private final AtomicLong resizedBytes = new AtomicLong();
+    private final AtomicLong fallbackCount = new AtomicLong();
+    private final AtomicLong sampleCount = new AtomicLong();
+    private final AtomicLong sampledOriginalBytes = new AtomicLong();
+    private final AtomicLong sampledResizedBytes = new AtomicLong();
+
+    /**
+     * コンストラクタ
+     */
+    ImageUrlRewriter() {
+    }
+
+    /**
+     * ホスト毎のテンプレートを設定
+     * <p>
+     * 形式が正しくない行は無視する
+     *
+     * @param rules 1行に「ホスト名=テンプレート」を記述した設定、書き換えない場合はnull
+     */
+    public void setRules(String rules) {
+        Map<String, String> parsed = new LinkedHashMap<>();
+        if (rules != null) {
+            for (String line : rules.split("\n")) {
+                int separator = line.indexOf('=');
+                if (separator <= 0) {
+                    continue;
+                }
+                String host = line.substring(0, separator).trim().toLowerCase(Locale.US);
+                String template = line.substring(separator + 1).trim();
+                if (!host.isEmpty() && template.contains("{width}")) {
+                    parsed.put(host, template);
+                }
+            }
+        }
+        templates = parsed;
+        synchronized (failures) {
+            failures.clear();
+        }
+    }
+
+    /**
+     * 画像URLを表示幅の画像を要求するURLに書き換え
+     *
+     * @param url   画像URL
+     * @param width 表示幅のPixel数
+     * @return 書き換えたURL、テンプレートが無い場合は元のURL
+     */
+    public String rewrite(String url, int width) {
+        if (templates.isEmpty() || width <= 0) {
+            return url;
+        }
+        try {
+            URI uri = new URI(url);
+            String host = getHost(url);
+            String template = (host != null) ? findTemplate(host) : null;
+            if (template == null || isDisabled(host)) {
+                return url;
+            }
+            String path = (uri.getRawPath() != null) ? uri.getRawPath() : "";
+            String query = (uri.getRawQuery() != null) ? uri.getRawQuery() : "";
+            String rewritten = template.replace("{encodedUrl}", URLEncoder.encode(url, "UTF-8"))
+                    .replace("{url}", url)
+                    .replace("{path}", path)
+                    .replace("{query}", query)
+                    .replace("{width}", String.valueOf(width));
+            rewriteCount.incrementAndGet();
+            return rewritten;
+        } catch (URISyntaxException | UnsupportedEncodingException e) {
+            return url;
+        }
+    }
+
+    /**
+     * ホスト名に一致するテンプレートを検索
+     * <p>
+     * ホスト名の完全一致をサブドメインの一致より優先する
+     *
+     * @param host 小文字のホスト名
+     * @return テンプレート、一致しない場合はnull
+     */
+    private String findTemplate(String host) {
+        Map<String, String> current = templates;
+        String template = current.get(host);
+        if (template != null) {
+            return template;
+        }
+        for (Map.Entry<String, String> entry : current.entrySet()) {
+            String pattern = entry.getKey();
+            if (pattern.startsWith(WILDCARD) && host.endsWith(pattern.substring(1))) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 書き換えを止めたホストか判定
+     *
+     * @param host 小文字のホスト名
+     * @return 連続して失敗したホストの場合にtrue
+     */
+    private boolean isDisabled(String host) {
+        synchronized (failures) {
+            Integer count = failures.get(host);
+            return count != null && MAX_FAILURES <= count;
+        }
+    }
+
+    /**
+     * 書き換えたURLでの取得の失敗を記録
+     *
+     * @param url    元の画像URL
+     * @param broken 画像サーバーが応答しなかった場合や画像が不正な場合にtrue、通信エラーの場合はfalse
+     */
+    public void recordFailure(String url, boolean broken) {
+        fallbackCount.incrementAndGet();
+        String host = getHost(url);
+        if (!broken || host == null) {
+            return;
+        }
+        synchronized (failures) {
+            Integer count = failures.get(host);
+            failures.put(host, (count != null) ? count + 1 : 1);
+        }
+    }
+
+    /**
+     * 書き換えたURLでの取得の成功を記録
+     *
+     * @param url    元の画像URL
+     * @param length 取得したデータのサイズ
+     * @return 元の画像のサイズを確認して削減量を計測する場合にtrue
+     */
+    public boolean recordSuccess(String url, long length) {
+        String host = getHost(url);
+        if (host != null) {
+            synchronized (failures) {
+                failures.remove(host);
+            }
+        }
+        resizedBytes.addAndGet(length);
+        // 最初の画像と一定間隔毎の画像で計測する
+        return successCount.getAndIncrement() % SAMPLE_INTERVAL == 0;
+    }
+
+    /**
+     * 元の画像と縮小した画像のサイズを記録
+     *
+     * @param originalLength 元の画像のサイズ
+     * @param resizedLength  縮小した画像のサイズ
+     */
+    public void recordSample(long originalLength, long resizedLength) {
+        if (originalLength <= 0) {
+            return;
+        }
+        sampleCount.incrementAndGet();
+        sampledOriginalBytes.addAndGet(originalLength);
+        sampledResizedBytes.addAndGet(resizedLength);
+    }
+
+    /**
+     * 縮小により削減した通信量を推定
+     * <p>
+     * 計測した画像の縮小率を縮小して取得した全ての画像に当てはめる
+     *
+     * @return 削減したバイト数
+     */
+    public long getEstimatedSavedBytes() {
+        long resized = sampledResizedBytes.get();
+        if (sampleCount.get() == 0 || resized <= 0) {
+            return 0;
+        }
+        double ratio = (double) sampledOriginalBytes.get() / resized;
+        return Math.max(0, (long) (resizedBytes.get() * ratio) - resizedBytes.get());
+    }
+
+    /**
+     * URLからホスト名を取得
+     *
+     * @param url URL
+     * @return 小文字のホスト名、取得できない場合はnull
+     */
+    private static String getHost(String url) {
+        try {
+            String host = new URI(url).getHost();
+            return (host != null) ? host.toLowerCase(Locale.US) : null;
+        } catch (URISyntaxException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ImageUrlRewriter{" +
+                "hosts=" + templates.size() +
+                ", rewritten=" + rewriteCount.get() +
+                ", resizedBytes=" + resizedBytes.get() +
+                ", fallbacks=" + fallbackCount.get() +
+                ", sampled=" + sampleCount.get() +
+                ", estimatedSavedBytes=" + getEstimatedSavedBytes() +
+                '}';
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2017, atWare, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *  Neither the name of the atWare, Inc. nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL atWare, Inc. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package jp.co.atware.trial_app.balloon;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 取得に失敗したメディアURLのキャッシュ
+ * <p>
+ * 失敗の種類毎の待機時間を連続した失敗毎に倍にし、待機中は通信せずにプレースホルダーを表示する。
+ * 画像、音声、HTMLの吹き出しで共有する
+ */
+public class NegativeCache {
+
+    private static final int MAX_ENTRY_COUNT = 256;
+    private static final long MAX_DELAY = TimeUnit.HOURS.toMillis(1);
+    private static final int MAX_SHIFT = 16;
+
+    private static volatile NegativeCache INSTANCE = null;
+
+    /**
+     * インスタンスを取得
+     *
+     * @return インスタンス
+     */
+    public static NegativeCache getInstance() {
+        if (INSTANCE == null) {
+            synchronized (NegativeCache.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new NegativeCache();
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * 失敗の種類
+     */
+    public enum Failure {
+        /**
+         * 通信エラー
+         */
+        NETWORK(TimeUnit.SECONDS.toMillis(5)),
+        /**
+         * サーバーエラー(5xx、408、429)
+         */
+        SERVER(TimeUnit.SECONDS.toMillis(30)),
+        /**
+         * クライアントエラー(4xx)
+         */
+        CLIENT(TimeUnit.MINUTES.toMillis(5)),
+        /**
+         * デコードできないデータ
+         */
+        DECODE(TimeUnit.MINUTES.toMillis(10));
+
+        final long baseDelay;
+
+        /**
+         * コンストラクタ
+         *
+         * @param baseDelay 初回の待機時間
+         */
+        Failure(long baseDelay) {
+            this.baseDelay = baseDelay;
+        }
+
+        /**
+         * HTTPステータスコードから失敗の種類を判定
+         *
+         * @param code ステータスコード
+         * @return 失敗の種類
+         */
+        public static Failure ofStatus(int code) {
+            if (code == 408 || code == 429 || 500 <= code) {
+                return SERVER;
+            }
+            return CLIENT;
+        }
+    }
+
+    /**
+     * 失敗の記録
+     */
+    private static class Entry {
+
+        Failure failure;
+        int count;
+        long retryAt;
+    }
+
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return MAX_ENTRY_COUNT < size();
+        }
+    };
+    private final AtomicLong failureCount = new AtomicLong();
+    private final AtomicLong skipCount = new AtomicLong();
+
+    /**
+     * コンストラクタ
+     */
+    NegativeCache() {
+    }
+
+    /**
+     * 取得の失敗を記録
+     *
+     * @param url     URL
+     * @param failure 失敗の種類
+     */
+    public void recordFailure(String url, Failure failure) {
+        recordFailure(url, failure, System.currentTimeMillis());
+    }
+
+    /**
+     * 取得の失敗を記録
+     *
+     * @param url     URL
+     * @param failure 失敗の種類
+     * @param now     現在時刻(エポックミリ秒)
+     * @return 次に取得できるまでの待機時間
+     */
+    synchronized long recordFailure(String url, Failure failure, long now) {
+        failureCount.incrementAndGet();
+        Entry entry = entries.remove(url);
+        if (entry == null) {
+            entry = new Entry();
+        }
+        entry.failure = failure;
+        entry.count++;
+        long delay = Math.min(failure.baseDelay << Math.min(entry.count - 1, MAX_SHIFT), MAX_DELAY);
+        entry.retryAt = now + delay;
+        entries.put(url, entry);
+        return delay;
+    }
+
+    /**
+     * 取得の成功を記録し、失敗の記録を消去
+     *
+     * @param url URL
+     */
+    public synchronized void recordSuccess(String url) {
+        entries.remove(url);
+    }
+
+    /**
+     * 待機中か判定
+     *
+     * @param url URL
+     * @return 待機中の場合にtrue
+     */
+    public boolean isBackingOff(String url) {
+        return isBackingOff(url, System.currentTimeMillis());
+    }
+
+    /**
+     * 待機中か判定
+     * <p>
+     * 待機時間を過ぎた記録は次の失敗で待機時間を倍にするため、成功するまで保持する
+     *
+     * @param url URL
+     * @param now 現在時刻(エポックミリ秒)
+     * @return 待機中の場合にtrue
+     */
+    synchronized boolean isBackingOff(String url, long now) {
+        Entry entry = (url != null) ? entries.get(url) : null;
+        if (entry != null && now < entry.retryAt) {
+            skipCount.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 最後の失敗の種類を取得
+     *
+     * @param url URL
+     * @return 失敗の種類、記録が無い場合はnull
+     */
+    public synchronized Failure getFailure(String url) {
+        Entry entry = entries.get(url);
+        return (entry != null) ? entry.failure : null;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "NegativeCache{" +
+                "entries=" + entries.size() +
+                ", failures=" + failureCount.get() +
+                ", skipped=" + skipCount.get() +
+                '}';
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2017, atWare, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *  Neither the name of the atWare, Inc. nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL atWare, Inc. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package jp.co.atware.trial_app.balloon;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * ByteArrayPoolの配列に書き込む出力ストリーム
+ * <p>
+ * 配列が不足した場合はプールから2倍以上の配列を取得して移し替え、元の配列はプールに返却する。
+ * 使用後は{@link #close()}で配列をプールに返却する
+ */
+public class PooledOutputStream extends OutputStream {
+
+    private static final int DEFAULT_SIZE = 256;
+    private static final byte[] EMPTY = new byte[0];
+
+    private final ByteArrayPool pool;
+    private byte[] buf;
+    private int count = 0;
+
+    /**
+     * コンストラクタ
+     *
+     * @param pool ByteArrayPool
+     * @param size 想定されるデータサイズ
+     */
+    public PooledOutputStream(ByteArrayPool pool, int size) {
+        this.pool = pool;
+        buf = pool.getBuf(Math.max(size, DEFAULT_SIZE));
+    }
+
+    /**
+     * 書き込み先の配列を確保
+     *
+     * @param capacity 必要なサイズ
+     */
+    private void ensureCapacity(int capacity) {
+        if (capacity <= buf.length) {
+            return;
+        }
+        byte[] newBuf = pool.getBuf(Math.max(capacity, buf.length * 2));
+        System.arraycopy(buf, 0, newBuf, 0, count);
+        pool.returnBuf(buf);
+        buf = newBuf;
+    }
+
+    @Override
+    public void write(int oneByte) {
+        ensureCapacity(count + 1);
+        buf[count++] = (byte) oneByte;
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) {
+        ensureCapacity(count + length);
+        System.arraycopy(buffer, offset, buf, count, length);
+        count += length;
+    }
+
+    /**
+     * 入力ストリームの終端まで書き込み先の配列に直接読み込む
+     *
+     * @param input 入力ストリーム
+     * @throws IOException 読み込み失敗
+     */
+    public void readFrom(InputStream input) throws IOException {
+        int length;
+        do {
+            ensureCapacity(count + 1);
+            length = input.read(buf, count, buf.length - count);
+            if (0 < length) {
+                count += length;
+            }
+        } while (length != -1);
+    }
+
+    /**
+     * 書き込んだサイズを取得
+     *
+     * @return バイト数
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * 書き込み先の配列を取得
+     * <p>
+     * 配列はコピーされず、有効なデータは先頭から{@link #size()}バイトまで
+     *
+     * @return 書き込み先の配列
+     */
+    public byte[] getBuffer() {
+        return buf;
+    }
+
+    @Override
+    public void close() {
+        if (buf != EMPTY) {
+            pool.returnBuf(buf);
+            buf = EMPTY;
+            count = 0;
+        }
+    }
+}
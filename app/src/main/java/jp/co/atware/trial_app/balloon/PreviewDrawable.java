@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2017, atWare, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *  Neither the name of the atWare, Inc. nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL atWare, Inc. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package jp.co.atware.trial_app.balloon;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Base64;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * 本来の画像より先に表示する低解像度のDrawable
+ * <p>
+ * 縮小した画像を本来の画像と同じ大きさに引き伸ばして表示する。
+ * ディスクキャッシュに保存した縮小画像と、ダウンロード途中のプログレッシブJPEGから生成する
+ */
+public class PreviewDrawable extends RecycleBitmapDrawable {
+
+    private static final int THUMBNAIL_SIZE = 32;
+    private static final int THUMBNAIL_QUALITY = 60;
+    private static final int PARTIAL_SCALE = 8;
+    private static final String SEPARATOR = ",";
+
+    /**
+     * ディスクキャッシュに保存する縮小画像を生成
+     *
+     * @param bitmap       デコードした画像
+     * @param sourceWidth  元の画像の横幅のPixel数
+     * @param sourceHeight 元の画像の縦幅のPixel数
+     * @return 元の画像サイズとBase64で符号化した縮小画像、生成できない場合は空文字
+     */
+    static String encodeThumbnail(Bitmap bitmap, int sourceWidth, int sourceHeight) {
+        if (bitmap == null || bitmap.isRecycled() || sourceWidth <= 0 || sourceHeight <= 0) {
+            return "";
+        }
+        int longer = Math.max(bitmap.getWidth(), bitmap.getHeight());
+        int width = Math.max(1, bitmap.getWidth() * THUMBNAIL_SIZE / longer);
+        int height = Math.max(1, bitmap.getHeight() * THUMBNAIL_SIZE / longer);
+        Bitmap thumbnail = Bitmap.createScaledBitmap(bitmap, width, height, true);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            if (!thumbnail.compress(Bitmap.CompressFormat.JPEG, THUMBNAIL_QUALITY, out)) {
+                return "";
+            }
+            return sourceWidth + SEPARATOR + sourceHeight + SEPARATOR
+                    + Base64.encodeToString(out.toByteArray(), Base64.NO_WRAP);
+        } finally {
+            if (thumbnail != bitmap) {
+                thumbnail.recycle();
+            }
+        }
+    }
+
+    /**
+     * ディスクキャッシュに保存した縮小画像からDrawableを生成
+     *
+     * @param res     Resource
+     * @param encoded 元の画像サイズとBase64で符号化した縮小画像
+     * @param size    表示サイズ
+     * @return Drawable、縮小画像が無い場合はnull
+     */
+    static PreviewDrawable decodeThumbnail(Resources res, String encoded, TargetSize size) {
+        if (encoded == null || encoded.isEmpty()) {
+            return null;
+        }
+        String[] fields = encoded.split(SEPARATOR, 3);
+        if (fields.length != 3) {
+            return null;
+        }
+        try {
+            int sourceWidth = Integer.parseInt(fields[0]);
+            int sourceHeight = Integer.parseInt(fields[1]);
+            byte[] data = Base64.decode(fields[2], Base64.NO_WRAP);
+            Bitmap bitmap = BitmapFactory.decodeByteArray(data, 0, data.length);
+            if (bitmap == null) {
+                return null;
+            }
+            return new PreviewDrawable(res, bitmap, sourceWidth, sourceHeight,
+                    size.calculateSampleSize(sourceWidth, sourceHeight));
+        } catch (IllegalArgumentException e) {
+            Log.w("PreviewDrawable", "invalid thumbnail.", e);
+            return null;
+        }
+    }
+
+    /**
+     * ダウンロード途中の画像データを大きく縮小してデコード
+     *
+     * @param res          Resource
+     * @param data         画像データ
+     * @param length       読み込み済みのサイズ
+     * @param sourceWidth  元の画像の横幅のPixel数
+     * @param sourceHeight 元の画像の縦幅のPixel数
+     * @param sampleSize   表示サイズに合わせた縮小率
+     * @return Drawable、デコードできない場合はnull
+     */
+    static PreviewDrawable decodePartial(Resources res, byte[] data, int length,
+                                         int sourceWidth, int sourceHeight, int sampleSize) {
+        BitmapFactory.Options opts = new BitmapFactory.Options();
+        opts.inSampleSize = sampleSize * PARTIAL_SCALE;
+        opts.inPreferredConfig = Bitmap.Config.RGB_565;
+        Bitmap bitmap = BitmapFactory.decodeByteArray(data, 0, length, opts);
+        if (bitmap == null) {
+            return null;
+        }
+        return new PreviewDrawable(res, bitmap, sourceWidth, sourceHeight, sampleSize);
+    }
+
+    /**
+     * プログレッシブJPEGか判定
+     * <p>
+     * 画像データの先頭からフレームヘッダーを探す
+     *
+     * @param data   画像データ
+     * @param length 読み込み済みのサイズ
+     * @return プログレッシブJPEGの場合にtrue
+     */
+    static boolean isProgressive(byte[] data, int length) {
+        if (length < 4 || (data[0] & 0xff) != 0xff || (data[1] & 0xff) != 0xd8) {
+            return false;
+        }
+        int offset = 2;
+        while (offset + 3 < length) {
+            if ((data[offset] & 0xff) != 0xff) {
+                return false;
+            }
+            int marker = data[offset + 1] & 0xff;
+            if (marker == 0xff) {
+                // 埋め草のバイトは読み飛ばす
+                offset++;
+                continue;
+            }
+            if (marker == 0xc2) {
+                return true;
+            }
+            if ((0xc0 <= marker && marker <= 0xcf && marker != 0xc4 && marker != 0xc8 && marker != 0xcc)
+                    || marker == 0xda) {
+                // プログレッシブ以外のフレームか、フレームヘッダーより先にスキャンが始まった
+                return false;
+            }
+            offset += 2 + (((data[offset + 2] & 0xff) << 8) | (data[offset + 3] & 0xff));
+        }
+        return false;
+    }
+
+    private final int sourceWidth;
+    private final int sourceHeight;
+    private final int sampleSize;
+
+    /**
+     * コンストラクタ
+     *
+     * @param res          Resource
+     * @param bitmap       縮小画像
+     * @param sourceWidth  元の画像の横幅のPixel数
+     * @param sourceHeight 元の画像の縦幅のPixel数
+     * @param sampleSize   表示サイズに合わせた縮小率
+     */
+    private PreviewDrawable(Resources res, Bitmap bitmap, int sourceWidth, int sourceHeight, int sampleSize) {
+        super(res, bitmap);
+        this.sourceWidth = sourceWidth;
+        this.sourceHeight = sourceHeight;
+        this.sampleSize = sampleSize;
+    }
+
+    /**
+     * 元の画像のPixel数を取得
+     *
+     * @return Pixel数
+     */
+    long getSourcePixels() {
+        return (long) sourceWidth * sourceHeight;
+    }
+
+    @Override
+    public int getIntrinsicWidth() {
+        return sourceWidth / sampleSize;
+    }
+
+    @Override
+    public int getIntrinsicHeight() {
+        return sourceHeight / sampleSize;
+    }
+}
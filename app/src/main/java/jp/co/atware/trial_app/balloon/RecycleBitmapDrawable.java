@@ -30,15 +30,21 @@ package jp.co.atware.trial_app.balloon;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.drawable.BitmapDrawable;
+import android.os.Handler;
+import android.os.Looper;
 
 /**
  * メモリ解放機能を実装したBitmapDrawable
  */
 public class RecycleBitmapDrawable extends BitmapDrawable {
 
+    private static final Handler HANDLER = new Handler(Looper.getMainLooper());
+
     private int cacheCount = 0;
     private int displayCount = 0;
     private boolean hasBeenDisplayed;
+    private boolean released;
+    private boolean releasing;
 
     /**
      * コンストラクタ
@@ -84,14 +90,84 @@ public class RecycleBitmapDrawable extends BitmapDrawable {
         recycle();
     }
 
+    /**
+     * 表示中かどうかを取得
+     *
+     * @return 表示されている場合にtrue
+     */
+    public synchronized boolean isDisplayed() {
+        return 0 < displayCount;
+    }
+
+    /**
+     * 解放されていない場合のみキャッシュフラグをセット
+     *
+     * @return キャッシュフラグをセットした場合にtrue、解放済みの場合はfalse
+     */
+    public synchronized boolean retainCache() {
+        if (released) {
+            return false;
+        }
+        cacheCount++;
+        return true;
+    }
+
+    /**
+     * メモリキャッシュで使用するサイズを取得
+     *
+     * @return バイト数
+     */
+    public int getByteCount() {
+        return getBitmap().getByteCount();
+    }
+
     /**
      * メモリ解放
+     * <p>
+     * メモリキャッシュから取得して表示するまでの間に解放されないよう、
+     * メインスレッドで表示中でもキャッシュ中でもないことを改めて確認してからBitmapPoolに返却する
      */
     private synchronized void recycle() {
-        Bitmap bitmap = null;
-        if (cacheCount <= 0 && displayCount <= 0 && hasBeenDisplayed
-                && (bitmap = getBitmap()) != null && !bitmap.isRecycled()) {
-            bitmap.recycle();
+        if (!releasing && isReleasable()) {
+            releasing = true;
+            HANDLER.post(release);
+        }
+    }
+
+    /**
+     * BitmapをBitmapPoolに返却する処理
+     */
+    private final Runnable release = new Runnable() {
+        @Override
+        public void run() {
+            Bitmap bitmap;
+            synchronized (RecycleBitmapDrawable.this) {
+                releasing = false;
+                if (!isReleasable()) {
+                    return;
+                }
+                released = true;
+                bitmap = getBitmap();
+            }
+            BitmapPool.getInstance().put(bitmap);
+            onReleased();
         }
+    };
+
+    /**
+     * 解放できるか判定
+     *
+     * @return 一度表示された後、表示中でもキャッシュ中でもない場合にtrue
+     */
+    private synchronized boolean isReleasable() {
+        Bitmap bitmap = getBitmap();
+        return cacheCount <= 0 && displayCount <= 0 && hasBeenDisplayed && !released
+                && bitmap != null && !bitmap.isRecycled();
+    }
+
+    /**
+     * メモリ解放時の処理
+     */
+    protected void onReleased() {
     }
 }
@@ -70,6 +70,7 @@ public class RecycleImageView extends AppCompatImageView {
 
     @Override
     protected void onDetachedFromWindow() {
+        ImageAdapter.cancel(this);
         setImageDrawable(null);
         super.onDetachedFromWindow();
     }
@@ -91,7 +92,7 @@ public class RecycleImageView extends AppCompatImageView {
      * @param displayed 表示フラグ
      */
     private void setDisplayed(Drawable drawable, boolean displayed) {
-        if (drawable != null) {
+        if (drawable instanceof RecycleBitmapDrawable) {
             ((RecycleBitmapDrawable) drawable).setDisplayed(displayed);
         }
     }
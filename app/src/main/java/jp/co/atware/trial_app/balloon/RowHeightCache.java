@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2017, atWare, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *  Neither the name of the atWare, Inc. nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL atWare, Inc. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package jp.co.atware.trial_app.balloon;
+
+import java.util.Arrays;
+
+/**
+ * 吹き出し行の計測済み高さキャッシュ
+ * <p>
+ * 吹き出し位置毎に表示内容と横幅を記録し、どちらかが変わった場合は無効とする。
+ * 未計測の行は、同じ表示内容と横幅で計測済みの行の高さから推定する
+ */
+public class RowHeightCache {
+
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int ESTIMATE_SLOTS = 256;
+
+    private int[] contents = new int[INITIAL_CAPACITY];
+    private int[] widths = new int[INITIAL_CAPACITY];
+    private int[] heights = new int[INITIAL_CAPACITY];
+    private final int[] estimateContents = new int[ESTIMATE_SLOTS];
+    private final int[] estimateWidths = new int[ESTIMATE_SLOTS];
+    private final int[] estimateHeights = new int[ESTIMATE_SLOTS];
+
+    /**
+     * 吹き出しの表示内容を表すキーを取得
+     *
+     * @param balloon 吹き出し
+     * @return 表示内容のキー
+     */
+    public static int contentKey(Balloon balloon) {
+        int result = balloon.type.ordinal();
+        result = 31 * result + (balloon.payloads != null ? balloon.payloads.hashCode() : 0);
+        return result;
+    }
+
+    /**
+     * 計測済みの高さを取得
+     *
+     * @param position 吹き出し位置
+     * @param content  表示内容のキー
+     * @param width    行の横幅
+     * @return 計測済みの高さ、未計測または無効の場合は0
+     */
+    public synchronized int get(int position, int content, int width) {
+        if (position < 0 || heights.length <= position) {
+            return 0;
+        }
+        if (contents[position] != content || widths[position] != width) {
+            return 0;
+        }
+        return heights[position];
+    }
+
+    /**
+     * 同じ表示内容と横幅で計測済みの高さを取得
+     * <p>
+     * 表示内容のキー毎に最後に計測した高さのみを保持するため、キーが衝突した場合は0を返す
+     *
+     * @param content 表示内容のキー
+     * @param width   行の横幅
+     * @return 推定した高さ、該当する計測結果が無い場合は0
+     */
+    public synchronized int estimate(int content, int width) {
+        int slot = content & (ESTIMATE_SLOTS - 1);
+        if (estimateContents[slot] != content || estimateWidths[slot] != width) {
+            return 0;
+        }
+        return estimateHeights[slot];
+    }
+
+    /**
+     * 計測した高さを記録
+     *
+     * @param position 吹き出し位置
+     * @param content  表示内容のキー
+     * @param width    行の横幅
+     * @param height   行の高さ
+     */
+    public synchronized void put(int position, int content, int width, int height) {
+        if (position < 0) {
+            return;
+        }
+        if (heights.length <= position) {
+            int capacity = Math.max(position + 1, heights.length * 2);
+            contents = Arrays.copyOf(contents, capacity);
+            widths = Arrays.copyOf(widths, capacity);
+            heights = Arrays.copyOf(heights, capacity);
+        }
+        contents[position] = content;
+        widths[position] = width;
+        heights[position] = height;
+        int slot = content & (ESTIMATE_SLOTS - 1);
+        estimateContents[slot] = content;
+        estimateWidths[slot] = width;
+        estimateHeights[slot] = height;
+    }
+
+    /**
+     * 全ての計測結果を無効化
+     */
+    public synchronized void clear() {
+        Arrays.fill(heights, 0);
+        Arrays.fill(estimateHeights, 0);
+    }
+}
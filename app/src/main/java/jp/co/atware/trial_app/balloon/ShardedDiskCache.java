@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2017, atWare, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *  Neither the name of the atWare, Inc. nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL atWare, Inc. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package jp.co.atware.trial_app.balloon;
+
+import com.jakewharton.disklrucache.DiskLruCache;
+import com.jakewharton.disklrucache.DiskLruCache.Editor;
+import com.jakewharton.disklrucache.DiskLruCache.Snapshot;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * キーのハッシュ値で複数のDiskLruCacheに分割したディスクキャッシュ
+ * <p>
+ * DiskLruCacheは読み込みと書き込みを1つのロックと1つのジャーナルで直列化するため、
+ * シャード毎に独立したディレクトリとジャーナルを持たせて並行に読み書きできるようにする。
+ * <p>
+ * 各シャードの上限は全体の上限を等分したサイズとし、書き込み時に他のシャードを参照せずに古いエントリを削除する。
+ * キーはシャードに一様に分散するため、削除されるエントリはおおよそ全体で最も古いものになり、
+ * 使用量の合計は全体の上限を超えない
+ */
+public class ShardedDiskCache implements Closeable {
+
+    private static final String JOURNAL_FILE = "journal";
+
+    /**
+     * ディスクキャッシュを開く
+     * <p>
+     * 分割前の単一のディスクキャッシュが残っている場合は削除する
+     *
+     * @param directory  ディレクトリ
+     * @param appVersion アプリケーションのバージョン
+     * @param valueCount エントリ毎の値の数
+     * @param maxSize    全体の最大バイト数
+     * @param shardCount シャード数
+     * @return ディスクキャッシュ
+     * @throws IOException ディスクキャッシュを開けない場合
+     */
+    public static ShardedDiskCache open(File directory, int appVersion, int valueCount, long maxSize,
+                                        int shardCount) throws IOException {
+        if (new File(directory, JOURNAL_FILE).exists()) {
+            DiskLruCache.open(directory, appVersion, valueCount, maxSize).delete();
+        }
+        DiskLruCache[] shards = new DiskLruCache[shardCount];
+        try {
+            for (int i = 0; i < shardCount; i++) {
+                shards[i] = DiskLruCache.open(new File(directory, String.valueOf(i)), appVersion, valueCount,
+                        maxSize / shardCount);
+            }
+        } catch (IOException e) {
+            for (DiskLruCache shard : shards) {
+                if (shard != null) {
+                    shard.close();
+                }
+            }
+            throw e;
+        }
+        return new ShardedDiskCache(directory, shards, maxSize);
+    }
+
+    private final File directory;
+    private final DiskLruCache[] shards;
+    private volatile long maxSize;
+
+    /**
+     * コンストラクタ
+     *
+     * @param directory ディレクトリ
+     * @param shards    シャード
+     * @param maxSize   全体の最大バイト数
+     */
+    private ShardedDiskCache(File directory, DiskLruCache[] shards, long maxSize) {
+        this.directory = directory;
+        this.shards = shards;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * キーを格納するシャードを取得
+     *
+     * @param key キー
+     * @return シャード
+     */
+    private DiskLruCache shardOf(String key) {
+        return shards[(key.hashCode() & Integer.MAX_VALUE) % shards.length];
+    }
+
+    /**
+     * エントリを取得
+     *
+     * @param key キー
+     * @return Snapshot、エントリが無い場合はnull
+     * @throws IOException 読み込み失敗
+     */
+    public Snapshot get(String key) throws IOException {
+        return shardOf(key).get(key);
+    }
+
+    /**
+     * エントリの書き込みを開始
+     *
+     * @param key キー
+     * @return Editor、他の書き込み中の場合はnull
+     * @throws IOException 書き込み開始失敗
+     */
+    public Editor edit(String key) throws IOException {
+        return shardOf(key).edit(key);
+    }
+
+    /**
+     * エントリを削除
+     *
+     * @param key キー
+     * @return 削除した場合にtrue
+     * @throws IOException 削除失敗
+     */
+    public boolean remove(String key) throws IOException {
+        return shardOf(key).remove(key);
+    }
+
+    /**
+     * 全てのシャードの使用量の合計を取得
+     *
+     * @return バイト数
+     */
+    public long size() {
+        long size = 0;
+        for (DiskLruCache shard : shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    /**
+     * 全体の最大バイト数を取得
+     *
+     * @return バイト数
+     */
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * 全体の最大バイト数を変更
+     * <p>
+     * 小さくした場合は各シャードで超過分の古いエントリを削除する
+     *
+     * @param maxSize 全体の最大バイト数
+     */
+    public void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+        for (DiskLruCache shard : shards) {
+            shard.setMaxSize(maxSize / shards.length);
+        }
+    }
+
+    /**
+     * ディレクトリを取得
+     *
+     * @return ディレクトリ
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * 閉じているか判定
+     *
+     * @return 閉じている場合にtrue
+     */
+    public boolean isClosed() {
+        return shards[0].isClosed();
+    }
+
+    /**
+     * 全てのシャードのジャーナルを書き出し、上限を超えたエントリを削除
+     *
+     * @throws IOException 書き込み失敗
+     */
+    public void flush() throws IOException {
+        for (DiskLruCache shard : shards) {
+            shard.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException error = null;
+        for (DiskLruCache shard : shards) {
+            try {
+                shard.close();
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * 閉じて全てのエントリを削除
+     *
+     * @throws IOException 削除失敗
+     */
+    public void delete() throws IOException {
+        for (DiskLruCache shard : shards) {
+            shard.delete();
+        }
+        directory.delete();
+    }
+}
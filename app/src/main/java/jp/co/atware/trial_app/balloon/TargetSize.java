@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2017, atWare, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *  Neither the name of the atWare, Inc. nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL atWare, Inc. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package jp.co.atware.trial_app.balloon;
+
+/**
+ * 画像の表示サイズ
+ * <p>
+ * 表示する横幅と縦幅の上限をバケット単位に切り上げて保持し、キャッシュのキーとデコードの縮小率に使用する
+ */
+public final class TargetSize {
+
+    private static final int BUCKET_STEP = 64;
+
+    public final int width;
+    public final int height;
+
+    /**
+     * 表示サイズを生成
+     *
+     * @param width     表示する横幅のPixel数
+     * @param maxHeight 表示する縦幅の上限のPixel数、上限が無い場合は0
+     * @return 表示サイズ
+     */
+    public static TargetSize of(int width, int maxHeight) {
+        return new TargetSize(roundUp(width), (0 < maxHeight) ? roundUp(maxHeight) : 0);
+    }
+
+    /**
+     * バケット単位に切り上げ
+     *
+     * @param size Pixel数
+     * @return 切り上げたPixel数
+     */
+    private static int roundUp(int size) {
+        return Math.max(1, (size + BUCKET_STEP - 1) / BUCKET_STEP) * BUCKET_STEP;
+    }
+
+    /**
+     * コンストラクタ
+     *
+     * @param width  横幅のPixel数
+     * @param height 縦幅の上限のPixel数、上限が無い場合は0
+     */
+    private TargetSize(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * キャッシュのキーに付加する文字列を取得
+     *
+     * @return 文字列
+     */
+    public String getKey() {
+        return width + "x" + height;
+    }
+
+    /**
+     * 指定した表示サイズを包含するか判定
+     * <p>
+     * 包含する表示サイズの画像は縮小して指定した表示サイズに使用できる
+     *
+     * @param other 表示サイズ
+     * @return 横幅と縦幅の上限がどちらも指定した表示サイズ以上の場合にtrue
+     */
+    public boolean contains(TargetSize other) {
+        if (other.width > width) {
+            return false;
+        }
+        return height == 0 || (other.height != 0 && other.height <= height);
+    }
+
+    /**
+     * 表示サイズに合わせた縮小率を計算
+     * <p>
+     * 表示サイズに収まるよう縮小した大きさを下回らない範囲で、最大の2の累乗を返す
+     *
+     * @param sourceWidth  画像の横幅のPixel数
+     * @param sourceHeight 画像の縦幅のPixel数
+     * @return BitmapFactory.Options#inSampleSizeに指定する縮小率
+     */
+    public int calculateSampleSize(int sourceWidth, int sourceHeight) {
+        float ratio = (float) sourceWidth / width;
+        if (0 < height) {
+            ratio = Math.max(ratio, (float) sourceHeight / height);
+        }
+        int sampleSize = 1;
+        int scale = (int) Math.floor(ratio);
+        if (2 < scale) {
+            for (int i = 2; i <= scale; i *= 2) {
+                sampleSize = i;
+            }
+        }
+        return sampleSize;
+    }
+
+    /**
+     * 画像を表示サイズに収めた大きさを計算
+     *
+     * @param imageWidth  画像の横幅のPixel数
+     * @param imageHeight 画像の縦幅のPixel数
+     * @return 横幅と縦幅、表示サイズに収まっている場合は画像の大きさ
+     */
+    public int[] fit(int imageWidth, int imageHeight) {
+        float scale = (float) width / imageWidth;
+        if (0 < height) {
+            scale = Math.min(scale, (float) height / imageHeight);
+        }
+        if (1 <= scale) {
+            return new int[]{imageWidth, imageHeight};
+        }
+        return new int[]{Math.max(1, Math.round(imageWidth * scale)), Math.max(1, Math.round(imageHeight * scale))};
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof TargetSize)) {
+            return false;
+        }
+        TargetSize other = (TargetSize) o;
+        return width == other.width && height == other.height;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * width + height;
+    }
+
+    @Override
+    public String toString() {
+        return getKey();
+    }
+}
@@ -0,0 +1,341 @@
+/*
+ * Copyright (c) 2017, atWare, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *  Neither the name of the atWare, Inc. nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL atWare, Inc. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package jp.co.atware.trial_app.balloon;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 巨大な画像を領域毎にデコードして表示するDrawable
+ * <p>
+ * 全体は縮小したプレビューで表示し、表示中の領域だけを横幅いっぱいの帯に分けて表示サイズの解像度でデコードする。
+ * デコードした帯は一定数までキャッシュし、表示に使われた帯は描画中の可能性があるため再利用せずに解放する
+ */
+public class TiledBitmapDrawable extends RecycleBitmapDrawable {
+
+    private static final String TAG = "TiledBitmapDrawable";
+    private static final int TILE_THRESHOLD = 4 * 1024 * 1024;
+    private static final int TILE_HEIGHT = 256;
+    private static final int MAX_TILE_COUNT = 12;
+    private static final int PREVIEW_SCALE = 8;
+    private static final int BYTES_PER_PIXEL = 2;
+    private static final long KEEP_ALIVE = 30;
+
+    private static final ThreadPoolExecutor EXECUTOR = createExecutor();
+
+    /**
+     * 帯のデコード用スレッドプールを生成
+     *
+     * @return スレッドプール
+     */
+    private static ThreadPoolExecutor createExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, KEEP_ALIVE, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "image-tile");
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * 領域毎にデコードするか判定
+     *
+     * @param sourceWidth  画像の横幅のPixel数
+     * @param sourceHeight 画像の縦幅のPixel数
+     * @param sampleSize   表示サイズに合わせた縮小率
+     * @return 縮小してもBitmapが閾値を超える場合にtrue
+     */
+    static boolean shouldTile(int sourceWidth, int sourceHeight, int sampleSize) {
+        if (sourceWidth <= 0 || sourceHeight <= 0) {
+            return false;
+        }
+        long bytes = (long) (sourceWidth / sampleSize) * (sourceHeight / sampleSize) * BYTES_PER_PIXEL;
+        return TILE_THRESHOLD < bytes;
+    }
+
+    /**
+     * プレビューのバイト数を見積もる
+     *
+     * @param sourceWidth  画像の横幅のPixel数
+     * @param sourceHeight 画像の縦幅のPixel数
+     * @param sampleSize   表示サイズに合わせた縮小率
+     * @return バイト数
+     */
+    static long estimatePreview(int sourceWidth, int sourceHeight, int sampleSize) {
+        return DecodeBudget.estimate(sourceWidth, sourceHeight, sampleSize * PREVIEW_SCALE);
+    }
+
+    /**
+     * 画像データからDrawableを生成
+     *
+     * @param res          Resource
+     * @param in           画像データ
+     * @param length       画像データのサイズ
+     * @param sourceWidth  画像の横幅のPixel数
+     * @param sourceHeight 画像の縦幅のPixel数
+     * @param sampleSize   表示サイズに合わせた縮小率
+     * @return Drawable、デコードできない場合はnull
+     * @throws IOException 画像データの読み込み失敗
+     */
+    static TiledBitmapDrawable create(Resources res, InputStream in, int length,
+                                      int sourceWidth, int sourceHeight, int sampleSize) throws IOException {
+        // 画像データは呼び出し元のバッファを共有せずにコピーして保持する
+        BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(in, false);
+        BitmapFactory.Options opts = new BitmapFactory.Options();
+        opts.inSampleSize = sampleSize * PREVIEW_SCALE;
+        opts.inPreferredConfig = Bitmap.Config.RGB_565;
+        Bitmap preview = decoder.decodeRegion(new Rect(0, 0, sourceWidth, sourceHeight), opts);
+        if (preview == null) {
+            decoder.recycle();
+            return null;
+        }
+        return new TiledBitmapDrawable(res, preview, decoder, length, sourceWidth, sourceHeight, sampleSize);
+    }
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final BitmapRegionDecoder decoder;
+    private final int dataLength;
+    private final int sourceWidth;
+    private final int sourceHeight;
+    private final int sampleSize;
+    private final int tileSourceHeight;
+    private final Set<Integer> pending = new HashSet<>();
+    private final Rect clip = new Rect();
+    private final Rect dst = new Rect();
+    private final RectF visible = new RectF();
+    private final Matrix inverse = new Matrix();
+    private final LruCache<Integer, Bitmap> tiles = new LruCache<>(MAX_TILE_COUNT);
+    private volatile int firstVisible;
+    private volatile int lastVisible = -1;
+    private volatile boolean closed;
+
+    /**
+     * コンストラクタ
+     *
+     * @param res          Resource
+     * @param preview      縮小したプレビュー
+     * @param decoder      領域毎のデコーダー
+     * @param dataLength   画像データのサイズ
+     * @param sourceWidth  画像の横幅のPixel数
+     * @param sourceHeight 画像の縦幅のPixel数
+     * @param sampleSize   表示サイズに合わせた縮小率
+     */
+    private TiledBitmapDrawable(Resources res, Bitmap preview, BitmapRegionDecoder decoder, int dataLength,
+                                int sourceWidth, int sourceHeight, int sampleSize) {
+        super(res, preview);
+        this.decoder = decoder;
+        this.dataLength = dataLength;
+        this.sourceWidth = sourceWidth;
+        this.sourceHeight = sourceHeight;
+        this.sampleSize = sampleSize;
+        this.tileSourceHeight = TILE_HEIGHT * sampleSize;
+    }
+
+    @Override
+    public int getIntrinsicWidth() {
+        return sourceWidth / sampleSize;
+    }
+
+    @Override
+    public int getIntrinsicHeight() {
+        return sourceHeight / sampleSize;
+    }
+
+    @Override
+    public int getByteCount() {
+        // 保持する画像データと帯のキャッシュの上限を含める
+        return super.getByteCount() + dataLength
+                + MAX_TILE_COUNT * (sourceWidth / sampleSize) * TILE_HEIGHT * BYTES_PER_PIXEL;
+    }
+
+    @Override
+    public void draw(Canvas canvas) {
+        super.draw(canvas);
+        Rect bounds = getBounds();
+        if (closed || bounds.isEmpty() || !getVisibleBounds(canvas, clip) || !clip.intersect(bounds)) {
+            return;
+        }
+        float scale = (float) bounds.height() / sourceHeight;
+        int last = (sourceHeight - 1) / tileSourceHeight;
+        int first = Math.max(0, (int) ((clip.top - bounds.top) / scale) / tileSourceHeight);
+        // キャッシュできる数を超える帯は要求せずプレビューのまま表示
+        int end = Math.min(Math.min(last, first + MAX_TILE_COUNT - 1),
+                (int) ((clip.bottom - bounds.top) / scale) / tileSourceHeight);
+        firstVisible = first;
+        lastVisible = end;
+        for (int i = first; i <= end; i++) {
+            Bitmap tile = tiles.get(i);
+            if (tile != null) {
+                int top = i * tileSourceHeight;
+                int bottom = Math.min(top + tileSourceHeight, sourceHeight);
+                dst.set(bounds.left, bounds.top + Math.round(top * scale),
+                        bounds.right, bounds.top + Math.round(bottom * scale));
+                canvas.drawBitmap(tile, null, dst, getPaint());
+            } else {
+                request(i);
+            }
+        }
+    }
+
+    /**
+     * 画面に表示されている範囲をDrawableの座標で取得
+     * <p>
+     * ハードウェアアクセラレーションではCanvasのクリップ範囲がView全体になるため、
+     * 表示先のImageViewが画面に表示されている範囲から求める
+     *
+     * @param canvas Canvas
+     * @param out    表示範囲の格納先
+     * @return 表示されている場合にtrue
+     */
+    private boolean getVisibleBounds(Canvas canvas, Rect out) {
+        if (!(getCallback() instanceof ImageView)) {
+            return canvas.getClipBounds(out);
+        }
+        ImageView view = (ImageView) getCallback();
+        if (!view.getLocalVisibleRect(out) || !view.getImageMatrix().invert(inverse)) {
+            return false;
+        }
+        visible.set(out);
+        visible.offset(-view.getPaddingLeft(), -view.getPaddingTop());
+        inverse.mapRect(visible);
+        visible.roundOut(out);
+        return true;
+    }
+
+    /**
+     * 帯のデコードを要求
+     *
+     * @param index 帯の番号
+     */
+    private void request(final int index) {
+        synchronized (pending) {
+            if (!pending.add(index)) {
+                return;
+            }
+        }
+        EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                Bitmap tile = null;
+                // スクロールして表示範囲から外れた帯はデコードしない
+                if (!closed && firstVisible - 1 <= index && index <= lastVisible + 1) {
+                    tile = decodeTile(index);
+                }
+                final Bitmap decoded = tile;
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        synchronized (pending) {
+                            pending.remove(index);
+                        }
+                        if (decoded == null) {
+                            return;
+                        }
+                        if (closed || index < firstVisible - 1 || lastVisible + 1 < index) {
+                            // 表示に使われていない帯は再利用できる
+                            BitmapPool.getInstance().put(decoded);
+                        } else {
+                            tiles.put(index, decoded);
+                            invalidateSelf();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * 帯をデコード
+     *
+     * @param index 帯の番号
+     * @return Bitmap、デコードできない場合はnull
+     */
+    private Bitmap decodeTile(int index) {
+        int top = index * tileSourceHeight;
+        Rect region = new Rect(0, top, sourceWidth, Math.min(top + tileSourceHeight, sourceHeight));
+        BitmapFactory.Options opts = new BitmapFactory.Options();
+        opts.inSampleSize = sampleSize;
+        opts.inPreferredConfig = Bitmap.Config.RGB_565;
+        long bytes = DecodeBudget.estimate(region.width(), region.height(), sampleSize);
+        DecodeBudget budget = DecodeBudget.getInstance();
+        if (!budget.acquire(bytes, 0)) {
+            return null;
+        }
+        BitmapPool.getInstance().setInBitmap(opts, region.width(), region.height());
+        try {
+            try {
+                return decoder.decodeRegion(region, opts);
+            } catch (IllegalArgumentException e) {
+                // 再利用するBitmapに格納できない場合は新しく確保してデコード
+                BitmapPool.getInstance().put(opts.inBitmap);
+                opts.inBitmap = null;
+                return decoder.decodeRegion(region, opts);
+            }
+        } catch (IllegalStateException e) {
+            // 解放済みのデコーダー
+            return null;
+        } catch (Exception e) {
+            Log.w(TAG, "unable to decode tile.", e);
+            return null;
+        } finally {
+            budget.release(bytes);
+        }
+    }
+
+    @Override
+    protected void onReleased() {
+        closed = true;
+        tiles.evictAll();
+        decoder.recycle();
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2017, atWare, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *  Neither the name of the atWare, Inc. nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL atWare, Inc. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package jp.co.atware.trial_app.balloon;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.webkit.WebView;
+
+import java.io.File;
+
+import jp.co.atware.trial_app.chat.ChatApplication;
+import jp.co.atware.trial_app.util.CacheQuota;
+
+/**
+ * WebViewのディスクキャッシュの容量管理
+ * <p>
+ * WebViewのキャッシュのヒットは取得できないため、全体の一定割合を固定で割り当てる。
+ * WebViewはキャッシュの容量を指定できないが、独自の上限で古いエントリを削除するため、
+ * 割り当てを超えた場合のみ最後の手段としてキャッシュを削除する
+ */
+public class WebViewCache {
+
+    private static final String QUOTA_NAME = "html";
+    private static final String CACHE_DIR = "org.chromium.android_webview";
+    private static final int QUOTA_RATIO = 4;
+
+    private static volatile WebViewCache INSTANCE = null;
+
+    /**
+     * Singletonインスタンスを取得
+     *
+     * @return インスタンス
+     */
+    public static WebViewCache getInstance() {
+        if (INSTANCE == null) {
+            synchronized (WebViewCache.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new WebViewCache();
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final File directory;
+
+    /**
+     * コンストラクタ
+     */
+    private WebViewCache() {
+        final Context context = ChatApplication.getInstance().getApplicationContext();
+        directory = new File(context.getCacheDir(), CACHE_DIR);
+        CacheQuota.getInstance().registerFixed(QUOTA_NAME, context.getCacheDir(), new CacheQuota.Client() {
+            @Override
+            public long getUsage() {
+                return sizeOf(directory);
+            }
+
+            @Override
+            public void setQuota(long quota) {
+                // 配分の計算中にWebViewが書き込んだ分も含めるため、改めて使用量を取得する
+                if (quota < sizeOf(directory)) {
+                    handler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            WebView webView = new WebView(context);
+                            webView.clearCache(true);
+                            webView.destroy();
+                        }
+                    });
+                }
+            }
+        }, QUOTA_RATIO);
+    }
+
+    /**
+     * ディレクトリ以下のファイルサイズの合計を取得
+     *
+     * @param file ファイルまたはディレクトリ
+     * @return バイト数
+     */
+    private static long sizeOf(File file) {
+        File[] children = file.listFiles();
+        if (children == null) {
+            return file.length();
+        }
+        long size = 0;
+        for (File child : children) {
+            size += sizeOf(child);
+        }
+        return size;
+    }
+}
@@ -30,6 +30,7 @@ package jp.co.atware.trial_app.chat;
 import android.app.Application;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothProfile;
+import android.content.res.Configuration;
 import android.graphics.Color;
 import android.os.Build;
 import android.os.Handler;
@@ -37,7 +38,6 @@ import android.os.Looper;
 import android.support.v4.app.FragmentTransaction;
 import android.util.Log;
 import android.view.ViewConfiguration;
-import android.webkit.WebView;
 import android.widget.ListView;
 
 import com.nttdocomo.flow.EventHandler;
@@ -46,29 +46,47 @@ import com.nttdocomo.speak.Speak;
 import com.nttdocomo.speak.Speak.OnConnectedWithHFP;
 import com.nttdocomo.speak.util.NluMetaData;
 
-import java.util.ArrayList;
+import java.io.File;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.LinkedList;
-import java.util.List;
 import java.util.Map;
 import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
+import jp.co.atware.trial_app.BuildConfig;
 import jp.co.atware.trial_app.MainActivity;
 import jp.co.atware.trial_app.R;
 import jp.co.atware.trial_app.balloon.AudioAdapter;
 import jp.co.atware.trial_app.balloon.Balloon;
+import jp.co.atware.trial_app.balloon.Balloon.Action;
 import jp.co.atware.trial_app.balloon.BalloonAdapter;
+import jp.co.atware.trial_app.balloon.BitmapPool;
+import jp.co.atware.trial_app.balloon.DecodeBudget;
+import jp.co.atware.trial_app.balloon.ImageCache;
+import jp.co.atware.trial_app.balloon.ImageLoader;
+import jp.co.atware.trial_app.balloon.ImageUrlRewriter;
+import jp.co.atware.trial_app.balloon.NegativeCache;
+import jp.co.atware.trial_app.balloon.WebViewCache;
 import jp.co.atware.trial_app.chat.ChatController.ChatMode;
 import jp.co.atware.trial_app.chat.ChatController.ChatStatus;
 import jp.co.atware.trial_app.fragment.UserDashboard;
+import jp.co.atware.trial_app.history.BalloonCodec;
+import jp.co.atware.trial_app.history.BalloonHistory;
+import jp.co.atware.trial_app.history.BalloonSearchIndex;
+import jp.co.atware.trial_app.history.ConversationLog;
 import jp.co.atware.trial_app.metadata.DeviceInfo;
 import jp.co.atware.trial_app.metadata.DeviceInfo.PlayTTS;
 import jp.co.atware.trial_app.metadata.MetaData;
 import jp.co.atware.trial_app.metadata.MetaDataParser;
 import jp.co.atware.trial_app.metadata.Postback;
 import jp.co.atware.trial_app.metadata.SwitchAgent.AgentType;
+import jp.co.atware.trial_app.util.CacheQuota;
 import jp.co.atware.trial_app.util.Config;
+import jp.co.atware.trial_app.util.HttpClient;
 
 /**
  * 対話アプリ
@@ -76,6 +94,13 @@ import jp.co.atware.trial_app.util.Config;
 public class ChatApplication extends Application {
 
     private static final float SCROLL_WEIGHT = 2f;
+    private static final int MAX_BALLOON_COUNT = 200;
+    private static final long MAX_BALLOON_BYTES = 16 * 1024 * 1024;
+    private static final String HISTORY_DIR = "history";
+    private static final int RESTORE_COUNT = 20;
+    private static final int MAX_HISTORY_COUNT = 5000;
+    private static final long HISTORY_CLOSE_TIMEOUT = 200;
+    private static final int MAX_SEARCH_RESULTS = 100;
     private static final DeviceInfo TTS_ON = new DeviceInfo(Build.MODEL, PlayTTS.ON);
     private static final DeviceInfo TTS_OFF = new DeviceInfo(Build.MODEL, PlayTTS.OFF);
 
@@ -91,8 +116,9 @@ public class ChatApplication extends Application {
     }
 
     private final Speak sdk = new Speak();
-    private final List<Balloon> balloonList = new ArrayList<>();
+    private final BalloonHistory balloonList = new BalloonHistory(MAX_BALLOON_COUNT, MAX_BALLOON_BYTES);
     private final BalloonAdapter balloonAdapter = new BalloonAdapter(balloonList);
+    private final BalloonSearchIndex searchIndex = new BalloonSearchIndex();
     private final AudioAdapter audioAdapter = AudioAdapter.getInstance();
     private final ChatController chat = ChatController.getInstance();
     private final MetaDataParser parser = new MetaDataParser();
@@ -100,8 +126,10 @@ public class ChatApplication extends Application {
     private final AtomicReference<Postback> postBackAfterUtt = new AtomicReference<>();
     private final Queue<Balloon> playAfterUtt = new LinkedList<>();
     private final Handler handler = new Handler(Looper.getMainLooper());
+    private ExecutorService historyWriter;
 
     private ListView chatView;
+    private ConversationLog history;
 
     @Override
     public void onCreate() {
@@ -109,18 +137,45 @@ public class ChatApplication extends Application {
         INSTANCE = this;
     }
 
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+        super.onConfigurationChanged(newConfig);
+        // 文字サイズ等の変更で行の高さが変わるため計測結果を破棄
+        balloonAdapter.clearRowHeights();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        // メモリ不足の度合いに応じて画像のメモリキャッシュを縮小
+        ImageCache.getInstance().trimMemory(level);
+        BitmapPool.getInstance().trimMemory(level);
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        onTrimMemory(TRIM_MEMORY_COMPLETE);
+    }
+
     /**
      * 初期化
      *
      * @param activity 対話アプリのMainActivity
      */
     public void init(final MainActivity activity) {
-        // WebViewキャッシュの削除
-        new WebView(activity).clearCache(true);
+        // メディアのディスクキャッシュを登録して容量を配分(画像のキャッシュはWebViewの固定の割り当てを除いて開く)
+        WebViewCache.getInstance();
+        ImageCache.getInstance();
+        CacheQuota.getInstance().rebalance();
+        ImageUrlRewriter.getInstance().setRules(Config.getInstance().getImageResize());
+        balloonList.setOnEvictListener(balloonAdapter);
         chatView = (ListView) activity.findViewById(R.id.chat_area);
         chatView.setOnScrollListener(balloonAdapter);
+        chatView.setRecyclerListener(balloonAdapter);
         chatView.setAdapter(balloonAdapter);
         chatView.setFriction(ViewConfiguration.getScrollFriction() * SCROLL_WEIGHT);
+        restoreHistory();
         chat.init(activity);
         sdk.set("EnableOCSP", true);
         sdk.set("OutputGain", 1.00);
@@ -202,6 +257,71 @@ public class ChatApplication extends Application {
     }
 
 
+    /**
+     * 前回までの対話履歴から最後の一画面分の吹き出しを復元
+     */
+    private void restoreHistory() {
+        if (history != null) {
+            return;
+        }
+        // 終了時に停止したスレッドは再利用できないため開く度に作り直す
+        historyWriter = Executors.newSingleThreadExecutor();
+        try {
+            history = new ConversationLog(new File(getFilesDir(), HISTORY_DIR));
+            // 開き直した場合は表示中の吹き出しが残っているため復元しない
+            int restore = balloonList.isEmpty() ? RESTORE_COUNT : 0;
+            for (Balloon balloon : history.readLast(restore)) {
+                balloon.position = balloonList.size();
+                balloon.action = Action.DO_NOTHING;
+                balloonList.add(balloon);
+                searchIndex.add(balloon.position, balloon);
+            }
+            if (!balloonList.isEmpty()) {
+                balloonAdapter.notifyDataSetChanged();
+                chatView.setSelection(balloonList.size());
+            }
+        } catch (Exception e) {
+            Log.w("ChatApplication", "unable to restore history.", e);
+            return;
+        }
+        if (MAX_HISTORY_COUNT < history.size()) {
+            final ConversationLog log = history;
+            historyWriter.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        log.compact(MAX_HISTORY_COUNT / 2);
+                    } catch (IOException e) {
+                        Log.w("ChatApplication", "unable to compact history.", e);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * 吹き出しを対話履歴に追記
+     *
+     * @param balloon 吹き出し
+     */
+    private void writeHistory(Balloon balloon) {
+        if (history == null) {
+            return;
+        }
+        final ConversationLog log = history;
+        final byte[] record = BalloonCodec.encode(balloon);
+        historyWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    log.append(record);
+                } catch (IOException e) {
+                    Log.w("ChatApplication", "unable to write history.", e);
+                }
+            }
+        });
+    }
+
     /**
      * HFPが有効化された時に音声対話を開始
      *
@@ -231,6 +351,25 @@ public class ChatApplication extends Application {
             chat.stopText();
         }
         audioAdapter.pause();
+        // 利用状況に合わせて容量を配分し直す
+        CacheQuota.getInstance().rebalance();
+        if (BuildConfig.DEBUG) {
+            reportMetrics();
+        }
+    }
+
+    /**
+     * 画像読み込みと通信の計測結果をログに出力(デバッグビルドのみ)
+     */
+    private static void reportMetrics() {
+        Log.d("ImageLoader", ImageLoader.getInstance().getMetrics().toString());
+        Log.d("ImageCache", ImageCache.getInstance().getStats().toString());
+        Log.d("BitmapPool", BitmapPool.getInstance().toString());
+        Log.d("DecodeBudget", DecodeBudget.getInstance().toString());
+        Log.d("HttpClient", HttpClient.getInstance().getMetrics().toString());
+        Log.d("NegativeCache", NegativeCache.getInstance().toString());
+        Log.d("ImageUrlRewriter", ImageUrlRewriter.getInstance().toString());
+        Log.d("CacheQuota", CacheQuota.getInstance().toString());
     }
 
     /**
@@ -241,6 +380,35 @@ public class ChatApplication extends Application {
         audioAdapter.destroy();
         chat.destroy();
         chatView = null;
+        balloonAdapter.releaseViews();
+        closeHistory();
+    }
+
+    /**
+     * 書き込み待ちの対話履歴を反映して閉じる
+     */
+    private void closeHistory() {
+        if (history == null) {
+            return;
+        }
+        // 閉じた後に追加された吹き出しは書き込まない
+        final ConversationLog log = history;
+        history = null;
+        historyWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    log.close();
+                } catch (IOException e) {
+                    Log.w("ChatApplication", "unable to close history.", e);
+                }
+            }
+        });
+        historyWriter.shutdown();
+        try {
+            historyWriter.awaitTermination(HISTORY_CLOSE_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ignored) {
+        }
     }
 
     /**
@@ -306,15 +474,54 @@ public class ChatApplication extends Application {
      */
     public void show(Balloon balloon) {
         balloonList.add(balloon);
+        searchIndex.add(balloonList.size() - 1, balloon);
+        writeHistory(balloon);
         balloonAdapter.notifyDataSetChanged();
         scrollDown();
     }
 
+    /**
+     * 表示中の吹き出しを検索
+     *
+     * @param query 検索文字列、末尾が*の場合は前方一致
+     * @return 一致した吹き出し位置(新しい順)
+     */
+    public int[] search(String query) {
+        return searchIndex.search(query, MAX_SEARCH_RESULTS);
+    }
+
+    /**
+     * 吹き出し位置までスクロール
+     *
+     * @param position 吹き出し位置
+     */
+    public void jumpTo(int position) {
+        chatView.setSelection(position);
+    }
+
     /**
      * 最下部までスクロール
      */
     public synchronized void scrollDown() {
-        chatView.setSelection(balloonList.size());
+        scrollDown(chatView, balloonAdapter);
+    }
+
+    /**
+     * 吹き出しを表示するListViewを最下部までスクロール
+     *
+     * @param listView 吹き出しを表示するListView
+     * @param adapter  吹き出しのAdapter
+     */
+    static void scrollDown(ListView listView, BalloonAdapter adapter) {
+        int last = adapter.getCount() - 1;
+        int height = adapter.getRowHeight(last, listView);
+        if (0 < height) {
+            // 計測済みの高さから最下部の行の位置を決定
+            int bottom = listView.getHeight() - listView.getPaddingBottom();
+            listView.setSelectionFromTop(last, bottom - height);
+        } else {
+            listView.setSelection(adapter.getCount());
+        }
     }
 
     /**
@@ -41,6 +41,7 @@ import android.widget.CheckBox;
 import android.widget.EditText;
 
 import jp.co.atware.trial_app.R;
+import jp.co.atware.trial_app.balloon.ImageUrlRewriter;
 import jp.co.atware.trial_app.chat.ChatApplication;
 import jp.co.atware.trial_app.util.Config;
 import jp.co.atware.trial_app.util.Config.Keys;
@@ -72,6 +73,9 @@ public class EditConfig extends DialogFragment {
         // client_secret
         final EditText clientSecret = (EditText) configView.findViewById(R.id.edit_client_secret);
         clientSecret.setText(config.getClientSecret());
+        // 画像URLの書き換えテンプレート
+        final EditText imageResize = (EditText) configView.findViewById(R.id.edit_image_resize);
+        imageResize.setText(config.getImageResize());
 
         final AlertDialog configDialog = new Builder(getActivity()).setView(configView)
                 .setPositiveButton(R.string.save, new DialogInterface.OnClickListener() {
@@ -81,6 +85,7 @@ public class EditConfig extends DialogFragment {
                         config.setHost(host.getText().toString());
                         config.setPort(port.getText().toString());
                         config.setPath(path.getText().toString());
+                        saveImageResize(config, imageResize.getText().toString());
                         if (config.setClientSecret(clientSecret.getText().toString())) {
                             ChatApplication.getInstance().onPause();
                             FragmentTransaction ft = getFragmentManager().beginTransaction();
@@ -103,6 +108,7 @@ public class EditConfig extends DialogFragment {
                         port.setText(Keys.PORT.defaultValue);
                         path.setText(Keys.PATH.defaultValue);
                         clientSecret.setText(Keys.CLIENT_SECRET.defaultValue);
+                        imageResize.setText(Keys.IMAGE_RESIZE.defaultValue);
                     }
                 });
             }
@@ -110,4 +116,25 @@ public class EditConfig extends DialogFragment {
         return configDialog;
     }
 
+    /**
+     * 画像URLの書き換えテンプレートを保存
+     * <p>
+     * 変更された場合は表示中のアプリにも反映する。空の場合は書き換えない
+     *
+     * @param config Config
+     * @param rules  1行に「ホスト名=テンプレート」を記述した設定
+     */
+    private static void saveImageResize(Config config, String rules) {
+        boolean changed;
+        if (rules.trim().isEmpty()) {
+            changed = config.getImageResize() != null;
+            config.resetImageResize();
+        } else {
+            changed = config.setImageResize(rules);
+        }
+        if (changed) {
+            ImageUrlRewriter.getInstance().setRules(config.getImageResize());
+        }
+    }
+
 }
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2017, atWare, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *  Neither the name of the atWare, Inc. nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL atWare, Inc. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package jp.co.atware.trial_app.fragment;
+
+import android.app.Dialog;
+import android.content.DialogInterface;
+import android.os.Bundle;
+import android.support.annotation.NonNull;
+import android.support.v4.app.DialogFragment;
+import android.support.v7.app.AlertDialog;
+import android.support.v7.app.AlertDialog.Builder;
+import android.text.InputType;
+import android.view.View;
+import android.widget.Button;
+import android.widget.EditText;
+import android.widget.Toast;
+
+import jp.co.atware.trial_app.R;
+import jp.co.atware.trial_app.chat.ChatApplication;
+
+
+/**
+ * 吹き出し検索ダイアログ
+ * <p>
+ * 検索ボタンを押す度に、一致した吹き出しへ新しい順にスクロールする
+ */
+public class SearchBalloon extends DialogFragment {
+
+    private String query;
+    private int[] results;
+    private int index;
+
+    @NonNull
+    @Override
+    public Dialog onCreateDialog(Bundle savedInstanceState) {
+        final EditText queryText = new EditText(getActivity());
+        queryText.setInputType(InputType.TYPE_CLASS_TEXT);
+        queryText.setHint(R.string.search_hint);
+        final AlertDialog searchDialog = new Builder(getActivity()).setTitle(R.string.search_title)
+                .setView(queryText)
+                .setPositiveButton(R.string.search, null)
+                .setNegativeButton(R.string.close, null).create();
+        searchDialog.setOnShowListener(new DialogInterface.OnShowListener() {
+            @Override
+            public void onShow(DialogInterface dialog) {
+                Button search = searchDialog.getButton(DialogInterface.BUTTON_POSITIVE);
+                search.setOnClickListener(new View.OnClickListener() {
+                    @Override
+                    public void onClick(View v) {
+                        next(queryText.getText().toString().trim());
+                    }
+                });
+            }
+        });
+        return searchDialog;
+    }
+
+    /**
+     * 次に一致した吹き出しまでスクロール
+     * <p>
+     * 検索文字列が変わった場合は検索し直し、最も新しい吹き出しから表示する
+     *
+     * @param text 検索文字列
+     */
+    private void next(String text) {
+        if (text.isEmpty()) {
+            return;
+        }
+        ChatApplication app = ChatApplication.getInstance();
+        if (!text.equals(query)) {
+            query = text;
+            results = app.search(text);
+            index = 0;
+        }
+        if (results.length == 0) {
+            Toast.makeText(getActivity(), R.string.search_not_found, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        app.jumpTo(results[index]);
+        index = (index + 1) % results.length;
+    }
+
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2017, atWare, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *  Neither the name of the atWare, Inc. nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL atWare, Inc. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package jp.co.atware.trial_app.history;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import jp.co.atware.trial_app.balloon.Balloon;
+import jp.co.atware.trial_app.balloon.Balloon.Action;
+import jp.co.atware.trial_app.balloon.Balloon.BalloonType;
+import jp.co.atware.trial_app.balloon.BalloonButton;
+import jp.co.atware.trial_app.balloon.BalloonButton.ButtonType;
+import jp.co.atware.trial_app.balloon.Payload;
+
+/**
+ * 吹き出しのバイナリ形式への変換
+ */
+public class BalloonCodec {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int NULL = -1;
+
+    private static final int OBJECT_SIZE = 16;
+    private static final int REFERENCE_SIZE = 4;
+    private static final int MEDIA_SIZE = 256 * 1024;
+    private static final int HTML_SIZE = 1024 * 1024;
+
+    /**
+     * 吹き出しをバイト列に変換
+     *
+     * @param balloon 吹き出し
+     * @return バイト列
+     */
+    public static byte[] encode(Balloon balloon) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            write(out, balloon);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * バイト列を吹き出しに変換
+     *
+     * @param data バイト列
+     * @return 吹き出し
+     */
+    public static Balloon decode(byte[] data) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+            return read(in);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * 吹き出しを書き込み
+     *
+     * @param out     出力先
+     * @param balloon 吹き出し
+     * @throws IOException 書き込み失敗
+     */
+    public static void write(DataOutput out, Balloon balloon) throws IOException {
+        out.writeByte(balloon.type.ordinal());
+        out.writeByte(balloon.action != null ? balloon.action.ordinal() : NULL);
+        out.writeInt(balloon.position != null ? balloon.position : NULL);
+        if (balloon.payloads == null) {
+            out.writeInt(NULL);
+            return;
+        }
+        out.writeInt(balloon.payloads.size());
+        for (Payload payload : balloon.payloads) {
+            writeString(out, payload.title);
+            writeString(out, payload.url);
+            writeString(out, payload.text);
+            if (payload.buttons == null) {
+                out.writeInt(NULL);
+                continue;
+            }
+            out.writeInt(payload.buttons.size());
+            for (BalloonButton button : payload.buttons) {
+                out.writeByte(button.type != null ? button.type.ordinal() : NULL);
+                writeString(out, button.title);
+                writeString(out, button.value);
+            }
+        }
+    }
+
+    /**
+     * 吹き出しを読み込み
+     *
+     * @param in 入力元
+     * @return 吹き出し
+     * @throws IOException 読み込み失敗
+     */
+    public static Balloon read(DataInput in) throws IOException {
+        Balloon balloon = new Balloon(BalloonType.values()[in.readByte()]);
+        byte action = in.readByte();
+        balloon.action = (action != NULL) ? Action.values()[action] : null;
+        int position = in.readInt();
+        balloon.position = (position != NULL) ? position : null;
+        int payloadCount = in.readInt();
+        if (payloadCount == NULL) {
+            return balloon;
+        }
+        List<Payload> payloads = new ArrayList<>(payloadCount);
+        for (int i = 0; i < payloadCount; i++) {
+            Payload payload = new Payload();
+            payload.title = readString(in);
+            payload.url = readString(in);
+            payload.text = readString(in);
+            int buttonCount = in.readInt();
+            if (buttonCount != NULL) {
+                payload.buttons = new ArrayList<>(buttonCount);
+                for (int j = 0; j < buttonCount; j++) {
+                    byte type = in.readByte();
+                    BalloonButton button = new BalloonButton((type != NULL) ? ButtonType.values()[type] : null);
+                    button.title = readString(in);
+                    button.value = readString(in);
+                    payload.buttons.add(button);
+                }
+            }
+            payloads.add(payload);
+        }
+        balloon.payloads = payloads;
+        return balloon;
+    }
+
+    /**
+     * 文字列を書き込み
+     *
+     * @param out 出力先
+     * @param s   文字列
+     * @throws IOException 書き込み失敗
+     */
+    private static void writeString(DataOutput out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(NULL);
+        } else {
+            byte[] bytes = s.getBytes(UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * 文字列を読み込み
+     *
+     * @param in 入力元
+     * @return 文字列
+     * @throws IOException 読み込み失敗
+     */
+    private static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length == NULL) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * 吹き出しの表示に必要なメモリ量を見積もり
+     * <p>
+     * 画像とWebは表示時に確保されるBitmapとWebViewの概算を含む
+     *
+     * @param balloon 吹き出し
+     * @return 見積もりバイト数
+     */
+    public static long estimateSize(Balloon balloon) {
+        long size = OBJECT_SIZE;
+        if (balloon.payloads == null) {
+            return size;
+        }
+        for (Payload payload : balloon.payloads) {
+            size += OBJECT_SIZE + sizeOf(payload.title) + sizeOf(payload.url) + sizeOf(payload.text);
+            if (payload.buttons != null) {
+                for (BalloonButton button : payload.buttons) {
+                    size += OBJECT_SIZE + sizeOf(button.title) + sizeOf(button.value);
+                }
+            }
+            if (payload.url != null) {
+                switch (balloon.type) {
+                    case IMAGE:
+                    case COMPOUND:
+                        size += MEDIA_SIZE;
+                        break;
+                    case HTML:
+                        size += HTML_SIZE;
+                        break;
+                }
+            }
+        }
+        return size;
+    }
+
+    /**
+     * 文字列のメモリ量を見積もり
+     *
+     * @param s 文字列
+     * @return 見積もりバイト数
+     */
+    private static long sizeOf(String s) {
+        return (s != null) ? OBJECT_SIZE + REFERENCE_SIZE + s.length() * 2 : REFERENCE_SIZE;
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2017, atWare, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *  Neither the name of the atWare, Inc. nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL atWare, Inc. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package jp.co.atware.trial_app.history;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+import jp.co.atware.trial_app.balloon.Balloon;
+import jp.co.atware.trial_app.balloon.Balloon.Action;
+
+/**
+ * 表示履歴の吹き出しリスト
+ * <p>
+ * 末尾の吹き出しのみを件数と見積もりバイト数の上限内で保持し、
+ * それより古い吹き出しは{@link CompactBalloonStore}に移して参照時に復元する
+ */
+public class BalloonHistory extends AbstractList<Balloon> implements RandomAccess {
+
+    /**
+     * 吹き出し破棄時の処理
+     */
+    public interface OnEvictListener {
+
+        /**
+         * 吹き出しが保持対象から外れた時の処理
+         *
+         * @param balloon 破棄された吹き出し
+         */
+        void onEvict(Balloon balloon);
+    }
+
+    private static final int MIN_RESTORE_SIZE = 8;
+
+    private final int maxCount;
+    private final long maxBytes;
+    private final CompactBalloonStore archive = new CompactBalloonStore();
+    private final List<Balloon> live = new ArrayList<>();
+    private final Map<Integer, Balloon> restored;
+    private long liveBytes;
+    private OnEvictListener onEvict;
+
+    /**
+     * コンストラクタ
+     *
+     * @param maxCount 保持する吹き出しの最大件数
+     * @param maxBytes 保持する吹き出しの最大見積もりバイト数
+     */
+    public BalloonHistory(int maxCount, long maxBytes) {
+        if (maxCount < 1) {
+            throw new IllegalArgumentException("maxCount must be positive.");
+        }
+        this.maxCount = maxCount;
+        this.maxBytes = maxBytes;
+        // スクロールで遡った吹き出しは一画面分程度を保持
+        final int restoreSize = Math.max(MIN_RESTORE_SIZE, maxCount / 4);
+        this.restored = new LinkedHashMap<Integer, Balloon>(restoreSize, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Balloon> eldest) {
+                if (size() > restoreSize) {
+                    notifyEvict(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * 吹き出し破棄時の処理を設定
+     *
+     * @param onEvict 吹き出し破棄時の処理
+     */
+    public void setOnEvictListener(OnEvictListener onEvict) {
+        this.onEvict = onEvict;
+    }
+
+    @Override
+    public synchronized Balloon get(int index) {
+        int archived = archive.size();
+        if (archived <= index) {
+            return live.get(index - archived);
+        }
+        Balloon balloon = restored.get(index);
+        if (balloon == null) {
+            balloon = archive.get(index);
+            balloon.action = Action.DO_NOTHING;
+            restored.put(index, balloon);
+        }
+        return balloon;
+    }
+
+    @Override
+    public synchronized int size() {
+        return archive.size() + live.size();
+    }
+
+    @Override
+    public synchronized boolean add(Balloon balloon) {
+        live.add(balloon);
+        liveBytes += BalloonCodec.estimateSize(balloon);
+        modCount++;
+        trim();
+        return true;
+    }
+
+    @Override
+    public synchronized void clear() {
+        archive.clear();
+        live.clear();
+        restored.clear();
+        liveBytes = 0;
+        modCount++;
+    }
+
+    /**
+     * 保持する吹き出しの見積もりバイト数を取得
+     *
+     * @return 見積もりバイト数
+     */
+    public synchronized long getLiveBytes() {
+        return liveBytes;
+    }
+
+    /**
+     * 上限を超えた古い吹き出しを保持対象から外す
+     * <p>
+     * 最新の吹き出しは上限を超えても保持する
+     */
+    private void trim() {
+        while (1 < live.size() && (maxCount < live.size() || maxBytes < liveBytes)) {
+            Balloon balloon = live.remove(0);
+            archive.add(balloon);
+            liveBytes -= BalloonCodec.estimateSize(balloon);
+            notifyEvict(balloon);
+        }
+    }
+
+    /**
+     * 吹き出し破棄を通知
+     *
+     * @param balloon 破棄された吹き出し
+     */
+    private void notifyEvict(Balloon balloon) {
+        if (onEvict != null) {
+            onEvict.onEvict(balloon);
+        }
+    }
+}
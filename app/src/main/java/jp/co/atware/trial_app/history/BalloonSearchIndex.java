@@ -0,0 +1,396 @@
+/*
+ * Copyright (c) 2017, atWare, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *  Neither the name of the atWare, Inc. nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL atWare, Inc. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package jp.co.atware.trial_app.history;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import jp.co.atware.trial_app.balloon.Balloon;
+import jp.co.atware.trial_app.balloon.BalloonButton;
+import jp.co.atware.trial_app.balloon.Payload;
+
+/**
+ * 対話履歴の全文検索インデックス
+ * <p>
+ * 吹き出しの文字列、タイトル、ボタンのタイトルを文字bigramに分解し、
+ * bigram毎に(吹き出し位置, 文字位置)の転置リストを保持する。
+ * 単語の区切りが無い日本語も部分一致で検索でき、末尾に{@code *}を付けた場合は
+ * 単語の先頭からの前方一致で検索する
+ */
+public class BalloonSearchIndex {
+
+    private static final char BOUNDARY = '\u0001';
+    private static final char PREFIX = '*';
+    private static final int INITIAL_CAPACITY = 4;
+
+    /**
+     * 昇順に追加される(吹き出し位置, 文字位置)のリスト
+     */
+    private static class Postings {
+
+        private long[] values = new long[INITIAL_CAPACITY];
+        private int size;
+
+        /**
+         * 出現位置を追加
+         *
+         * @param value 出現位置
+         */
+        void add(long value) {
+            if (values.length <= size) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        /**
+         * 出現位置の有無を判定
+         *
+         * @param value 出現位置
+         * @return 出現位置が存在する場合にtrue
+         */
+        boolean contains(long value) {
+            return 0 <= Arrays.binarySearch(values, 0, size, value);
+        }
+    }
+
+    private final Map<Integer, Postings> postings = new HashMap<>();
+    /**
+     * 先頭文字毎のbigramキー、先頭要素はキーの数
+     */
+    private final Map<Character, int[]> keysByFirst = new HashMap<>();
+    private int lastPosition = -1;
+
+    /**
+     * 吹き出しをインデックスに追加
+     * <p>
+     * 吹き出し位置は追加毎に増加している必要がある
+     *
+     * @param position 吹き出し位置
+     * @param balloon  吹き出し
+     */
+    public synchronized void add(int position, Balloon balloon) {
+        if (position <= lastPosition) {
+            throw new IllegalArgumentException("position must be increasing. " + position);
+        }
+        lastPosition = position;
+        if (balloon.payloads == null) {
+            return;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Payload payload : balloon.payloads) {
+            appendField(sb, payload.title);
+            appendField(sb, payload.text);
+            if (payload.buttons != null) {
+                for (BalloonButton button : payload.buttons) {
+                    appendField(sb, button.title);
+                }
+            }
+        }
+        for (int i = 0; i < sb.length() - 1; i++) {
+            int key = key(sb.charAt(i), sb.charAt(i + 1));
+            Postings list = postings.get(key);
+            if (list == null) {
+                list = new Postings();
+                postings.put(key, list);
+                addKey(sb.charAt(i), key);
+            }
+            list.add(pack(position, i));
+        }
+    }
+
+    /**
+     * 吹き出しを検索
+     *
+     * @param query 検索文字列、末尾が{@code *}の場合は前方一致
+     * @param limit 最大件数
+     * @return 一致した吹き出し位置(新しい順)
+     */
+    public synchronized int[] search(String query, int limit) {
+        boolean prefix = !query.isEmpty() && query.charAt(query.length() - 1) == PREFIX;
+        if (prefix) {
+            query = query.substring(0, query.length() - 1);
+        }
+        String phrase = normalize(query);
+        if (phrase.isEmpty()) {
+            return new int[0];
+        }
+        if (prefix) {
+            phrase = BOUNDARY + phrase;
+        }
+        if (phrase.length() == 1) {
+            return searchChar(phrase.charAt(0), limit);
+        }
+        return searchPhrase(phrase, limit);
+    }
+
+    /**
+     * 1文字で検索
+     *
+     * @param c     検索文字
+     * @param limit 最大件数
+     * @return 一致した吹き出し位置(新しい順)
+     */
+    private int[] searchChar(char c, int limit) {
+        int[] keys = keysByFirst.get(c);
+        if (keys == null) {
+            return new int[0];
+        }
+        Hits hits = new Hits(limit);
+        // 先頭文字が一致する全てのbigramのリストを新しい順に走査して統合
+        Postings[] lists = new Postings[keys[0]];
+        int[] cursors = new int[keys[0]];
+        for (int k = 0; k < keys[0]; k++) {
+            lists[k] = postings.get(keys[k + 1]);
+            cursors[k] = lists[k].size - 1;
+        }
+        while (!hits.isFull()) {
+            int best = -1;
+            long bestValue = -1;
+            for (int k = 0; k < cursors.length; k++) {
+                if (0 <= cursors[k]) {
+                    long value = lists[k].values[cursors[k]];
+                    if (bestValue < value) {
+                        best = k;
+                        bestValue = value;
+                    }
+                }
+            }
+            if (best < 0) {
+                break;
+            }
+            cursors[best]--;
+            hits.add(positionOf(bestValue));
+        }
+        return hits.toArray();
+    }
+
+    /**
+     * 2文字以上の連続した文字列で検索
+     *
+     * @param phrase 正規化済みの検索文字列
+     * @param limit  最大件数
+     * @return 一致した吹き出し位置(新しい順)
+     */
+    private int[] searchPhrase(String phrase, int limit) {
+        int n = phrase.length() - 1;
+        Postings[] lists = new Postings[n];
+        int rarest = 0;
+        for (int k = 0; k < n; k++) {
+            lists[k] = postings.get(key(phrase.charAt(k), phrase.charAt(k + 1)));
+            if (lists[k] == null) {
+                return new int[0];
+            }
+            if (lists[k].size < lists[rarest].size) {
+                rarest = k;
+            }
+        }
+        Hits hits = new Hits(limit);
+        Postings candidates = lists[rarest];
+        for (int i = candidates.size - 1; 0 <= i && !hits.isFull(); i--) {
+            long start = candidates.values[i] - rarest;
+            if (offsetOf(candidates.values[i]) < rarest || hits.contains(positionOf(start))) {
+                continue;
+            }
+            boolean match = true;
+            for (int k = 0; k < n && match; k++) {
+                match = (k == rarest) || lists[k].contains(start + k);
+            }
+            if (match) {
+                hits.add(positionOf(start));
+            }
+        }
+        return hits.toArray();
+    }
+
+    /**
+     * 新しい順に重複を除いて集めた検索結果
+     */
+    private static class Hits {
+
+        private final int[] positions;
+        private int size;
+
+        /**
+         * コンストラクタ
+         *
+         * @param limit 最大件数
+         */
+        Hits(int limit) {
+            positions = new int[limit];
+        }
+
+        /**
+         * 最大件数に達したかを判定
+         *
+         * @return 最大件数に達した場合にtrue
+         */
+        boolean isFull() {
+            return size == positions.length;
+        }
+
+        /**
+         * 追加済みの判定、新しい順に追加されるため最後の結果のみを比較する
+         *
+         * @param position 吹き出し位置
+         * @return 追加済みの場合にtrue
+         */
+        boolean contains(int position) {
+            return 0 < size && positions[size - 1] == position;
+        }
+
+        /**
+         * 吹き出し位置を追加
+         *
+         * @param position 吹き出し位置
+         */
+        void add(int position) {
+            if (!contains(position)) {
+                positions[size++] = position;
+            }
+        }
+
+        /**
+         * 配列に変換
+         *
+         * @return 吹き出し位置の配列
+         */
+        int[] toArray() {
+            return Arrays.copyOf(positions, size);
+        }
+    }
+
+    /**
+     * インデックスを全て削除
+     */
+    public synchronized void clear() {
+        postings.clear();
+        keysByFirst.clear();
+        lastPosition = -1;
+    }
+
+    /**
+     * 文字列を正規化して区切り文字と共に追加
+     *
+     * @param sb 追加先
+     * @param s  文字列
+     */
+    private static void appendField(StringBuilder sb, String s) {
+        if (s != null) {
+            sb.append(BOUNDARY).append(normalize(s)).append(BOUNDARY);
+        }
+    }
+
+    /**
+     * 文字列を正規化
+     * <p>
+     * 全角英数と半角カナを統一して小文字に変換し、空白と記号を区切り文字に置き換える
+     *
+     * @param s 文字列
+     * @return 正規化した文字列
+     */
+    static String normalize(String s) {
+        String nfkc = Normalizer.normalize(s, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+        StringBuilder sb = new StringBuilder(nfkc.length());
+        for (int i = 0; i < nfkc.length(); i++) {
+            char c = nfkc.charAt(i);
+            if (Character.isLetterOrDigit(c) || Character.getType(c) == Character.NON_SPACING_MARK) {
+                sb.append(c);
+            } else if (0 < sb.length() && sb.charAt(sb.length() - 1) != BOUNDARY) {
+                sb.append(BOUNDARY);
+            }
+        }
+        int end = sb.length();
+        while (0 < end && sb.charAt(end - 1) == BOUNDARY) {
+            end--;
+        }
+        return sb.substring(0, end);
+    }
+
+    /**
+     * bigramの先頭文字毎のキーを記録
+     *
+     * @param first 先頭文字
+     * @param key   bigramのキー
+     */
+    private void addKey(char first, int key) {
+        int[] keys = keysByFirst.get(first);
+        if (keys == null) {
+            keys = new int[INITIAL_CAPACITY];
+        } else if (keys.length <= keys[0] + 1) {
+            keys = Arrays.copyOf(keys, keys.length * 2);
+        }
+        keys[++keys[0]] = key;
+        keysByFirst.put(first, keys);
+    }
+
+    /**
+     * bigramのキーを生成
+     *
+     * @param first  1文字目
+     * @param second 2文字目
+     * @return キー
+     */
+    private static int key(char first, char second) {
+        return (first << 16) | second;
+    }
+
+    /**
+     * 出現位置を生成
+     *
+     * @param position 吹き出し位置
+     * @param offset   文字位置
+     * @return 出現位置
+     */
+    private static long pack(int position, int offset) {
+        return ((long) position << 32) | offset;
+    }
+
+    /**
+     * 出現位置から吹き出し位置を取得
+     *
+     * @param value 出現位置
+     * @return 吹き出し位置
+     */
+    private static int positionOf(long value) {
+        return (int) (value >>> 32);
+    }
+
+    /**
+     * 出現位置から文字位置を取得
+     *
+     * @param value 出現位置
+     * @return 文字位置
+     */
+    private static int offsetOf(long value) {
+        return (int) value;
+    }
+}
@@ -0,0 +1,320 @@
+/*
+ * Copyright (c) 2017, atWare, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *  Neither the name of the atWare, Inc. nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL atWare, Inc. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package jp.co.atware.trial_app.history;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+import jp.co.atware.trial_app.balloon.Balloon;
+import jp.co.atware.trial_app.balloon.Balloon.Action;
+import jp.co.atware.trial_app.balloon.Balloon.BalloonType;
+import jp.co.atware.trial_app.balloon.BalloonButton;
+import jp.co.atware.trial_app.balloon.BalloonButton.ButtonType;
+import jp.co.atware.trial_app.balloon.Payload;
+
+/**
+ * 吹き出しを配列で保持するリスト
+ * <p>
+ * 種別、アクション、位置はプリミティブ配列に、文字列は重複を除いた文字列表に格納し、
+ * 吹き出しは参照時に生成する
+ */
+public class CompactBalloonStore extends AbstractList<Balloon> implements RandomAccess {
+
+    private static final int NULL = -1;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private static final BalloonType[] TYPES = BalloonType.values();
+    private static final Action[] ACTIONS = Action.values();
+    private static final ButtonType[] BUTTON_TYPES = ButtonType.values();
+
+    /**
+     * 重複を除いた文字列表
+     * <p>
+     * 文字列IDの検索はオープンアドレス法のint配列で行い、エントリ毎のオブジェクトを生成しない
+     */
+    private static class StringTable {
+
+        private String[] values = new String[INITIAL_CAPACITY];
+        private int[] slots = new int[INITIAL_CAPACITY * 2];
+        private int size;
+
+        /**
+         * 文字列のIDを取得、未登録の場合は登録
+         *
+         * @param s 文字列
+         * @return 文字列のID、nullの場合は{@link #NULL}
+         */
+        int intern(String s) {
+            if (s == null) {
+                return NULL;
+            }
+            int mask = slots.length - 1;
+            int i = s.hashCode() & mask;
+            while (slots[i] != 0) {
+                int id = slots[i] - 1;
+                if (values[id].equals(s)) {
+                    return id;
+                }
+                i = (i + 1) & mask;
+            }
+            int id = size++;
+            if (values.length <= id) {
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+            values[id] = s;
+            slots[i] = id + 1;
+            if (slots.length < size * 2) {
+                rehash(slots.length * 2);
+            }
+            return id;
+        }
+
+        /**
+         * 検索用の配列を拡張
+         *
+         * @param capacity 新しい配列長(2の累乗)
+         */
+        private void rehash(int capacity) {
+            int mask = capacity - 1;
+            slots = new int[capacity];
+            for (int id = 0; id < size; id++) {
+                int i = values[id].hashCode() & mask;
+                while (slots[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                slots[i] = id + 1;
+            }
+        }
+
+        /**
+         * IDの文字列を取得
+         *
+         * @param id 文字列のID
+         * @return 文字列
+         */
+        String get(int id) {
+            return (id == NULL) ? null : values[id];
+        }
+
+        /**
+         * 登録済みの文字列数を取得
+         *
+         * @return 文字列数
+         */
+        int size() {
+            return size;
+        }
+
+        /**
+         * 全ての文字列を削除
+         */
+        void clear() {
+            values = new String[INITIAL_CAPACITY];
+            slots = new int[INITIAL_CAPACITY * 2];
+            size = 0;
+        }
+    }
+
+    private final StringTable strings = new StringTable();
+
+    // 吹き出し毎の配列
+    private int count;
+    private byte[] types = new byte[INITIAL_CAPACITY];
+    private byte[] actions = new byte[INITIAL_CAPACITY];
+    private int[] positions = new int[INITIAL_CAPACITY];
+    private int[] payloadStarts = new int[INITIAL_CAPACITY];
+    private int[] payloadCounts = new int[INITIAL_CAPACITY];
+
+    // 吹き出し表示情報毎の配列
+    private int payloadCount;
+    private int[] titles = new int[INITIAL_CAPACITY];
+    private int[] urls = new int[INITIAL_CAPACITY];
+    private int[] texts = new int[INITIAL_CAPACITY];
+    private int[] buttonStarts = new int[INITIAL_CAPACITY];
+    private int[] buttonCounts = new int[INITIAL_CAPACITY];
+
+    // ボタン毎の配列
+    private int buttonCount;
+    private byte[] buttonTypes = new byte[INITIAL_CAPACITY];
+    private int[] buttonTitles = new int[INITIAL_CAPACITY];
+    private int[] buttonValues = new int[INITIAL_CAPACITY];
+
+    @Override
+    public synchronized Balloon get(int index) {
+        if (index < 0 || count <= index) {
+            throw new IndexOutOfBoundsException("index=" + index + ", size=" + count);
+        }
+        Balloon balloon = new Balloon(TYPES[types[index]]);
+        balloon.action = (actions[index] != NULL) ? ACTIONS[actions[index]] : null;
+        balloon.position = (positions[index] != NULL) ? positions[index] : null;
+        if (payloadCounts[index] != NULL) {
+            int start = payloadStarts[index];
+            List<Payload> payloads = new ArrayList<>(payloadCounts[index]);
+            for (int p = start; p < start + payloadCounts[index]; p++) {
+                payloads.add(getPayload(p));
+            }
+            balloon.payloads = payloads;
+        }
+        return balloon;
+    }
+
+    /**
+     * 吹き出し表示情報を生成
+     *
+     * @param p 吹き出し表示情報の位置
+     * @return 吹き出し表示情報
+     */
+    private Payload getPayload(int p) {
+        Payload payload = new Payload();
+        payload.title = strings.get(titles[p]);
+        payload.url = strings.get(urls[p]);
+        payload.text = strings.get(texts[p]);
+        if (buttonCounts[p] != NULL) {
+            int start = buttonStarts[p];
+            payload.buttons = new ArrayList<>(buttonCounts[p]);
+            for (int b = start; b < start + buttonCounts[p]; b++) {
+                BalloonButton button = new BalloonButton(
+                        (buttonTypes[b] != NULL) ? BUTTON_TYPES[buttonTypes[b]] : null);
+                button.title = strings.get(buttonTitles[b]);
+                button.value = strings.get(buttonValues[b]);
+                payload.buttons.add(button);
+            }
+        }
+        return payload;
+    }
+
+    /**
+     * 吹き出し種別を取得
+     *
+     * @param index 吹き出しの位置
+     * @return 吹き出し種別
+     */
+    public synchronized BalloonType getType(int index) {
+        return TYPES[types[index]];
+    }
+
+    @Override
+    public synchronized int size() {
+        return count;
+    }
+
+    @Override
+    public synchronized boolean add(Balloon balloon) {
+        if (types.length <= count) {
+            int capacity = count * 2;
+            types = Arrays.copyOf(types, capacity);
+            actions = Arrays.copyOf(actions, capacity);
+            positions = Arrays.copyOf(positions, capacity);
+            payloadStarts = Arrays.copyOf(payloadStarts, capacity);
+            payloadCounts = Arrays.copyOf(payloadCounts, capacity);
+        }
+        types[count] = (byte) balloon.type.ordinal();
+        actions[count] = (byte) ((balloon.action != null) ? balloon.action.ordinal() : NULL);
+        positions[count] = (balloon.position != null) ? balloon.position : NULL;
+        payloadStarts[count] = payloadCount;
+        if (balloon.payloads == null) {
+            payloadCounts[count] = NULL;
+        } else {
+            payloadCounts[count] = balloon.payloads.size();
+            for (Payload payload : balloon.payloads) {
+                addPayload(payload);
+            }
+        }
+        count++;
+        modCount++;
+        return true;
+    }
+
+    /**
+     * 吹き出し表示情報を追加
+     *
+     * @param payload 吹き出し表示情報
+     */
+    private void addPayload(Payload payload) {
+        if (titles.length <= payloadCount) {
+            int capacity = payloadCount * 2;
+            titles = Arrays.copyOf(titles, capacity);
+            urls = Arrays.copyOf(urls, capacity);
+            texts = Arrays.copyOf(texts, capacity);
+            buttonStarts = Arrays.copyOf(buttonStarts, capacity);
+            buttonCounts = Arrays.copyOf(buttonCounts, capacity);
+        }
+        titles[payloadCount] = strings.intern(payload.title);
+        urls[payloadCount] = strings.intern(payload.url);
+        texts[payloadCount] = strings.intern(payload.text);
+        buttonStarts[payloadCount] = buttonCount;
+        if (payload.buttons == null) {
+            buttonCounts[payloadCount] = NULL;
+        } else {
+            buttonCounts[payloadCount] = payload.buttons.size();
+            for (BalloonButton button : payload.buttons) {
+                addButton(button);
+            }
+        }
+        payloadCount++;
+    }
+
+    /**
+     * ボタンを追加
+     *
+     * @param button ボタン
+     */
+    private void addButton(BalloonButton button) {
+        if (buttonTypes.length <= buttonCount) {
+            int capacity = buttonCount * 2;
+            buttonTypes = Arrays.copyOf(buttonTypes, capacity);
+            buttonTitles = Arrays.copyOf(buttonTitles, capacity);
+            buttonValues = Arrays.copyOf(buttonValues, capacity);
+        }
+        buttonTypes[buttonCount] = (byte) ((button.type != null) ? button.type.ordinal() : NULL);
+        buttonTitles[buttonCount] = strings.intern(button.title);
+        buttonValues[buttonCount] = strings.intern(button.value);
+        buttonCount++;
+    }
+
+    @Override
+    public synchronized void clear() {
+        count = 0;
+        payloadCount = 0;
+        buttonCount = 0;
+        strings.clear();
+        modCount++;
+    }
+
+    /**
+     * 重複を除いた文字列数を取得
+     *
+     * @return 文字列数
+     */
+    public synchronized int getStringCount() {
+        return strings.size();
+    }
+}
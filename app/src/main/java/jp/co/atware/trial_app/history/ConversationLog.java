@@ -0,0 +1,314 @@
+/*
+ * Copyright (c) 2017, atWare, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *  Neither the name of the atWare, Inc. nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL atWare, Inc. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package jp.co.atware.trial_app.history;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.List;
+
+import jp.co.atware.trial_app.balloon.Balloon;
+
+/**
+ * 追記型の対話履歴ファイル
+ * <p>
+ * 吹き出しをバイナリ形式でデータファイルに追記し、固定長の位置インデックスで
+ * 末尾からの読み込みを行う。どちらのファイルもメモリマップで読み書きするため、
+ * プロセスが終了しても書き込み済みの内容は失われない
+ */
+public class ConversationLog implements Closeable {
+
+    private static final String DATA_FILE = "balloons.dat";
+    private static final String INDEX_FILE = "balloons.idx";
+    static final String COMPACT_DIR = "compact";
+    static final String DONE_FILE = "done";
+    private static final int MAGIC = 0x42414c31;
+    private static final int HEADER_SIZE = 8;
+    private static final int ENTRY_SIZE = 12;
+    private static final int DATA_CHUNK = 256 * 1024;
+    private static final int INDEX_CHUNK = ENTRY_SIZE * 1024;
+
+    private final File dir;
+    private FileChannel dataChannel;
+    private FileChannel indexChannel;
+    private MappedByteBuffer data;
+    private MappedByteBuffer index;
+    private int count;
+    private int dataEnd;
+    private long bytesWritten;
+    private long recordBytes;
+
+    /**
+     * コンストラクタ
+     *
+     * @param dir 履歴ファイルの格納ディレクトリ
+     * @throws IOException 履歴ファイルのオープン失敗
+     */
+    public ConversationLog(File dir) throws IOException {
+        this.dir = dir;
+        open();
+    }
+
+    /**
+     * 履歴ファイルをオープン
+     *
+     * @throws IOException 履歴ファイルのオープン失敗
+     */
+    private void open() throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("unable to create " + dir);
+        }
+        recover();
+        dataChannel = new RandomAccessFile(new File(dir, DATA_FILE), "rw").getChannel();
+        indexChannel = new RandomAccessFile(new File(dir, INDEX_FILE), "rw").getChannel();
+        index = indexChannel.map(MapMode.READ_WRITE, 0,
+                Math.max(indexChannel.size(), HEADER_SIZE + INDEX_CHUNK));
+        data = dataChannel.map(MapMode.READ_WRITE, 0, Math.max(dataChannel.size(), DATA_CHUNK));
+        if (index.getInt(0) == MAGIC) {
+            count = index.getInt(4);
+            if (0 < count) {
+                int last = entryPosition(count - 1);
+                dataEnd = (int) index.getLong(last) + index.getInt(last + 8);
+            }
+        } else {
+            index.putInt(0, MAGIC);
+            index.putInt(4, 0);
+            count = 0;
+            dataEnd = 0;
+        }
+    }
+
+    /**
+     * 記録済みの吹き出し数を取得
+     *
+     * @return 吹き出し数
+     */
+    public synchronized int size() {
+        return count;
+    }
+
+    /**
+     * 吹き出しを追記
+     *
+     * @param balloon 吹き出し
+     * @throws IOException 書き込み失敗
+     */
+    public void append(Balloon balloon) throws IOException {
+        append(BalloonCodec.encode(balloon));
+    }
+
+    /**
+     * バイナリ形式の吹き出しを追記
+     *
+     * @param record {@link BalloonCodec#encode(Balloon)}で変換した吹き出し
+     * @throws IOException 書き込み失敗
+     */
+    public synchronized void append(byte[] record) throws IOException {
+        int offset = dataEnd;
+        if (data.capacity() < offset + record.length) {
+            data = dataChannel.map(MapMode.READ_WRITE, 0, roundUp(offset + record.length, DATA_CHUNK));
+        }
+        int entry = entryPosition(count);
+        if (index.capacity() < entry + ENTRY_SIZE) {
+            index = indexChannel.map(MapMode.READ_WRITE, 0, roundUp(entry + ENTRY_SIZE, INDEX_CHUNK));
+        }
+        // データ、インデックス、件数の順に書き込み、件数の更新で追記を確定する
+        data.position(offset);
+        data.put(record);
+        index.putLong(entry, offset);
+        index.putInt(entry + 8, record.length);
+        index.putInt(4, count + 1);
+        count++;
+        dataEnd = offset + record.length;
+        recordBytes += record.length;
+        bytesWritten += record.length + ENTRY_SIZE + 4;
+    }
+
+    /**
+     * 末尾の吹き出しを読み込み
+     *
+     * @param n 読み込む件数
+     * @return 吹き出しリスト(古い順)
+     */
+    public synchronized List<Balloon> readLast(int n) {
+        int from = Math.max(0, count - n);
+        List<Balloon> balloons = new ArrayList<>(count - from);
+        for (int i = from; i < count; i++) {
+            balloons.add(BalloonCodec.decode(read(i)));
+        }
+        return balloons;
+    }
+
+    /**
+     * バイナリ形式の吹き出しを読み込み
+     *
+     * @param i 記録順の位置
+     * @return バイナリ形式の吹き出し
+     */
+    public synchronized byte[] read(int i) {
+        if (i < 0 || count <= i) {
+            throw new IndexOutOfBoundsException("index=" + i + ", size=" + count);
+        }
+        int entry = entryPosition(i);
+        int offset = (int) index.getLong(entry);
+        byte[] record = new byte[index.getInt(entry + 8)];
+        data.position(offset);
+        data.get(record);
+        return record;
+    }
+
+    /**
+     * 末尾の吹き出しのみを残して履歴ファイルを作り直す
+     *
+     * @param keep 残す件数
+     * @throws IOException 書き込み失敗
+     */
+    public synchronized void compact(int keep) throws IOException {
+        if (count <= keep) {
+            return;
+        }
+        // 別のディレクトリに書き出してから置き換え、途中で終了しても元の履歴を残す
+        File compacted = new File(dir, COMPACT_DIR);
+        delete(compacted);
+        try (ConversationLog log = new ConversationLog(compacted)) {
+            for (int i = count - keep; i < count; i++) {
+                log.append(read(i));
+            }
+            bytesWritten += log.getBytesWritten();
+            recordBytes += log.getRecordBytes();
+        }
+        if (!new File(compacted, DONE_FILE).createNewFile()) {
+            throw new IOException("unable to complete " + compacted);
+        }
+        close();
+        open();
+    }
+
+    /**
+     * 作り直した履歴ファイルがあれば置き換え
+     * <p>
+     * 書き出しが完了していない場合は破棄し、置き換えの途中で終了した場合は残りを置き換える
+     *
+     * @throws IOException 置き換え失敗
+     */
+    private void recover() throws IOException {
+        File compacted = new File(dir, COMPACT_DIR);
+        if (!compacted.isDirectory()) {
+            return;
+        }
+        if (new File(compacted, DONE_FILE).exists()) {
+            // インデックスを後に置き換え、データだけが置き換わった状態でも再開できるようにする
+            for (String name : new String[]{DATA_FILE, INDEX_FILE}) {
+                File file = new File(compacted, name);
+                if (file.exists() && !file.renameTo(new File(dir, name))) {
+                    throw new IOException("unable to replace " + name);
+                }
+            }
+        }
+        delete(compacted);
+    }
+
+    /**
+     * ディレクトリを削除
+     *
+     * @param target ディレクトリ
+     */
+    private static void delete(File target) {
+        File[] files = target.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        target.delete();
+    }
+
+    /**
+     * 履歴を全て削除
+     *
+     * @throws IOException 削除失敗
+     */
+    public synchronized void clear() throws IOException {
+        close();
+        new File(dir, DATA_FILE).delete();
+        new File(dir, INDEX_FILE).delete();
+        open();
+    }
+
+    /**
+     * 書き込んだ総バイト数を取得
+     *
+     * @return データ、インデックス、件数の書き込みバイト数
+     */
+    public synchronized long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * 書き込んだ吹き出しの総バイト数を取得
+     *
+     * @return 吹き出しのバイト数
+     */
+    public synchronized long getRecordBytes() {
+        return recordBytes;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        data.force();
+        index.force();
+        dataChannel.close();
+        indexChannel.close();
+    }
+
+    /**
+     * インデックスの位置を取得
+     *
+     * @param i 記録順の位置
+     * @return インデックスファイル内の位置
+     */
+    private static int entryPosition(int i) {
+        return HEADER_SIZE + i * ENTRY_SIZE;
+    }
+
+    /**
+     * 単位の倍数に切り上げ
+     *
+     * @param size 大きさ
+     * @param unit 単位
+     * @return 切り上げた大きさ
+     */
+    private static long roundUp(long size, int unit) {
+        return (size + unit - 1) / unit * unit;
+    }
+}
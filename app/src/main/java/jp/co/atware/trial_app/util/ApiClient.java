@@ -117,7 +117,7 @@ public class ApiClient {
      * @param cookies ログインCookie
      */
     public void request(final List<Cookie> cookies) {
-        client = new OkHttpClient().newBuilder().cookieJar(new CookieJar() {
+        client = HttpClient.getInstance().newClient(new CookieJar() {
             @Override
             public void saveFromResponse(HttpUrl url, List<Cookie> cookies) {
 
@@ -127,7 +127,7 @@ public class ApiClient {
             public List<Cookie> loadForRequest(HttpUrl url) {
                 return cookies;
             }
-        }).build();
+        });
         // APIからデバイスIDを取得
         String url = new URLBuilder(ISSUE_DEVICE_ID)
                 .append(CLIENT_SECRET, Config.getInstance().getClientSecret()).toString();
@@ -179,7 +179,7 @@ public class ApiClient {
      * アクセストークンを更新
      */
     public void update() {
-        client = new OkHttpClient().newBuilder().build();
+        client = HttpClient.getInstance().getClient();
         String url = new URLBuilder(UPDATE_DEVICE_TOKEN)
                 .append(REFRESH_TOKEN, Config.getInstance().getRefreshToken()).toString();
         get(url, new Consumer() {
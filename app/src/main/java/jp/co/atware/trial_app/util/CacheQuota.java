@@ -0,0 +1,281 @@
+/*
+ * Copyright (c) 2017, atWare, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *  Neither the name of the atWare, Inc. nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL atWare, Inc. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package jp.co.atware.trial_app.util;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * メディアのディスクキャッシュの容量管理
+ * <p>
+ * 空き容量から全体の上限を決め、固定の割合で登録したキャッシュに全体の一定割合を割り当てる。
+ * 残りはその他のキャッシュに均等に配分する
+ */
+public class CacheQuota {
+
+    private static final long MIN_TOTAL = 16 * 1024 * 1024;
+    private static final long MAX_TOTAL = 256 * 1024 * 1024;
+    private static final int TOTAL_RATIO = 10;
+    private static final long KEEP_ALIVE = 30;
+
+    private static volatile CacheQuota INSTANCE = null;
+
+    /**
+     * インスタンスを取得
+     *
+     * @return インスタンス
+     */
+    public static CacheQuota getInstance() {
+        if (INSTANCE == null) {
+            synchronized (CacheQuota.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new CacheQuota();
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * 容量を管理するキャッシュ
+     */
+    public interface Client {
+
+        /**
+         * 使用中のバイト数を取得
+         *
+         * @return バイト数
+         */
+        long getUsage();
+
+        /**
+         * 割り当てたバイト数を設定
+         * <p>
+         * 使用中のバイト数が超える場合は古いエントリを削除する
+         *
+         * @param quota バイト数
+         */
+        void setQuota(long quota);
+    }
+
+    /**
+     * キャッシュ毎の管理情報
+     */
+    private static class Entry {
+
+        final Client client;
+        final int fixedRatio;
+        long usage;
+        long quota;
+
+        /**
+         * コンストラクタ
+         *
+         * @param client     キャッシュ
+         * @param fixedRatio 全体に対する固定の割り当ての比、残りを均等に配分する場合は0
+         */
+        Entry(Client client, int fixedRatio) {
+            this.client = client;
+            this.fixedRatio = fixedRatio;
+        }
+    }
+
+    /**
+     * 全体の上限を計算
+     * <p>
+     * 使用中と空きの合計の一定割合とし、空き容量が少ない場合は上限も小さくする
+     *
+     * @param available キャッシュの使用量と空き容量の合計
+     * @return バイト数
+     */
+    static long computeTotal(long available) {
+        return Math.max(Math.min(MIN_TOTAL, available / 2), Math.min(MAX_TOTAL, available / TOTAL_RATIO));
+    }
+
+    /**
+     * 配分用のスレッドプールを生成
+     *
+     * @return スレッドプール
+     */
+    private static ThreadPoolExecutor createExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, KEEP_ALIVE, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "cache-quota");
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+    private final ThreadPoolExecutor executor = createExecutor();
+    private File directory;
+    private long total;
+
+    /**
+     * コンストラクタ
+     */
+    CacheQuota() {
+    }
+
+    /**
+     * キャッシュを登録
+     * <p>
+     * 前回の配分時の使用量と現在の空き容量から割り当てを計算して返す
+     *
+     * @param name      キャッシュ名
+     * @param directory キャッシュのディレクトリ
+     * @param client    キャッシュ
+     * @return 割り当てたバイト数
+     */
+    public synchronized long register(String name, File directory, Client client) {
+        return register(name, directory, new Entry(client, 0));
+    }
+
+    /**
+     * キャッシュを全体の固定の割合で登録
+     * <p>
+     * 他のキャッシュの割り当てに含まれないよう、均等に配分するキャッシュより先に登録する
+     *
+     * @param name      キャッシュ名
+     * @param directory キャッシュのディレクトリ
+     * @param client    キャッシュ
+     * @param ratio     全体の1/ratioを割り当てる
+     * @return 割り当てたバイト数
+     */
+    public synchronized long registerFixed(String name, File directory, Client client, int ratio) {
+        return register(name, directory, new Entry(client, ratio));
+    }
+
+    /**
+     * キャッシュを登録して割り当てを計算
+     *
+     * @param name      キャッシュ名
+     * @param directory キャッシュのディレクトリ
+     * @param entry     管理情報
+     * @return 割り当てたバイト数
+     */
+    private long register(String name, File directory, Entry entry) {
+        this.directory = directory;
+        entries.put(name, entry);
+        allocate();
+        return entry.quota;
+    }
+
+    /**
+     * 使用量から割り当てを計算し直して各キャッシュに設定
+     * <p>
+     * 使用量の取得にディレクトリの走査を伴うため別スレッドで実行する
+     */
+    public void rebalance() {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                List<Entry> targets;
+                synchronized (CacheQuota.this) {
+                    targets = new ArrayList<>(entries.values());
+                }
+                // 登録を待たせないよう使用量はロックの外で取得
+                long[] usages = new long[targets.size()];
+                for (int i = 0; i < usages.length; i++) {
+                    usages[i] = targets.get(i).client.getUsage();
+                }
+                Map<Entry, Long> quotas = new LinkedHashMap<>();
+                synchronized (CacheQuota.this) {
+                    for (int i = 0; i < usages.length; i++) {
+                        targets.get(i).usage = usages[i];
+                    }
+                    allocate();
+                    for (Entry entry : entries.values()) {
+                        quotas.put(entry, entry.quota);
+                    }
+                }
+                for (Map.Entry<Entry, Long> quota : quotas.entrySet()) {
+                    quota.getKey().client.setQuota(quota.getValue());
+                }
+            }
+        });
+    }
+
+    /**
+     * 全体の上限と割り当てを計算
+     */
+    private void allocate() {
+        long used = 0;
+        int count = 0;
+        for (Entry entry : entries.values()) {
+            used += entry.usage;
+            if (entry.fixedRatio == 0) {
+                count++;
+            }
+        }
+        long free = (directory != null) ? directory.getUsableSpace() : 0;
+        total = computeTotal(free + used);
+        long rest = total;
+        for (Entry entry : entries.values()) {
+            if (entry.fixedRatio != 0) {
+                entry.quota = total / entry.fixedRatio;
+                rest -= entry.quota;
+            }
+        }
+        for (Entry entry : entries.values()) {
+            if (entry.fixedRatio == 0) {
+                entry.quota = rest / count;
+            }
+        }
+    }
+
+    /**
+     * キャッシュ毎の使用量と割り当ての報告
+     *
+     * @return 報告
+     */
+    @Override
+    public synchronized String toString() {
+        StringBuilder report = new StringBuilder("CacheQuota{total=").append(total);
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            Entry value = entry.getValue();
+            report.append(", ").append(entry.getKey())
+                    .append("={usage=").append(value.usage)
+                    .append(", quota=").append(value.quota)
+                    .append('}');
+        }
+        return report.append('}').toString();
+    }
+}
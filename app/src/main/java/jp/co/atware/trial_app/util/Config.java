@@ -66,7 +66,8 @@ public class Config {
         PATH("/talk"),
         CLIENT_SECRET("6612508e-3c18-4e90-be37-a29b30ea2140"),
         ACCESS_TOKEN(null),
-        REFRESH_TOKEN(null);
+        REFRESH_TOKEN(null),
+        IMAGE_RESIZE(null);
 
         public String defaultValue;
 
@@ -232,6 +233,32 @@ public class Config {
         return set(Keys.REFRESH_TOKEN, refreshToken);
     }
 
+    /**
+     * 画像URLの書き換えテンプレートを取得
+     *
+     * @return 1行に「ホスト名=テンプレート」を記述した設定
+     */
+    public String getImageResize() {
+        return get(Keys.IMAGE_RESIZE);
+    }
+
+    /**
+     * 画像URLの書き換えテンプレートを設定
+     *
+     * @param imageResize 1行に「ホスト名=テンプレート」を記述した設定
+     * @return 画像URLの書き換えテンプレートが変更された場合にtrue
+     */
+    public boolean setImageResize(String imageResize) {
+        return set(Keys.IMAGE_RESIZE, imageResize);
+    }
+
+    /**
+     * 画像URLの書き換えテンプレートを初期化
+     */
+    public void resetImageResize() {
+        reset(Keys.IMAGE_RESIZE);
+    }
+
     /**
      * SharedPreferencesから値を取得
      *
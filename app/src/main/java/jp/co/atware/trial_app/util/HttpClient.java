@@ -0,0 +1,336 @@
+/*
+ * Copyright (c) 2017, atWare, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *  Neither the name of the atWare, Inc. nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL atWare, Inc. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package jp.co.atware.trial_app.util;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Call;
+import okhttp3.ConnectionPool;
+import okhttp3.CookieJar;
+import okhttp3.Dispatcher;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+
+import jp.co.atware.trial_app.BuildConfig;
+
+/**
+ * アプリ共通のHTTPクライアント
+ * <p>
+ * 接続プールとDispatcherを共有してTLSセッションやHTTP/2の接続を再利用し、
+ * リクエスト毎にDNS、接続、TLS、最初のバイトまでの時間を計測する
+ */
+public class HttpClient {
+
+    private static final String TAG = "HttpClient";
+    private static final int MAX_IDLE_CONNECTIONS = 8;
+    private static final long KEEP_ALIVE = 5;
+    private static final int MAX_REQUESTS = 32;
+    private static final int MAX_REQUESTS_PER_HOST = 6;
+    private static final long CONNECT_TIMEOUT = 10;
+    private static final long READ_TIMEOUT = 20;
+    private static final long WRITE_TIMEOUT = 20;
+
+    private static volatile HttpClient INSTANCE = null;
+
+    /**
+     * インスタンスを取得
+     *
+     * @return インスタンス
+     */
+    public static HttpClient getInstance() {
+        if (INSTANCE == null) {
+            synchronized (HttpClient.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new HttpClient();
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    private final OkHttpClient client;
+    private final AtomicLong callCount = new AtomicLong();
+    private final AtomicLong failCount = new AtomicLong();
+    private final AtomicLong connectCount = new AtomicLong();
+    private final AtomicLong dnsNanos = new AtomicLong();
+    private final AtomicLong connectNanos = new AtomicLong();
+    private final AtomicLong tlsNanos = new AtomicLong();
+    private final AtomicLong ttfbNanos = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+
+    /**
+     * コンストラクタ
+     */
+    private HttpClient() {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(MAX_REQUESTS);
+        dispatcher.setMaxRequestsPerHost(MAX_REQUESTS_PER_HOST);
+        client = new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE, TimeUnit.MINUTES))
+                .dispatcher(dispatcher)
+                .connectTimeout(CONNECT_TIMEOUT, TimeUnit.SECONDS)
+                .readTimeout(READ_TIMEOUT, TimeUnit.SECONDS)
+                .writeTimeout(WRITE_TIMEOUT, TimeUnit.SECONDS)
+                .eventListenerFactory(new EventListener.Factory() {
+                    @Override
+                    public EventListener create(Call call) {
+                        return new RequestTimer();
+                    }
+                })
+                .build();
+    }
+
+    /**
+     * 共有のクライアントを取得
+     *
+     * @return クライアント
+     */
+    public OkHttpClient getClient() {
+        return client;
+    }
+
+    /**
+     * Cookieを指定したクライアントを生成
+     * <p>
+     * 接続プールとDispatcherは共有のクライアントと同じものを使用する
+     *
+     * @param cookieJar Cookieの管理
+     * @return クライアント
+     */
+    public OkHttpClient newClient(CookieJar cookieJar) {
+        return client.newBuilder().cookieJar(cookieJar).build();
+    }
+
+    /**
+     * 通信の統計情報を取得
+     *
+     * @return 統計情報
+     */
+    public Metrics getMetrics() {
+        return new Metrics(callCount.get(), failCount.get(), connectCount.get(),
+                client.connectionPool().connectionCount(), client.connectionPool().idleConnectionCount(),
+                dnsNanos.get(), connectNanos.get(), tlsNanos.get(), ttfbNanos.get(), totalNanos.get());
+    }
+
+    /**
+     * リクエスト毎の通信時間の計測
+     */
+    private class RequestTimer extends EventListener {
+
+        private long callStart;
+        private long dnsStart;
+        private long connectStart;
+        private long tlsStart;
+        private long dns;
+        private long connect;
+        private long tls;
+        private long ttfb;
+        private boolean connected;
+
+        @Override
+        public void callStart(Call call) {
+            callStart = System.nanoTime();
+        }
+
+        @Override
+        public void dnsStart(Call call, String domainName) {
+            dnsStart = System.nanoTime();
+        }
+
+        @Override
+        public void dnsEnd(Call call, String domainName, List<InetAddress> inetAddressList) {
+            dns += System.nanoTime() - dnsStart;
+        }
+
+        @Override
+        public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+            connectStart = System.nanoTime();
+            connected = true;
+        }
+
+        @Override
+        public void secureConnectStart(Call call) {
+            tlsStart = System.nanoTime();
+        }
+
+        @Override
+        public void secureConnectEnd(Call call, Handshake handshake) {
+            tls += System.nanoTime() - tlsStart;
+        }
+
+        @Override
+        public void connectEnd(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol) {
+            connect += System.nanoTime() - connectStart;
+        }
+
+        @Override
+        public void connectFailed(Call call, InetSocketAddress inetSocketAddress, Proxy proxy,
+                                  Protocol protocol, IOException ioe) {
+            connect += System.nanoTime() - connectStart;
+        }
+
+        @Override
+        public void responseHeadersStart(Call call) {
+            if (ttfb == 0) {
+                ttfb = System.nanoTime() - callStart;
+            }
+        }
+
+        @Override
+        public void callEnd(Call call) {
+            report(call, false);
+        }
+
+        @Override
+        public void callFailed(Call call, IOException ioe) {
+            report(call, true);
+        }
+
+        /**
+         * 計測結果を集計し、デバッグビルドではログに出力
+         *
+         * @param call   リクエスト
+         * @param failed 失敗した場合にtrue
+         */
+        private void report(Call call, boolean failed) {
+            long total = System.nanoTime() - callStart;
+            callCount.incrementAndGet();
+            if (failed) {
+                failCount.incrementAndGet();
+            }
+            if (connected) {
+                connectCount.incrementAndGet();
+            }
+            dnsNanos.addAndGet(dns);
+            connectNanos.addAndGet(connect);
+            tlsNanos.addAndGet(tls);
+            ttfbNanos.addAndGet(ttfb);
+            totalNanos.addAndGet(total);
+            if (!BuildConfig.DEBUG) {
+                return;
+            }
+            // クエリにトークンを含むURLがあるためホストとパスのみ出力
+            Log.d(TAG, String.format(Locale.US, "%s%s dns=%dms connect=%dms tls=%dms ttfb=%dms total=%dms%s%s",
+                    call.request().url().host(), call.request().url().encodedPath(),
+                    toMillis(dns), toMillis(connect), toMillis(tls), toMillis(ttfb), toMillis(total),
+                    connected ? "" : " reused", failed ? " failed" : ""));
+        }
+    }
+
+    /**
+     * ナノ秒をミリ秒に変換
+     *
+     * @param nanos ナノ秒
+     * @return ミリ秒
+     */
+    private static long toMillis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    /**
+     * 通信の統計情報
+     */
+    public static class Metrics {
+
+        public final long calls;
+        public final long failed;
+        public final long connects;
+        public final int connections;
+        public final int idleConnections;
+        public final long averageDnsMillis;
+        public final long averageConnectMillis;
+        public final long averageTlsMillis;
+        public final long averageTtfbMillis;
+        public final long averageTotalMillis;
+
+        /**
+         * コンストラクタ
+         *
+         * @param calls           リクエスト数
+         * @param failed          失敗数
+         * @param connects        新しく接続したリクエスト数
+         * @param connections     接続プールの接続数
+         * @param idleConnections 接続プールの待機中の接続数
+         * @param dnsNanos        DNSの合計時間
+         * @param connectNanos    接続の合計時間
+         * @param tlsNanos        TLSハンドシェイクの合計時間
+         * @param ttfbNanos       最初のバイトまでの合計時間
+         * @param totalNanos      リクエスト全体の合計時間
+         */
+        Metrics(long calls, long failed, long connects, int connections, int idleConnections,
+                long dnsNanos, long connectNanos, long tlsNanos, long ttfbNanos, long totalNanos) {
+            this.calls = calls;
+            this.failed = failed;
+            this.connects = connects;
+            this.connections = connections;
+            this.idleConnections = idleConnections;
+            this.averageDnsMillis = (0 < connects) ? toMillis(dnsNanos / connects) : 0;
+            this.averageConnectMillis = (0 < connects) ? toMillis(connectNanos / connects) : 0;
+            this.averageTlsMillis = (0 < connects) ? toMillis(tlsNanos / connects) : 0;
+            this.averageTtfbMillis = (0 < calls) ? toMillis(ttfbNanos / calls) : 0;
+            this.averageTotalMillis = (0 < calls) ? toMillis(totalNanos / calls) : 0;
+        }
+
+        /**
+         * 接続を再利用したリクエストの割合を取得
+         *
+         * @return 再利用率
+         */
+        public double getReuseRatio() {
+            return (0 < calls) ? (double) (calls - connects) / calls : 0;
+        }
+
+        @Override
+        public String toString() {
+            return "Metrics{" +
+                    "calls=" + calls +
+                    ", failed=" + failed +
+                    ", connects=" + connects +
+                    ", reuseRatio=" + String.format(Locale.US, "%.3f", getReuseRatio()) +
+                    ", connections=" + connections +
+                    ", idleConnections=" + idleConnections +
+                    ", averageDnsMillis=" + averageDnsMillis +
+                    ", averageConnectMillis=" + averageConnectMillis +
+                    ", averageTlsMillis=" + averageTlsMillis +
+                    ", averageTtfbMillis=" + averageTtfbMillis +
+                    ", averageTotalMillis=" + averageTotalMillis +
+                    '}';
+        }
+    }
+}
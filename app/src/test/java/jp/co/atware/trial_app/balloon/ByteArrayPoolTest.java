@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2017, atWare, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *  Neither the name of the atWare, Inc. nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL atWare, Inc. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package jp.co.atware.trial_app.balloon;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * ByteArrayPool・PooledOutputStream単体試験
+ * <p>
+ * ローカルのHTTPサーバーから大きなJPEG相当のデータを取得し、プールした配列に一括で読み込めることを確認する
+ */
+public class ByteArrayPoolTest {
+
+    private static final int IMAGE_COUNT = 4;
+    private static final int IMAGE_SIZE = 3 * 1024 * 1024;
+    private static final int ROUNDS = 3;
+    private static final int CHUNK_SIZE = 16 * 1024;
+
+    private final byte[][] images = new byte[IMAGE_COUNT][];
+    private HttpServer server;
+    private String baseUrl;
+
+    /**
+     * テスト用のHTTPサーバーを起動
+     *
+     * @throws Exception テスト失敗
+     */
+    @Before
+    public void setUp() throws Exception {
+        Random random = new Random(1);
+        for (int i = 0; i < IMAGE_COUNT; i++) {
+            images[i] = new byte[IMAGE_SIZE];
+            random.nextBytes(images[i]);
+            // JPEGのSOIマーカー
+            images[i][0] = (byte) 0xFF;
+            images[i][1] = (byte) 0xD8;
+        }
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String path = exchange.getRequestURI().getPath();
+                byte[] body = images[Integer.parseInt(path.substring(path.lastIndexOf('/') + 1))];
+                exchange.getResponseHeaders().set("Content-Type", "image/jpeg");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream output = exchange.getResponseBody()) {
+                    output.write(body);
+                }
+            }
+        });
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/image/";
+    }
+
+    /**
+     * テスト用のHTTPサーバーを停止
+     */
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    /**
+     * プールした配列に一括で読み込む方式でダウンロード
+     *
+     * @param index 画像番号
+     * @param pool  ByteArrayPool
+     * @return 画像データ
+     * @throws Exception ダウンロード失敗
+     */
+    private byte[] downloadPooled(int index, ByteArrayPool pool) throws Exception {
+        HttpURLConnection http = (HttpURLConnection) new URL(baseUrl + index).openConnection();
+        try (InputStream input = http.getInputStream();
+             PooledOutputStream output = new PooledOutputStream(pool, http.getContentLength())) {
+            output.readFrom(input);
+            return Arrays.copyOf(output.getBuffer(), output.size());
+        } finally {
+            http.disconnect();
+        }
+    }
+
+    /**
+     * 一括読み込みが同じデータを取得し、配列を再利用することを確認
+     *
+     * @throws Exception テスト失敗
+     */
+    @Test
+    public void pooledDownload() throws Exception {
+        ByteArrayPool pool = new ByteArrayPool(2 * IMAGE_SIZE);
+        for (int r = 0; r < ROUNDS; r++) {
+            for (int i = 0; i < IMAGE_COUNT; i++) {
+                assertArrayEquals(images[i], downloadPooled(i, pool));
+            }
+        }
+        assertEquals(1, pool.getMissCount());
+        assertEquals(ROUNDS * IMAGE_COUNT - 1, pool.getHitCount());
+        assertTrue(pool.getCurrentSize() <= 2 * IMAGE_SIZE);
+    }
+
+    /**
+     * 要求サイズを2のべき乗に切り上げたバケットから貸し出すことを確認
+     */
+    @Test
+    public void pool() {
+        ByteArrayPool pool = new ByteArrayPool(1024);
+        byte[] small = pool.getBuf(100);
+        byte[] large = pool.getBuf(300);
+        assertEquals(256, small.length);
+        assertEquals(512, large.length);
+        pool.returnBuf(small);
+        pool.returnBuf(large);
+        assertSame(large, pool.getBuf(257));
+        assertSame(small, pool.getBuf(8));
+        assertNotSame(small, pool.getBuf(8));
+        assertEquals(2, pool.getHitCount());
+        assertEquals(3, pool.getMissCount());
+        // 切り捨てたバケットに格納するため、要求サイズ未満の配列は貸し出さない
+        pool.returnBuf(new byte[300]);
+        assertEquals(512, pool.getBuf(300).length);
+        assertEquals(300, pool.getBuf(200).length);
+    }
+
+    /**
+     * 上限を超えた場合は大きい配列から破棄することを確認
+     */
+    @Test
+    public void trim() {
+        ByteArrayPool pool = new ByteArrayPool(1024);
+        byte[] small = new byte[256];
+        pool.returnBuf(small);
+        pool.returnBuf(new byte[512]);
+        pool.returnBuf(new byte[512]);
+        assertEquals(768, pool.getCurrentSize());
+        // 上限を超える配列はプールしない
+        pool.returnBuf(new byte[2048]);
+        assertEquals(768, pool.getCurrentSize());
+        assertSame(small, pool.getBuf(256));
+    }
+
+    /**
+     * 書き込み先の配列を拡張し、不要になった配列をプールに返却することを確認
+     *
+     * @throws Exception テスト失敗
+     */
+    @Test
+    public void outputStream() throws Exception {
+        ByteArrayPool pool = new ByteArrayPool(4 * CHUNK_SIZE);
+        byte[] data = new byte[3 * CHUNK_SIZE / 2];
+        new Random(2).nextBytes(data);
+        PooledOutputStream output = new PooledOutputStream(pool, 0);
+        output.write(data[0]);
+        output.write(data, 1, 99);
+        output.readFrom(new ByteArrayInputStream(data, 100, data.length - 100));
+        assertEquals(data.length, output.size());
+        assertArrayEquals(data, Arrays.copyOf(output.getBuffer(), output.size()));
+        int size = pool.getCurrentSize();
+        output.close();
+        assertEquals(size + 2 * CHUNK_SIZE, pool.getCurrentSize());
+        assertEquals(0, output.size());
+    }
+}
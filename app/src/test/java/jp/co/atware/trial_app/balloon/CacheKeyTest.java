@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2017, atWare, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *  Neither the name of the atWare, Inc. nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL atWare, Inc. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package jp.co.atware.trial_app.balloon;
+
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * CacheKey単体試験
+ */
+public class CacheKeyTest {
+
+    /**
+     * ハッシュ値が衝突するURLに異なるキーを生成
+     */
+    @Test
+    public void collision() {
+        String url1 = "https://example.com/Aa.png";
+        String url2 = "https://example.com/BB.png";
+        assertEquals(url1.hashCode(), url2.hashCode());
+        assertNotEquals(CacheKey.of(url1), CacheKey.of(url2));
+        assertEquals(CacheKey.of(url1), CacheKey.of(url1));
+    }
+
+    /**
+     * DiskLruCacheのキーとして使用できる形式
+     */
+    @Test
+    public void format() {
+        String key = CacheKey.of("https://example.com/画像.png?size=large");
+        assertEquals(64, key.length());
+        assertTrue(key.matches("[a-z0-9_-]{1,64}"));
+        // SHA-256("abc")
+        byte[] abc = "abc".getBytes(Charset.forName("UTF-8"));
+        assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad",
+                CacheKey.ofContent(abc, abc.length));
+    }
+
+    /**
+     * 同じ内容のデータに同じキーを生成
+     */
+    @Test
+    public void content() {
+        byte[] data1 = {1, 2, 3, 4, 5};
+        byte[] data2 = {1, 2, 3, 4, 5, 6, 7};
+        assertEquals(CacheKey.ofContent(data1, 5), CacheKey.ofContent(data2, 5));
+        assertNotEquals(CacheKey.ofContent(data1, 5), CacheKey.ofContent(data2, 7));
+    }
+
+    /**
+     * 最近生成したURLのキーを再利用し、上限を超えても同じキーを生成
+     */
+    @Test
+    public void memoize() {
+        String url = "https://example.com/memo.png";
+        String key = CacheKey.of(url);
+        assertSame(key, CacheKey.of(url));
+        for (int i = 0; i < 1000; i++) {
+            CacheKey.of("https://example.com/" + i + ".png");
+        }
+        assertEquals(key, CacheKey.of(url));
+    }
+}
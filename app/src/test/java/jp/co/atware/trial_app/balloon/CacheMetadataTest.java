@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2017, atWare, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *  Neither the name of the atWare, Inc. nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL atWare, Inc. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package jp.co.atware.trial_app.balloon;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * CacheMetadata単体試験
+ */
+public class CacheMetadataTest {
+
+    // Sun, 06 Nov 1994 08:49:37 GMT
+    private static final long NOW = 784111777000L;
+
+    /**
+     * max-ageをExpiresより優先
+     */
+    @Test
+    public void maxAge() {
+        CacheMetadata metadata = CacheMetadata.parse("public, max-age=60", "Sun, 06 Nov 1994 09:49:37 GMT",
+                "\"v1\"", null, NOW);
+        assertEquals(NOW + 60000, metadata.expires);
+        assertTrue(metadata.isFresh(NOW + 59999));
+        assertFalse(metadata.isFresh(NOW + 60000));
+        assertTrue(metadata.storable);
+        assertTrue(metadata.hasValidator());
+    }
+
+    /**
+     * max-ageが無い場合はExpiresを使用
+     */
+    @Test
+    public void expires() {
+        CacheMetadata metadata = CacheMetadata.parse(null, "Sun, 06 Nov 1994 09:49:37 GMT", null, null, NOW);
+        assertEquals(NOW + TimeUnit.HOURS.toMillis(1), metadata.expires);
+        // 不正な日付は期限切れとして扱う
+        metadata = CacheMetadata.parse(null, "0", null, null, NOW);
+        assertFalse(metadata.isFresh(NOW));
+        assertFalse(metadata.hasValidator());
+    }
+
+    /**
+     * no-cacheは常に検証、no-storeは保存しない
+     */
+    @Test
+    public void noCache() {
+        CacheMetadata metadata = CacheMetadata.parse("no-cache, max-age=60", null, null,
+                "Sat, 05 Nov 1994 08:49:37 GMT", NOW);
+        assertFalse(metadata.isFresh(NOW));
+        assertTrue(metadata.storable);
+        metadata = CacheMetadata.parse("No-Store", null, null, null, NOW);
+        assertFalse(metadata.storable);
+    }
+
+    /**
+     * 有効期限の指定が無い場合はLast-Modifiedからの経過時間の1/10
+     */
+    @Test
+    public void heuristic() {
+        CacheMetadata metadata = CacheMetadata.parse(null, null, null, "Sun, 06 Nov 1994 07:49:37 GMT", NOW);
+        assertEquals(NOW + TimeUnit.MINUTES.toMillis(6), metadata.expires);
+        metadata = CacheMetadata.parse(null, null, null, "Sun, 06 Nov 1984 08:49:37 GMT", NOW);
+        assertEquals(NOW + TimeUnit.DAYS.toMillis(1), metadata.expires);
+        metadata = CacheMetadata.parse(null, null, null, null, NOW);
+        assertEquals(NOW + TimeUnit.DAYS.toMillis(1), metadata.expires);
+    }
+
+    /**
+     * 304レスポンスで有効期限を更新し、含まれない検証情報は維持
+     */
+    @Test
+    public void revalidate() {
+        CacheMetadata cached = new CacheMetadata("\"v1\"", "Sat, 05 Nov 1994 08:49:37 GMT", NOW, true);
+        CacheMetadata updated = cached.revalidate("max-age=120", null, null, null, NOW);
+        assertEquals("\"v1\"", updated.etag);
+        assertEquals("Sat, 05 Nov 1994 08:49:37 GMT", updated.lastModified);
+        assertEquals(NOW + 120000, updated.expires);
+    }
+
+    /**
+     * 有効期限の指定が無い304レスポンスは保存済みのLast-Modifiedから有効期限を推定
+     */
+    @Test
+    public void revalidateHeuristic() {
+        CacheMetadata cached = new CacheMetadata(null, "Sun, 06 Nov 1994 07:49:37 GMT", NOW, true);
+        CacheMetadata updated = cached.revalidate(null, null, "\"v2\"", null, NOW);
+        assertEquals("\"v2\"", updated.etag);
+        assertEquals("Sun, 06 Nov 1994 07:49:37 GMT", updated.lastModified);
+        assertEquals(NOW + TimeUnit.MINUTES.toMillis(6), updated.expires);
+    }
+
+    /**
+     * 文字列への変換と復元
+     */
+    @Test
+    public void encode() {
+        CacheMetadata metadata = new CacheMetadata("W/\"abc\"", null, NOW, true);
+        CacheMetadata decoded = CacheMetadata.decode(metadata.encode());
+        assertEquals("W/\"abc\"", decoded.etag);
+        assertNull(decoded.lastModified);
+        assertEquals(NOW, decoded.expires);
+        assertNull(CacheMetadata.decode(""));
+        assertNull(CacheMetadata.decode("broken"));
+    }
+}
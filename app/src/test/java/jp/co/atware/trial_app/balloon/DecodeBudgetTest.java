@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2017, atWare, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *  Neither the name of the atWare, Inc. nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL atWare, Inc. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package jp.co.atware.trial_app.balloon;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * DecodeBudget単体試験
+ */
+public class DecodeBudgetTest {
+
+    /**
+     * 別スレッドでデコードの受付を要求
+     *
+     * @param budget   DecodeBudget
+     * @param bytes    デコードするバイト数
+     * @param admitted 受け付けた時にカウントダウンするラッチ
+     * @return 要求したスレッド
+     */
+    private static Thread acquireAsync(final DecodeBudget budget, final long bytes, final CountDownLatch admitted) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                if (budget.acquire(bytes, 0)) {
+                    admitted.countDown();
+                }
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * 表示サイズに縮小したBitmapのバイト数を見積もる
+     */
+    @Test
+    public void estimate() {
+        assertEquals(1000 * 500 * 2, DecodeBudget.estimate(4000, 2000, 4));
+        assertEquals(0, DecodeBudget.estimate(-1, -1, 1));
+    }
+
+    /**
+     * 上限を超えるデコードは解放されるまで待機する
+     *
+     * @throws Exception テスト失敗
+     */
+    @Test
+    public void waitForRelease() throws Exception {
+        DecodeBudget budget = new DecodeBudget(100);
+        assertTrue(budget.acquire(60, 0));
+        CountDownLatch admitted = new CountDownLatch(1);
+        Thread thread = acquireAsync(budget, 60, admitted);
+        assertFalse(admitted.await(100, TimeUnit.MILLISECONDS));
+        budget.release(60);
+        assertTrue(admitted.await(1, TimeUnit.SECONDS));
+        thread.join();
+        assertEquals(60, budget.getInflight());
+    }
+
+    /**
+     * 単独で上限を超えるデコードは他のデコードが無ければ受け付け、待ち時間を超えると受け付けない
+     */
+    @Test
+    public void oversized() {
+        DecodeBudget budget = new DecodeBudget(100);
+        assertTrue(budget.acquire(500, 0));
+        long start = System.nanoTime();
+        assertFalse(budget.acquire(10, 50));
+        assertTrue(50 <= TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        assertEquals(1, budget.getRejectCount());
+        budget.release(500);
+        assertTrue(budget.acquire(10, 0));
+    }
+
+    /**
+     * 待機中の大きなデコードを後から要求した小さなデコードが追い越さない
+     *
+     * @throws Exception テスト失敗
+     */
+    @Test
+    public void firstComeFirstServed() throws Exception {
+        final DecodeBudget budget = new DecodeBudget(100);
+        assertTrue(budget.acquire(50, 0));
+        CountDownLatch large = new CountDownLatch(1);
+        Thread first = acquireAsync(budget, 80, large);
+        while (!budget.toString().contains("queued=1")) {
+            Thread.sleep(5);
+        }
+        final AtomicBoolean small = new AtomicBoolean();
+        Thread second = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                small.set(budget.acquire(10, 100));
+            }
+        });
+        second.start();
+        second.join();
+        assertFalse(small.get());
+        budget.release(50);
+        assertTrue(large.await(1, TimeUnit.SECONDS));
+        first.join();
+        assertTrue(budget.acquire(10, 0));
+        assertEquals(90, budget.getInflight());
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2017, atWare, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *  Neither the name of the atWare, Inc. nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL atWare, Inc. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package jp.co.atware.trial_app.balloon;
+
+import com.jakewharton.disklrucache.DiskLruCache.Snapshot;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * ImageDiskStore単体試験
+ */
+public class ImageDiskStoreTest {
+
+    private static final int APP_VERSION = 1;
+    private static final int SHARD_COUNT = 4;
+    private static final int IMAGE_SIZE = 4 * 1024;
+    private static final long MAX_SIZE = 64 * 1024;
+
+    private File dir;
+    private ShardedDiskCache cache;
+    private ImageDiskStore store;
+
+    /**
+     * テスト用のディスクキャッシュを作成
+     *
+     * @throws Exception テスト失敗
+     */
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("images").toFile();
+        cache = ShardedDiskCache.open(dir, APP_VERSION, ImageDiskStore.VALUE_COUNT, MAX_SIZE, SHARD_COUNT);
+        store = new ImageDiskStore(cache);
+    }
+
+    /**
+     * テスト用のディスクキャッシュを削除
+     *
+     * @throws Exception テスト失敗
+     */
+    @After
+    public void tearDown() throws Exception {
+        cache.delete();
+    }
+
+    /**
+     * 画像データを生成
+     *
+     * @param seed 乱数のシード
+     * @return 画像データ
+     */
+    private static byte[] image(long seed) {
+        byte[] data = new byte[IMAGE_SIZE];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    /**
+     * URLのキーから参照先をたどって画像データを読み込み
+     *
+     * @param key URLのキー
+     * @return 画像データ、エントリが無い場合はnull
+     * @throws IOException 読み込み失敗
+     */
+    private byte[] read(String key) throws IOException {
+        String contentKey = store.getString(key, ImageDiskStore.INDEX_CONTENT_KEY);
+        if (contentKey == null) {
+            return null;
+        }
+        try (Snapshot snapshot = store.get(contentKey.isEmpty() ? key : contentKey)) {
+            if (snapshot == null) {
+                return null;
+            }
+            byte[] data = new byte[(int) snapshot.getLength(ImageDiskStore.INDEX_DATA)];
+            try (InputStream in = snapshot.getInputStream(ImageDiskStore.INDEX_DATA)) {
+                int offset = 0;
+                int read;
+                while (offset < data.length && 0 <= (read = in.read(data, offset, data.length - offset))) {
+                    offset += read;
+                }
+            }
+            return data;
+        }
+    }
+
+    /**
+     * 容量を超えて保存しても新しい画像は常に保存される
+     *
+     * @throws Exception テスト失敗
+     */
+    @Test
+    public void saveAfterFull() throws Exception {
+        int count = (int) (MAX_SIZE / IMAGE_SIZE) * 4;
+        for (int i = 0; i < count; i++) {
+            byte[] data = image(i);
+            String key = CacheKey.of("https://example.com/tray/" + i);
+            String contentKey = (i % 2 == 0) ? CacheKey.ofContent(data, data.length) : null;
+            assertTrue(store.save(key, data, data.length, contentKey, "", ""));
+            assertArrayEquals(data, read(key));
+        }
+        assertEquals(count, store.getSavedCount()[ImageCache.Mode.ORIGINAL.ordinal()]);
+        // 古いエントリを削除して全体の上限に収まる
+        cache.flush();
+        assertTrue(cache.size() <= MAX_SIZE);
+    }
+
+    /**
+     * 同じ内容の画像データは1つだけ保存して共有する
+     *
+     * @throws Exception テスト失敗
+     */
+    @Test
+    public void dedup() throws Exception {
+        byte[] data = image(1);
+        String contentKey = CacheKey.ofContent(data, data.length);
+        String first = CacheKey.of("https://example.com/icon.png");
+        String second = CacheKey.of("https://example.com/icon.png?v=2");
+        assertTrue(store.save(first, data, data.length, contentKey, "", ""));
+        assertTrue(store.save(second, data, data.length, contentKey, "", ""));
+        assertArrayEquals(data, read(first));
+        assertArrayEquals(data, read(second));
+        assertEquals(1, store.getSavedCount()[ImageCache.Mode.ORIGINAL.ordinal()]);
+        assertEquals(1, store.getDedupCount());
+        assertEquals(data.length, store.getDedupBytes());
+    }
+
+    /**
+     * 検証情報だけを更新しても画像データは変わらない
+     *
+     * @throws Exception テスト失敗
+     */
+    @Test
+    public void updateMetadata() throws Exception {
+        byte[] data = image(2);
+        String key = CacheKey.of("https://example.com/photo.jpg");
+        assertTrue(!store.updateMetadata(key, "etag"));
+        assertTrue(store.save(key, data, data.length, null, "", "thumbnail"));
+        assertTrue(store.updateMetadata(key, "etag"));
+        assertEquals("etag", store.getString(key, ImageDiskStore.INDEX_METADATA));
+        assertEquals("thumbnail", store.getString(key, ImageDiskStore.INDEX_THUMBNAIL));
+        assertArrayEquals(data, read(key));
+        assertEquals(1, store.getRevalidateCount());
+    }
+}
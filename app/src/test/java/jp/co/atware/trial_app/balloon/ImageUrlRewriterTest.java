@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2017, atWare, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *  Neither the name of the atWare, Inc. nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL atWare, Inc. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package jp.co.atware.trial_app.balloon;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * ImageUrlRewriter単体試験
+ */
+public class ImageUrlRewriterTest {
+
+    private static final int ORIGINAL_SIZE = 1024 * 1024;
+    private static final int RESIZED_SIZE = 64 * 1024;
+
+    /**
+     * テンプレートに画像URLと横幅を埋め込む
+     */
+    @Test
+    public void rewrite() {
+        ImageUrlRewriter rewriter = new ImageUrlRewriter();
+        rewriter.setRules("img.example.com=https://img.example.com{path}?w={width}&{query}\n"
+                + "*.cdn.example.com=https://resize.example.com/{width}/{encodedUrl}\n"
+                + "invalid line\n"
+                + "nowidth.example.com=https://nowidth.example.com{path}");
+        assertEquals("https://img.example.com/a/b.jpg?w=768&v=2",
+                rewriter.rewrite("https://IMG.example.com/a/b.jpg?v=2", 768));
+        assertEquals("https://resize.example.com/768/https%3A%2F%2Fs1.cdn.example.com%2Fc.png",
+                rewriter.rewrite("https://s1.cdn.example.com/c.png", 768));
+        assertEquals("https://nowidth.example.com/d.jpg",
+                rewriter.rewrite("https://nowidth.example.com/d.jpg", 768));
+        assertEquals("https://other.example.com/e.jpg",
+                rewriter.rewrite("https://other.example.com/e.jpg", 768));
+        assertEquals("not a url", rewriter.rewrite("not a url", 768));
+
+        rewriter.setRules(null);
+        assertEquals("https://img.example.com/a/b.jpg",
+                rewriter.rewrite("https://img.example.com/a/b.jpg", 768));
+    }
+
+    /**
+     * 連続して失敗したホストは書き換えを止め、通信エラーは数えない
+     */
+    @Test
+    public void disable() {
+        ImageUrlRewriter rewriter = new ImageUrlRewriter();
+        rewriter.setRules("img.example.com=https://img.example.com{path}?w={width}");
+        String url = "https://img.example.com/a.jpg";
+        for (int i = 0; i < 10; i++) {
+            rewriter.recordFailure(url, false);
+        }
+        rewriter.recordFailure(url, true);
+        rewriter.recordFailure(url, true);
+        assertFalse(url.equals(rewriter.rewrite(url, 768)));
+        rewriter.recordSuccess(url, 100);
+        rewriter.recordFailure(url, true);
+        rewriter.recordFailure(url, true);
+        assertFalse(url.equals(rewriter.rewrite(url, 768)));
+        rewriter.recordFailure(url, true);
+        assertEquals(url, rewriter.rewrite(url, 768));
+    }
+
+    /**
+     * 一定間隔で元の画像のサイズを計測し、縮小した全ての画像の削減量を推定する
+     */
+    @Test
+    public void estimateSavedBytes() {
+        ImageUrlRewriter rewriter = new ImageUrlRewriter();
+        rewriter.setRules("img.example.com=https://img.example.com{path}?w={width}");
+        assertEquals(0, rewriter.getEstimatedSavedBytes());
+        int count = 10;
+        int samples = 0;
+        for (int i = 0; i < count; i++) {
+            if (rewriter.recordSuccess("https://img.example.com/" + i + ".jpg", RESIZED_SIZE)) {
+                rewriter.recordSample(ORIGINAL_SIZE, RESIZED_SIZE);
+                samples++;
+            }
+        }
+        // 最初の画像と8枚毎の画像を計測
+        assertEquals(2, samples);
+        rewriter.recordFailure("https://img.example.com/broken.jpg", true);
+        // 元の画像のサイズが取得できない場合は計測しない
+        rewriter.recordSample(-1, RESIZED_SIZE);
+
+        assertEquals((long) count * (ORIGINAL_SIZE - RESIZED_SIZE), rewriter.getEstimatedSavedBytes());
+        String report = rewriter.toString();
+        assertTrue(report, report.contains("fallbacks=1"));
+        assertTrue(report, report.contains("sampled=2"));
+    }
+}
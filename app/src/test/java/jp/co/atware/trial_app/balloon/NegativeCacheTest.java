@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2017, atWare, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *  Neither the name of the atWare, Inc. nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL atWare, Inc. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package jp.co.atware.trial_app.balloon;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import jp.co.atware.trial_app.balloon.NegativeCache.Failure;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * NegativeCache単体試験
+ */
+public class NegativeCacheTest {
+
+    private static final String URL = "https://example.com/broken.png";
+    private static final long NOW = 1000000L;
+
+    /**
+     * 連続した失敗毎に待機時間を倍にする
+     */
+    @Test
+    public void backoff() {
+        NegativeCache cache = new NegativeCache();
+        assertFalse(cache.isBackingOff(URL, NOW));
+        assertEquals(5000, cache.recordFailure(URL, Failure.NETWORK, NOW));
+        assertTrue(cache.isBackingOff(URL, NOW + 4999));
+        assertFalse(cache.isBackingOff(URL, NOW + 5000));
+        assertEquals(10000, cache.recordFailure(URL, Failure.NETWORK, NOW + 5000));
+        assertEquals(20000, cache.recordFailure(URL, Failure.NETWORK, NOW + 15000));
+        assertEquals(Failure.NETWORK, cache.getFailure(URL));
+    }
+
+    /**
+     * 待機時間は上限を超えない
+     */
+    @Test
+    public void maxDelay() {
+        NegativeCache cache = new NegativeCache();
+        long delay = 0;
+        for (int i = 0; i < 40; i++) {
+            delay = cache.recordFailure(URL, Failure.DECODE, NOW);
+        }
+        assertEquals(TimeUnit.HOURS.toMillis(1), delay);
+    }
+
+    /**
+     * 成功すると失敗の記録を消去
+     */
+    @Test
+    public void success() {
+        NegativeCache cache = new NegativeCache();
+        cache.recordFailure(URL, Failure.SERVER, NOW);
+        cache.recordSuccess(URL);
+        assertFalse(cache.isBackingOff(URL, NOW));
+        assertNull(cache.getFailure(URL));
+        assertEquals(30000, cache.recordFailure(URL, Failure.SERVER, NOW));
+    }
+
+    /**
+     * HTTPステータスコードから失敗の種類を判定
+     */
+    @Test
+    public void ofStatus() {
+        assertEquals(Failure.CLIENT, Failure.ofStatus(404));
+        assertEquals(Failure.CLIENT, Failure.ofStatus(403));
+        assertEquals(Failure.SERVER, Failure.ofStatus(429));
+        assertEquals(Failure.SERVER, Failure.ofStatus(408));
+        assertEquals(Failure.SERVER, Failure.ofStatus(503));
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2017, atWare, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *  Neither the name of the atWare, Inc. nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL atWare, Inc. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package jp.co.atware.trial_app.balloon;
+
+import org.junit.Test;
+
+import jp.co.atware.trial_app.balloon.Balloon.BalloonType;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * RowHeightCache単体試験
+ */
+public class RowHeightCacheTest {
+
+    /**
+     * 表示内容と横幅が一致する場合のみ計測済みの高さを返す
+     */
+    @Test
+    public void get() {
+        RowHeightCache cache = new RowHeightCache();
+        int content = RowHeightCache.contentKey(new Balloon(BalloonType.AI_VOICE, "こんにちは"));
+        cache.put(100, content, 720, 96);
+        assertEquals(96, cache.get(100, content, 720));
+        assertEquals(0, cache.get(100, content, 1280));
+        assertEquals(0, cache.get(100, content + 1, 720));
+        assertEquals(0, cache.get(101, content, 720));
+        cache.clear();
+        assertEquals(0, cache.get(100, content, 720));
+    }
+
+    /**
+     * 未計測の行は同じ表示内容と横幅で計測済みの高さから推定する
+     */
+    @Test
+    public void estimate() {
+        RowHeightCache cache = new RowHeightCache();
+        int content = RowHeightCache.contentKey(new Balloon(BalloonType.AI_VOICE, "こんにちは"));
+        int other = RowHeightCache.contentKey(new Balloon(BalloonType.USER_VOICE, "こんにちは"));
+        assertEquals(0, cache.estimate(content, 720));
+        cache.put(3, content, 720, 96);
+        assertEquals(content, RowHeightCache.contentKey(new Balloon(BalloonType.AI_VOICE, "こんにちは")));
+        assertEquals(96, cache.estimate(content, 720));
+        assertEquals(0, cache.estimate(content, 1280));
+        assertEquals(0, cache.estimate(other, 720));
+        cache.put(4, content, 720, 120);
+        assertEquals(120, cache.estimate(content, 720));
+        cache.clear();
+        assertEquals(0, cache.estimate(content, 720));
+    }
+}
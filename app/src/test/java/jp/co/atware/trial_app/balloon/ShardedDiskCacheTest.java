@@ -0,0 +1,223 @@
+/*
+ * Copyright (c) 2017, atWare, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *  Neither the name of the atWare, Inc. nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL atWare, Inc. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package jp.co.atware.trial_app.balloon;
+
+import com.jakewharton.disklrucache.DiskLruCache.Editor;
+import com.jakewharton.disklrucache.DiskLruCache.Snapshot;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * ShardedDiskCache単体試験
+ */
+public class ShardedDiskCacheTest {
+
+    private static final int THREADS = 8;
+    private static final int KEY_COUNT = 256;
+    private static final int VALUE_SIZE = 16 * 1024;
+    private static final int OPERATIONS = 400;
+    private static final int WRITE_PERCENT = 20;
+    private static final int SHARD_COUNT = 4;
+    private static final long MAX_SIZE = 64 * 1024 * 1024;
+
+    private final String[] keys = new String[KEY_COUNT];
+    private final byte[] value = new byte[VALUE_SIZE];
+    private File dir;
+    private ShardedDiskCache cache;
+
+    /**
+     * テスト用のディスクキャッシュを作成
+     *
+     * @throws Exception テスト失敗
+     */
+    @Before
+    public void setUp() throws Exception {
+        for (int i = 0; i < KEY_COUNT; i++) {
+            keys[i] = CacheKey.of("https://example.com/image/" + i);
+        }
+        new Random(1).nextBytes(value);
+        dir = Files.createTempDirectory("sharded").toFile();
+        cache = ShardedDiskCache.open(dir, 1, 1, MAX_SIZE, SHARD_COUNT);
+    }
+
+    /**
+     * テスト用のディスクキャッシュを削除
+     *
+     * @throws Exception テスト失敗
+     */
+    @After
+    public void tearDown() throws Exception {
+        cache.delete();
+    }
+
+    /**
+     * 1件書き込み
+     *
+     * @param key キー
+     * @return 書き込んだ場合にtrue、他のスレッドが書き込み中の場合はfalse
+     * @throws IOException 書き込み失敗
+     */
+    private boolean write(String key) throws IOException {
+        Editor editor = cache.edit(key);
+        if (editor == null) {
+            return false;
+        }
+        try (OutputStream out = editor.newOutputStream(0)) {
+            out.write(value);
+        }
+        editor.commit();
+        return true;
+    }
+
+    /**
+     * 1件読み込み
+     *
+     * @param key キー
+     * @return 読み込んだ値、エントリが無い場合はnull
+     * @throws IOException 読み込み失敗
+     */
+    private byte[] read(String key) throws IOException {
+        try (Snapshot snapshot = cache.get(key)) {
+            if (snapshot == null) {
+                return null;
+            }
+            byte[] data = new byte[(int) snapshot.getLength(0)];
+            InputStream in = snapshot.getInputStream(0);
+            int offset = 0;
+            int read;
+            while (offset < data.length && (read = in.read(data, offset, data.length - offset)) != -1) {
+                offset += read;
+            }
+            return Arrays.copyOf(data, offset);
+        }
+    }
+
+    /**
+     * 複数のスレッドから読み込みと書き込みを混在させても、読み込んだ値は常に書き込んだ値と一致する
+     *
+     * @throws Exception テスト失敗
+     */
+    @Test
+    public void concurrentReadWrite() throws Exception {
+        for (String key : keys) {
+            assertTrue(write(key));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                final Random random = new Random(t);
+                results.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        int reads = 0;
+                        for (int i = 0; i < OPERATIONS; i++) {
+                            String key = keys[random.nextInt(KEY_COUNT)];
+                            if (random.nextInt(100) < WRITE_PERCENT) {
+                                write(key);
+                            } else {
+                                // 上限に達していないため、全てのエントリが読み込める
+                                assertArrayEquals(value, read(key));
+                                reads++;
+                            }
+                        }
+                        return reads;
+                    }
+                }));
+            }
+            for (Future<Integer> result : results) {
+                assertTrue(0 < result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(KEY_COUNT * (long) VALUE_SIZE, cache.size());
+    }
+
+    /**
+     * 全体の上限を超えた場合はおおよそ古いエントリから削除し、使用量の合計は上限を超えない
+     *
+     * @throws Exception テスト失敗
+     */
+    @Test
+    public void globalLimit() throws Exception {
+        cache.delete();
+        long maxSize = 64L * VALUE_SIZE;
+        cache = ShardedDiskCache.open(dir, 1, 1, maxSize, SHARD_COUNT);
+        for (String key : keys) {
+            assertTrue(write(key));
+        }
+        cache.flush();
+        assertTrue(cache.size() <= maxSize);
+        assertTrue(maxSize / 2 <= cache.size());
+        assertNull(read(keys[0]));
+        for (int i = KEY_COUNT - 16; i < KEY_COUNT; i++) {
+            assertNotNull(read(keys[i]));
+        }
+    }
+
+    /**
+     * 上限を小さくした場合は超過分を削除する
+     *
+     * @throws Exception テスト失敗
+     */
+    @Test
+    public void shrink() throws Exception {
+        for (String key : keys) {
+            assertTrue(write(key));
+        }
+        long maxSize = 32L * VALUE_SIZE;
+        cache.setMaxSize(maxSize);
+        cache.flush();
+        assertEquals(maxSize, cache.getMaxSize());
+        assertTrue(cache.size() <= maxSize);
+        assertNotNull(read(keys[KEY_COUNT - 1]));
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2017, atWare, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *  Neither the name of the atWare, Inc. nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL atWare, Inc. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package jp.co.atware.trial_app.balloon;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * TargetSize単体試験
+ */
+public class TargetSizeTest {
+
+    /**
+     * バケット単位に切り上げ
+     */
+    @Test
+    public void bucket() {
+        TargetSize size = TargetSize.of(720, 0);
+        assertEquals(768, size.width);
+        assertEquals(0, size.height);
+        assertEquals(TargetSize.of(720, 0), TargetSize.of(710, 0));
+        assertEquals("768x384", TargetSize.of(720, 360).getKey());
+    }
+
+    /**
+     * 縦幅の上限が無い表示サイズは上限がある表示サイズを包含する
+     */
+    @Test
+    public void contains() {
+        TargetSize balloon = TargetSize.of(720, 0);
+        TargetSize compound = TargetSize.of(720, 360);
+        assertTrue(balloon.contains(compound));
+        assertFalse(compound.contains(balloon));
+        assertTrue(compound.contains(TargetSize.of(320, 200)));
+        assertFalse(TargetSize.of(320, 0).contains(compound));
+    }
+
+    /**
+     * 縦幅の上限がある場合は縦長の画像を大きく縮小
+     */
+    @Test
+    public void calculateSampleSize() {
+        TargetSize balloon = TargetSize.of(768, 0);
+        TargetSize compound = TargetSize.of(768, 384);
+        assertEquals(1, balloon.calculateSampleSize(1536, 3072));
+        assertEquals(4, balloon.calculateSampleSize(3072, 6144));
+        assertEquals(8, compound.calculateSampleSize(1536, 3072));
+        assertEquals(1, compound.calculateSampleSize(640, 320));
+    }
+
+    /**
+     * 表示サイズに収めた大きさを計算
+     */
+    @Test
+    public void fit() {
+        TargetSize compound = TargetSize.of(768, 384);
+        assertArrayEquals(new int[]{192, 384}, compound.fit(768, 1536));
+        assertArrayEquals(new int[]{768, 384}, compound.fit(1536, 768));
+        assertArrayEquals(new int[]{320, 240}, compound.fit(320, 240));
+        assertArrayEquals(new int[]{768, 1536}, TargetSize.of(768, 0).fit(768, 1536));
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2017, atWare, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *  Neither the name of the atWare, Inc. nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL atWare, Inc. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package jp.co.atware.trial_app.history;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import jp.co.atware.trial_app.balloon.Balloon;
+import jp.co.atware.trial_app.balloon.Balloon.Action;
+import jp.co.atware.trial_app.balloon.Balloon.BalloonType;
+import jp.co.atware.trial_app.balloon.BalloonButton;
+import jp.co.atware.trial_app.balloon.BalloonButton.ButtonType;
+import jp.co.atware.trial_app.balloon.Payload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * BalloonCodec単体試験
+ */
+public class BalloonCodecTest {
+
+    /**
+     * 変換して戻した吹き出しを比較
+     *
+     * @param balloon 吹き出し
+     * @return 変換して戻した吹き出し
+     */
+    private static Balloon roundTrip(Balloon balloon) {
+        Balloon decoded = BalloonCodec.decode(BalloonCodec.encode(balloon));
+        assertEquals(balloon, decoded);
+        assertEquals(balloon.action, decoded.action);
+        assertEquals(balloon.position, decoded.position);
+        return decoded;
+    }
+
+    /**
+     * 全ての項目を変換して復元
+     */
+    @Test
+    public void roundTrip() {
+        List<Payload> pages = new ArrayList<>();
+        for (int p = 0; p < 2; p++) {
+            BalloonButton button = new BalloonButton(ButtonType.WEB_URL);
+            button.title = "詳細🍣";
+            button.value = "https://example.com/detail/" + p;
+            Payload payload = new Payload();
+            payload.title = "お店" + p;
+            payload.text = "駅から徒歩" + p + "分";
+            payload.url = "https://example.com/shop/" + p + ".jpg";
+            payload.buttons = Arrays.asList(button, new BalloonButton(null));
+            pages.add(payload);
+        }
+        Balloon compound = new Balloon(BalloonType.COMPOUND, pages);
+        compound.action = Action.SCROLL;
+        compound.position = 12;
+        Balloon decoded = roundTrip(compound);
+        assertEquals("詳細🍣", decoded.payloads.get(0).buttons.get(0).title);
+        assertNull(decoded.payloads.get(1).buttons.get(1).type);
+
+        roundTrip(new Balloon(BalloonType.AI_VOICE, "今日の天気は晴れです。"));
+        roundTrip(new Balloon(BalloonType.IMAGE, "https://example.com/weather.png"));
+    }
+
+    /**
+     * 省略可能な項目が無い吹き出しを変換して復元
+     */
+    @Test
+    public void roundTripNull() {
+        Balloon empty = new Balloon(BalloonType.HTML);
+        empty.action = null;
+        Balloon decoded = roundTrip(empty);
+        assertNull(decoded.payloads);
+        assertNull(decoded.action);
+        assertNull(decoded.position);
+
+        Balloon noButtons = new Balloon(BalloonType.USER_VOICE, "天気を教えて");
+        assertNull(roundTrip(noButtons).payloads.get(0).buttons);
+    }
+
+    /**
+     * 画像とWebは表示時のメモリ量を含めて見積もる
+     */
+    @Test
+    public void estimateSize() {
+        String url = "https://example.com/a.png";
+        long text = BalloonCodec.estimateSize(new Balloon(BalloonType.AI_VOICE, url));
+        long image = BalloonCodec.estimateSize(new Balloon(BalloonType.IMAGE, url));
+        long html = BalloonCodec.estimateSize(new Balloon(BalloonType.HTML, url));
+        assertTrue(text < image);
+        assertTrue(image < html);
+        assertTrue(BalloonCodec.estimateSize(new Balloon(BalloonType.HTML)) < text);
+    }
+}
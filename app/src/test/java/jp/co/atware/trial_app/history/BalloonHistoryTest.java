@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2017, atWare, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *  Neither the name of the atWare, Inc. nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL atWare, Inc. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package jp.co.atware.trial_app.history;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import jp.co.atware.trial_app.balloon.Balloon;
+import jp.co.atware.trial_app.balloon.Balloon.Action;
+import jp.co.atware.trial_app.balloon.Balloon.BalloonType;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * BalloonHistory単体試験
+ */
+public class BalloonHistoryTest {
+
+    /**
+     * 破棄された吹き出しを記録する処理
+     */
+    private static class Recorder implements BalloonHistory.OnEvictListener {
+
+        final List<Integer> evicted = new ArrayList<>();
+
+        @Override
+        public void onEvict(Balloon balloon) {
+            evicted.add(balloon.position);
+        }
+    }
+
+    /**
+     * テスト用の吹き出しを生成
+     *
+     * @param type 吹き出し種別
+     * @param i    吹き出し位置
+     * @return 吹き出し
+     */
+    private static Balloon balloon(BalloonType type, int i) {
+        Balloon balloon = new Balloon(type, (type == BalloonType.IMAGE) ? "https://example.com/" + i + ".png" : "発話" + i);
+        balloon.position = i;
+        return balloon;
+    }
+
+    /**
+     * 保持対象から外れた吹き出しも同じ位置で復元
+     */
+    @Test
+    public void roundTrip() {
+        BalloonHistory history = new BalloonHistory(3, Long.MAX_VALUE);
+        List<Balloon> expected = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            Balloon balloon = balloon((i % 2 == 0) ? BalloonType.AI_VOICE : BalloonType.IMAGE, i);
+            history.add(balloon);
+            expected.add(balloon);
+        }
+        assertEquals(20, history.size());
+        for (int i = 0; i < 20; i++) {
+            Balloon balloon = history.get(i);
+            assertEquals(Integer.valueOf(i), balloon.position);
+            assertEquals(expected.get(i).payloads, balloon.payloads);
+        }
+        // 復元した吹き出しは表示時のアクションを実行しない
+        assertEquals(Action.DO_NOTHING, history.get(1).action);
+        assertEquals(Action.SCROLL, history.get(19).action);
+    }
+
+    /**
+     * 件数の上限を超えた古い吹き出しから破棄を通知
+     */
+    @Test
+    public void evictByCount() {
+        BalloonHistory history = new BalloonHistory(3, Long.MAX_VALUE);
+        Recorder recorder = new Recorder();
+        history.setOnEvictListener(recorder);
+        for (int i = 0; i < 5; i++) {
+            history.add(balloon(BalloonType.AI_VOICE, i));
+        }
+        assertEquals(5, history.size());
+        assertEquals(Arrays.asList(0, 1), recorder.evicted);
+    }
+
+    /**
+     * 見積もりバイト数の上限を超えた場合も破棄し、最新の吹き出しは上限を超えても保持
+     */
+    @Test
+    public void evictByBytes() {
+        long imageBytes = BalloonCodec.estimateSize(balloon(BalloonType.IMAGE, 0));
+        BalloonHistory history = new BalloonHistory(100, imageBytes * 2);
+        Recorder recorder = new Recorder();
+        history.setOnEvictListener(recorder);
+        for (int i = 0; i < 4; i++) {
+            history.add(balloon(BalloonType.IMAGE, i));
+        }
+        assertEquals(Arrays.asList(0, 1), recorder.evicted);
+        assertTrue(history.getLiveBytes() <= imageBytes * 2);
+
+        history = new BalloonHistory(100, 1);
+        history.add(balloon(BalloonType.IMAGE, 0));
+        history.add(balloon(BalloonType.IMAGE, 1));
+        assertEquals(BalloonCodec.estimateSize(balloon(BalloonType.IMAGE, 1)), history.getLiveBytes());
+    }
+
+    /**
+     * スクロールで遡って復元した吹き出しは一定数を超えると古いものから破棄を通知
+     */
+    @Test
+    public void evictRestored() {
+        BalloonHistory history = new BalloonHistory(1, Long.MAX_VALUE);
+        for (int i = 0; i < 20; i++) {
+            history.add(balloon(BalloonType.AI_VOICE, i));
+        }
+        Recorder recorder = new Recorder();
+        history.setOnEvictListener(recorder);
+        for (int i = 0; i < 8; i++) {
+            history.get(i);
+        }
+        assertTrue(recorder.evicted.isEmpty());
+        // 復元済みの吹き出しの参照は破棄の順序を更新する
+        history.get(0);
+        history.get(8);
+        assertEquals(Arrays.asList(1), recorder.evicted);
+    }
+
+    /**
+     * 全ての吹き出しを削除
+     */
+    @Test
+    public void clear() {
+        BalloonHistory history = new BalloonHistory(2, Long.MAX_VALUE);
+        for (int i = 0; i < 5; i++) {
+            history.add(balloon(BalloonType.IMAGE, i));
+        }
+        history.clear();
+        assertEquals(0, history.size());
+        assertEquals(0, history.getLiveBytes());
+        history.add(balloon(BalloonType.AI_VOICE, 0));
+        assertEquals(Integer.valueOf(0), history.get(0).position);
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2017, atWare, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *  Neither the name of the atWare, Inc. nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL atWare, Inc. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package jp.co.atware.trial_app.history;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import jp.co.atware.trial_app.balloon.Balloon;
+import jp.co.atware.trial_app.balloon.Balloon.BalloonType;
+import jp.co.atware.trial_app.balloon.BalloonButton;
+import jp.co.atware.trial_app.balloon.BalloonButton.ButtonType;
+import jp.co.atware.trial_app.balloon.Payload;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * BalloonSearchIndex単体試験
+ */
+public class BalloonSearchIndexTest {
+
+    private static final long MAX_SEARCH_MILLIS = 5;
+
+    /**
+     * テスト用のインデックスを生成
+     *
+     * @return インデックス
+     */
+    private BalloonSearchIndex createIndex() {
+        BalloonButton button = new BalloonButton(ButtonType.POSTBACK);
+        button.title = "東京駅周辺";
+        button.value = "tokyo";
+        Payload tray = new Payload();
+        tray.title = "ラーメン屋 Tokyo";
+        tray.text = "駅から徒歩3分";
+        tray.buttons = Arrays.asList(button);
+        Payload tray2 = new Payload();
+        tray2.title = "カフェ";
+        tray2.text = "新宿";
+
+        BalloonSearchIndex index = new BalloonSearchIndex();
+        index.add(0, new Balloon(BalloonType.USER_VOICE, "東京の天気を教えて"));
+        index.add(1, new Balloon(BalloonType.AI_VOICE, "東京都は晴れです。"));
+        index.add(2, new Balloon(BalloonType.IMAGE, "https://example.com/tokyo.png"));
+        index.add(3, new Balloon(BalloonType.COMPOUND, Arrays.asList(tray, tray2)));
+        index.add(4, new Balloon(BalloonType.AI_VOICE, "ＴＯＫＹＯ　ＳＫＹＴＲＥＥ"));
+        return index;
+    }
+
+    /**
+     * 日本語の部分一致
+     *
+     * @throws Exception テスト失敗
+     */
+    @Test
+    public void phrase() throws Exception {
+        BalloonSearchIndex index = createIndex();
+        assertArrayEquals(new int[]{3, 1, 0}, index.search("東京", 10));
+        assertArrayEquals(new int[]{1}, index.search("晴れ", 10));
+        assertArrayEquals(new int[]{3}, index.search("徒歩3分", 10));
+        assertArrayEquals(new int[0], index.search("大阪", 10));
+        assertArrayEquals(new int[]{3, 1}, index.search("東京", 2));
+    }
+
+    /**
+     * 1文字の検索
+     *
+     * @throws Exception テスト失敗
+     */
+    @Test
+    public void singleChar() throws Exception {
+        BalloonSearchIndex index = createIndex();
+        assertArrayEquals(new int[]{3, 1, 0}, index.search("京", 10));
+        assertArrayEquals(new int[]{3}, index.search("宿", 10));
+    }
+
+    /**
+     * 全角英数と大文字小文字の正規化
+     *
+     * @throws Exception テスト失敗
+     */
+    @Test
+    public void normalize() throws Exception {
+        BalloonSearchIndex index = createIndex();
+        assertArrayEquals(new int[]{4, 3}, index.search("tokyo", 10));
+        assertArrayEquals(new int[]{4}, index.search("Tokyo Sky", 10));
+    }
+
+    /**
+     * 単語の先頭からの前方一致
+     *
+     * @throws Exception テスト失敗
+     */
+    @Test
+    public void prefix() throws Exception {
+        BalloonSearchIndex index = createIndex();
+        assertArrayEquals(new int[]{3, 1, 0}, index.search("東*", 10));
+        assertArrayEquals(new int[0], index.search("京*", 10));
+        assertArrayEquals(new int[]{4}, index.search("sky*", 10));
+        assertArrayEquals(new int[]{4, 3}, index.search("tok*", 10));
+    }
+
+    /**
+     * 50000件の吹き出しから新しい順に上限件数まで検索
+     */
+    @Test
+    public void largeIndex() {
+        final int count = 50000;
+        String[] words = {"天気", "ニュース", "レストラン", "東京", "大阪", "予約", "音楽", "電車", "遅延", "ランチ"};
+        String[] texts = new String[count];
+        BalloonSearchIndex index = new BalloonSearchIndex();
+        for (int i = 0; i < count; i++) {
+            texts[i] = words[i % words.length] + "について" + words[(i / 7) % words.length] + "の情報です。番号" + i;
+            index.add(i, new Balloon(i % 2 == 0 ? BalloonType.USER_VOICE : BalloonType.AI_VOICE, texts[i]));
+        }
+
+        List<String> queries = new ArrayList<>(Arrays.asList(words));
+        queries.addAll(Arrays.asList("東京について", "情報です"));
+        for (String query : queries) {
+            int[] result = index.search(query, 50);
+            assertEquals(query, 50, result.length);
+            for (int j = 0; j < result.length; j++) {
+                assertTrue(query, texts[result[j]].contains(query));
+                assertTrue(query, j == 0 || result[j] < result[j - 1]);
+            }
+        }
+        assertEquals(count - 1, index.search("情報です", 1)[0]);
+        assertArrayEquals(new int[]{49999}, index.search("番号49999", 50));
+        assertEquals(50, index.search("レス*", 50).length);
+
+        // 1件あたり数ミリ秒以内に検索できること
+        final int rounds = 20;
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            for (String query : queries) {
+                index.search(query, 50);
+            }
+        }
+        long average = (System.nanoTime() - start) / (rounds * queries.size());
+        assertTrue("average=" + average + "ns", average < TimeUnit.MILLISECONDS.toNanos(MAX_SEARCH_MILLIS));
+    }
+}
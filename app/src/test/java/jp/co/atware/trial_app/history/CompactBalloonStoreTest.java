@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2017, atWare, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *  Neither the name of the atWare, Inc. nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL atWare, Inc. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package jp.co.atware.trial_app.history;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import jp.co.atware.trial_app.balloon.Balloon;
+import jp.co.atware.trial_app.balloon.Balloon.Action;
+import jp.co.atware.trial_app.balloon.Balloon.BalloonType;
+import jp.co.atware.trial_app.balloon.BalloonButton;
+import jp.co.atware.trial_app.balloon.BalloonButton.ButtonType;
+import jp.co.atware.trial_app.balloon.Payload;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * CompactBalloonStore単体試験
+ */
+public class CompactBalloonStoreTest {
+
+    private static final int COUNT = 10000;
+
+    /**
+     * テスト用の吹き出しを生成
+     *
+     * @param i 吹き出し位置
+     * @return 吹き出し
+     */
+    private Balloon balloon(int i) {
+        Balloon balloon;
+        switch (i % 4) {
+            case 0:
+                balloon = new Balloon(BalloonType.USER_VOICE, "天気を教えて" + (i % 50));
+                break;
+            case 1:
+                balloon = new Balloon(BalloonType.AI_VOICE, "今日の天気は晴れです。" + i);
+                break;
+            case 2:
+                balloon = new Balloon(BalloonType.IMAGE, "https://example.com/weather/" + (i % 10) + ".png");
+                balloon.action = Action.DO_NOTHING;
+                break;
+            default:
+                List<Payload> pages = new ArrayList<>();
+                for (int p = 0; p < 3; p++) {
+                    BalloonButton button = new BalloonButton(ButtonType.WEB_URL);
+                    button.title = "詳細";
+                    button.value = "https://example.com/detail/" + p;
+                    Payload payload = new Payload();
+                    payload.title = "お店" + p;
+                    payload.text = "駅から徒歩" + p + "分";
+                    payload.url = "https://example.com/shop/" + p + ".jpg";
+                    payload.buttons = Arrays.asList(button);
+                    pages.add(payload);
+                }
+                balloon = new Balloon(BalloonType.COMPOUND, pages);
+                break;
+        }
+        balloon.position = i;
+        return balloon;
+    }
+
+    /**
+     * 格納した吹き出しを復元
+     *
+     * @throws Exception テスト失敗
+     */
+    @Test
+    public void roundTrip() throws Exception {
+        CompactBalloonStore store = new CompactBalloonStore();
+        List<Balloon> expected = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            Balloon balloon = balloon(i);
+            store.add(balloon);
+            expected.add(balloon);
+        }
+        Balloon empty = new Balloon(BalloonType.HTML);
+        store.add(empty);
+        expected.add(empty);
+
+        assertEquals(expected, store);
+        assertEquals(Integer.valueOf(42), store.get(42).position);
+        assertEquals(BalloonType.COMPOUND, store.getType(3));
+    }
+
+    /**
+     * 10000件の吹き出しで重複する文字列を1つにまとめて保持
+     */
+    @Test
+    public void dedupStrings() {
+        List<Balloon> balloons = new ArrayList<>(COUNT);
+        CompactBalloonStore store = new CompactBalloonStore();
+        for (int i = 0; i < COUNT; i++) {
+            balloons.add(balloon(i));
+            store.add(balloon(i));
+        }
+        assertEquals(balloons, store);
+        // 入力25種、応答2500種、画像URL5種、複合テンプレート13種
+        assertEquals(25 + COUNT / 4 + 5 + 13, store.getStringCount());
+
+        store.clear();
+        assertEquals(0, store.size());
+        assertEquals(0, store.getStringCount());
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2017, atWare, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *  Neither the name of the atWare, Inc. nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL atWare, Inc. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package jp.co.atware.trial_app.history;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import jp.co.atware.trial_app.balloon.Balloon;
+import jp.co.atware.trial_app.balloon.Balloon.BalloonType;
+import jp.co.atware.trial_app.balloon.BalloonButton;
+import jp.co.atware.trial_app.balloon.BalloonButton.ButtonType;
+import jp.co.atware.trial_app.balloon.Payload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * ConversationLog単体試験
+ */
+public class ConversationLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * テスト用の吹き出しを生成
+     *
+     * @param i 吹き出し位置
+     * @return 吹き出し
+     */
+    private Balloon balloon(int i) {
+        Balloon balloon;
+        switch (i % 3) {
+            case 0:
+                balloon = new Balloon(BalloonType.USER_VOICE, "こんにちは" + i);
+                break;
+            case 1:
+                balloon = new Balloon(BalloonType.IMAGE, "https://example.com/image" + i + ".png");
+                break;
+            default:
+                BalloonButton button = new BalloonButton(ButtonType.POSTBACK);
+                button.title = "はい";
+                button.value = "yes" + i;
+                Payload payload = new Payload();
+                payload.text = "よろしいですか";
+                payload.buttons = Arrays.asList(button);
+                balloon = new Balloon(BalloonType.BUTTON, Arrays.asList(payload));
+                break;
+        }
+        balloon.position = i;
+        return balloon;
+    }
+
+    /**
+     * 追記した吹き出しを再オープン後に末尾から復元
+     *
+     * @throws Exception テスト失敗
+     */
+    @Test
+    public void restoreAfterReopen() throws Exception {
+        File dir = folder.newFolder();
+        List<Balloon> expected = new ArrayList<>();
+        ConversationLog log = new ConversationLog(dir);
+        for (int i = 0; i < 30; i++) {
+            Balloon balloon = balloon(i);
+            log.append(balloon);
+            expected.add(balloon);
+        }
+        log.close();
+
+        ConversationLog reopened = new ConversationLog(dir);
+        assertEquals(30, reopened.size());
+        assertEquals(expected.subList(10, 30), reopened.readLast(20));
+        reopened.close();
+    }
+
+    /**
+     * 末尾の吹き出しのみを残して作り直し
+     *
+     * @throws Exception テスト失敗
+     */
+    @Test
+    public void compact() throws Exception {
+        ConversationLog log = new ConversationLog(folder.newFolder());
+        for (int i = 0; i < 100; i++) {
+            log.append(balloon(i));
+        }
+        log.compact(10);
+        assertEquals(10, log.size());
+        assertEquals(balloon(99), log.readLast(1).get(0));
+        log.append(balloon(100));
+        assertEquals(balloon(100), log.readLast(1).get(0));
+        log.close();
+    }
+
+    /**
+     * 作り直しの途中で終了した場合、書き出しが完了していれば作り直した履歴、完了していなければ元の履歴を復元
+     *
+     * @throws Exception テスト失敗
+     */
+    @Test
+    public void compactInterrupted() throws Exception {
+        File dir = folder.newFolder();
+        File compacted = new File(dir, ConversationLog.COMPACT_DIR);
+        ConversationLog log = new ConversationLog(dir);
+        for (int i = 0; i < 30; i++) {
+            log.append(balloon(i));
+        }
+        log.close();
+
+        // 書き出しの途中で終了
+        ConversationLog partial = new ConversationLog(compacted);
+        partial.append(balloon(29));
+        partial.close();
+        ConversationLog reopened = new ConversationLog(dir);
+        assertEquals(30, reopened.size());
+        reopened.close();
+        assertFalse(compacted.exists());
+
+        // 書き出しの完了後、置き換えの前に終了
+        partial = new ConversationLog(compacted);
+        for (int i = 20; i < 30; i++) {
+            partial.append(balloon(i));
+        }
+        partial.close();
+        assertTrue(new File(compacted, ConversationLog.DONE_FILE).createNewFile());
+        reopened = new ConversationLog(dir);
+        assertEquals(10, reopened.size());
+        assertEquals(balloon(29), reopened.readLast(1).get(0));
+        reopened.close();
+        assertFalse(compacted.exists());
+    }
+
+    /**
+     * 大量の追記でも書き込み増幅率が2倍未満に収まり、末尾の吹き出しを復元できる
+     *
+     * @throws Exception テスト失敗
+     */
+    @Test
+    public void writeAmplification() throws Exception {
+        final int count = 10000;
+        final int screen = 20;
+        File dir = folder.newFolder();
+        ConversationLog log = new ConversationLog(dir);
+        for (int i = 0; i < count; i++) {
+            log.append(balloon(i));
+        }
+        double amplification = (double) log.getBytesWritten() / log.getRecordBytes();
+        log.close();
+        assertTrue("amplification=" + amplification, amplification < 2.0);
+
+        ConversationLog reopened = new ConversationLog(dir);
+        List<Balloon> restored = reopened.readLast(screen);
+        assertEquals(count, reopened.size());
+        reopened.close();
+        assertEquals(screen, restored.size());
+        assertEquals(balloon(count - screen), restored.get(0));
+        assertEquals(balloon(count - 1), restored.get(screen - 1));
+    }
+}
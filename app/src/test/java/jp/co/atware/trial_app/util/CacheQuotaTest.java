@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2017, atWare, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *  Neither the name of the atWare, Inc. nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL atWare, Inc. BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package jp.co.atware.trial_app.util;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * CacheQuota単体試験
+ */
+public class CacheQuotaTest {
+
+    private static final long MB = 1024 * 1024;
+
+    /**
+     * 容量を記録するだけのキャッシュ
+     */
+    private static class FakeClient implements CacheQuota.Client {
+
+        final CountDownLatch updated = new CountDownLatch(1);
+        final long usage;
+        volatile long quota;
+
+        /**
+         * コンストラクタ
+         *
+         * @param usage 使用中のバイト数
+         */
+        FakeClient(long usage) {
+            this.usage = usage;
+        }
+
+        @Override
+        public long getUsage() {
+            return usage;
+        }
+
+        @Override
+        public void setQuota(long quota) {
+            this.quota = quota;
+            updated.countDown();
+        }
+    }
+
+    /**
+     * 全体の上限は空き容量の1/10を16MBから256MBに収め、空きが少ない場合は半分まで
+     */
+    @Test
+    public void computeTotal() {
+        assertEquals(50 * MB, CacheQuota.computeTotal(500 * MB));
+        assertEquals(16 * MB, CacheQuota.computeTotal(100 * MB));
+        assertEquals(256 * MB, CacheQuota.computeTotal(10000 * MB));
+        assertEquals(5 * MB, CacheQuota.computeTotal(10 * MB));
+    }
+
+    /**
+     * キャッシュに均等に割り当て、使用量を報告する
+     *
+     * @throws Exception テスト失敗
+     */
+    @Test
+    public void rebalance() throws Exception {
+        File dir = Files.createTempDirectory("quota").toFile();
+        try {
+            CacheQuota quota = new CacheQuota();
+            FakeClient image = new FakeClient(3 * MB);
+            FakeClient html = new FakeClient(MB);
+            long initial = quota.register("image", dir, image);
+            assertEquals(initial, quota.register("html", dir, html) * 2);
+            quota.rebalance();
+            assertTrue(image.updated.await(1, TimeUnit.SECONDS));
+            assertTrue(html.updated.await(1, TimeUnit.SECONDS));
+            assertEquals(html.quota, image.quota);
+            String report = quota.toString();
+            assertTrue(report, report.contains("image={usage=" + 3 * MB));
+            assertTrue(report, report.contains("html={usage=" + MB));
+        } finally {
+            dir.delete();
+        }
+    }
+
+    /**
+     * 固定の割合で登録したキャッシュは使用量によらず同じ割り当てを保ち、残りを他のキャッシュで配分する
+     *
+     * @throws Exception テスト失敗
+     */
+    @Test
+    public void fixedShare() throws Exception {
+        File dir = Files.createTempDirectory("quota").toFile();
+        try {
+            CacheQuota quota = new CacheQuota();
+            FakeClient html = new FakeClient(MB);
+            FakeClient image = new FakeClient(3 * MB);
+            long fixed = quota.registerFixed("html", dir, html, 4);
+            assertEquals(fixed * 3, quota.register("image", dir, image), 4);
+            quota.rebalance();
+            assertTrue(image.updated.await(1, TimeUnit.SECONDS));
+            assertTrue(html.updated.await(1, TimeUnit.SECONDS));
+            assertEquals(html.quota * 3, image.quota, 4);
+        } finally {
+            dir.delete();
+        }
+    }
+}